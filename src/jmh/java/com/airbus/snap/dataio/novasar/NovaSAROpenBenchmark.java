@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.esa.snap.core.dataio.ProductReader;
+import org.esa.snap.core.datamodel.MetadataElement;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.util.io.FileUtils;
+import org.esa.snap.engine_utilities.datamodel.AbstractMetadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time to open a NovaSAR product, end to end and per stage of
+ * {@link NovaSARProductReader#readProductNodes}, on synthetic products of growing tie point grids and polarisation
+ * counts.
+ * <p>
+ * The stages are the parsing of {@code metadata.xml}, the conversion to the original and abstracted metadata, the
+ * abstracted metadata alone, the geo-coding, the tie point grids, the creation of the product with its image files
+ * and bands, the bands alone, and the calibration LUTs. The stage benchmarks take a {@link Stage} prepared for each
+ * invocation, so that the end to end and LUT benchmarks are not timed with a per-invocation setup. The private
+ * {@code addCalibrationLUT} of the reader is measured through {@link NovaSARCalibrationLUT#read}, which it spends
+ * its time in. Fast-open mode is measured by passing {@code -jvmArgsAppend -Dsnap.novasar.reader.fastOpen=true} to
+ * JMH.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NovaSAROpenBenchmark {
+
+    private static final int WIDTH = 2048;
+    private static final int HEIGHT = 2048;
+
+    /**
+     * The tie point grid, range by azimuth.
+     */
+    @Param({"11x11", "101x101", "301x301"})
+    public String tiePoints;
+
+    @Param({"HH", "HH,HV", "HH,HV,VH,VV"})
+    public String polarisations;
+
+    @Param({"GRD", "SLC"})
+    public String productType;
+
+    private File workDir;
+    private File metadataFile;
+    private Product product;
+    private MetadataElement metadataRoot;
+
+    @Setup(Level.Trial)
+    public void writeProduct() throws Exception {
+        final String[] grid = tiePoints.split("x");
+        workDir = Files.createTempDirectory("novasar-open-benchmark").toFile();
+        metadataFile = new NovaSARProductGenerator()
+                .productType(productType)
+                .polarisations(polarisations.split(","))
+                .size(WIDTH, HEIGHT)
+                .tiePoints(Integer.parseInt(grid[0]), Integer.parseInt(grid[1]))
+                .writeProduct(new File(workDir, "NovaSAR_" + productType));
+
+        final NovaSARProductDirectory dir = new NovaSARProductDirectory(metadataFile);
+        try {
+            dir.readProductDirectory();
+            product = dir.createProduct();
+            metadataRoot = product.getMetadataRoot();
+        } finally {
+            dir.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteProduct() {
+        product.dispose();
+        FileUtils.deleteTree(workDir);
+    }
+
+    /**
+     * A directory not yet read, and an empty root and product holding the metadata of the product, for each
+     * invocation of a stage benchmark.
+     */
+    @State(Scope.Thread)
+    public static class Stage {
+
+        NovaSARProductDirectory directory;
+        MetadataElement freshRoot;
+        Product freshProduct;
+
+        @Setup(Level.Invocation)
+        public void prepareStage(final NovaSAROpenBenchmark trial) throws IOException {
+            directory = new NovaSARProductDirectory(trial.metadataFile);
+            if (isRead()) {
+                directory.readProductDirectory();
+            }
+            freshRoot = new MetadataElement(Product.METADATA_ROOT_NAME);
+            AbstractMetadata.addOriginalProductMetadata(freshRoot).addElement(
+                    trial.metadataRoot.getElement(AbstractMetadata.ORIGINAL_PRODUCT_METADATA).getElement("metadata")
+                            .createDeepClone());
+            freshProduct = new Product(trial.product.getName(), trial.product.getProductType(), WIDTH, HEIGHT);
+            for (MetadataElement elem : trial.metadataRoot.getElements()) {
+                freshProduct.getMetadataRoot().addElement(elem.createDeepClone());
+            }
+        }
+
+        boolean isRead() {
+            return false;
+        }
+
+        @TearDown(Level.Invocation)
+        public void disposeStage() throws IOException {
+            directory.close();
+            freshProduct.dispose();
+        }
+    }
+
+    /**
+     * A {@link Stage} whose directory has been read, with its image files.
+     */
+    @State(Scope.Thread)
+    public static class ReadStage extends Stage {
+
+        @Override
+        boolean isRead() {
+            return true;
+        }
+    }
+
+    @Benchmark
+    public Product openProduct() throws IOException {
+        final ProductReader reader = new NovaSARProductReaderPlugIn().createReaderInstance();
+        final Product opened = reader.readProductNodes(metadataFile, null);
+        opened.dispose();
+        reader.close();
+        return opened;
+    }
+
+    @Benchmark
+    public NovaSARProductDirectory parseMetadataFile(final Stage stage) throws IOException {
+        stage.directory.readProductDirectory();
+        return stage.directory;
+    }
+
+    @Benchmark
+    public MetadataElement createMetadata(final Stage stage) throws IOException {
+        stage.directory.readProductDirectory();
+        return stage.directory.addMetaData();
+    }
+
+    @Benchmark
+    public MetadataElement addAbstractedMetadata(final Stage stage) throws IOException {
+        stage.directory.addAbstractedMetadataHeader(stage.freshRoot);
+        return stage.freshRoot;
+    }
+
+    @Benchmark
+    public Product addGeoCoding(final Stage stage) {
+        stage.directory.addGeoCoding(stage.freshProduct);
+        return stage.freshProduct;
+    }
+
+    @Benchmark
+    public Product addTiePointGrids(final Stage stage) {
+        stage.directory.addTiePointGrids(stage.freshProduct);
+        return stage.freshProduct;
+    }
+
+    @Benchmark
+    public Product createProduct(final Stage stage) throws Exception {
+        stage.directory.readProductDirectory();
+        return stage.directory.createProduct();
+    }
+
+    @Benchmark
+    public Product addBands(final ReadStage stage) {
+        stage.directory.addBands(stage.freshProduct);
+        return stage.freshProduct;
+    }
+
+    @Benchmark
+    public NovaSARCalibrationLUT[] readCalibrationLUTs() throws IOException {
+        final NovaSARCalibrationLUT.Type[] types = NovaSARCalibrationLUT.Type.values();
+        final NovaSARCalibrationLUT[] luts = new NovaSARCalibrationLUT[types.length];
+        for (int i = 0; i < types.length; i++) {
+            final File file = new File(metadataFile.getParentFile(), types[i].getName() + ".xml");
+            luts[i] = NovaSARCalibrationLUT.read(types[i], new FileInputStream(file));
+        }
+        return luts;
+    }
+}
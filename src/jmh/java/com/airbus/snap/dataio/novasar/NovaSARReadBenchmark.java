@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the raster read throughput of {@link NovaSARProductReader#readBandRasterDataImpl} in tiles per second
+ * and, through the {@code bytes} counter, bytes per second delivered to the destination buffers.
+ * <p>
+ * Each thread walks the tile grid of the first band of the product, starting at a different tile, with the given
+ * destination tile size and subsampling step, so that a tile covers {@code tileSize * step} source pixels as it does
+ * in a zoomed-out SNAP image level. Combinations whose {@code tileSize * step} exceeds the image are skipped: JMH
+ * reports them as failed in setup, rather than timing a read clamped to the whole image under their name; pass a
+ * larger {@code -p imageSize} to run them. The products are GRD UINT16 amplitude, SLC INT16 I/Q and compact-pol
+ * FLOAT32 {@code rh}/{@code rv} rasters, written once to {@code novasar-benchmark-products} in the temporary directory
+ * and reused by later runs.
+ * <p>
+ * Reads go through the tile cache and overview pyramid as configured; pass e.g.
+ * {@code -jvmArgsAppend -Dsnap.novasar.reader.cache.size=0} to JMH to measure the decoder alone.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NovaSARReadBenchmark {
+
+    @Param({"GRD", "SLC", "COMPACT_POL"})
+    public String productType;
+
+    @Param({"256", "512", "1024", "2048", "4096"})
+    public int tileSize;
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int step;
+
+    @Param({"8192"})
+    public int imageSize;
+
+    private NovaSARProductReader reader;
+    private Product product;
+    private Band band;
+    private int tilesX;
+    private int tilesY;
+
+    @Setup(Level.Trial)
+    public void openProduct() throws IOException {
+        if ((long) tileSize * step > imageSize) {
+            throw new IllegalStateException("Skipped: a tile of " + tileSize + " at step " + step +
+                                            " covers more than the " + imageSize + " pixel image");
+        }
+        final File metadataFile = getProduct(productType, imageSize);
+        reader = (NovaSARProductReader) new NovaSARProductReaderPlugIn().createReaderInstance();
+        product = reader.readProductNodes(metadataFile, null);
+        band = product.getBands()[0];
+        tilesX = (imageSize + getSourceTileSize() - 1) / getSourceTileSize();
+        tilesY = tilesX;
+    }
+
+    @TearDown(Level.Trial)
+    public void closeProduct() throws IOException {
+        // not opened for a skipped combination
+        if (reader != null) {
+            product.dispose();
+            reader.close();
+        }
+    }
+
+    /**
+     * The tile walk and destination buffer of a benchmark thread.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Cursor {
+
+        /**
+         * Bytes delivered to the destination buffer, reported per second.
+         */
+        public long bytes;
+
+        private int tileIndex;
+        private ProductData buffer;
+
+        @Setup(Level.Trial)
+        public void init(final NovaSARReadBenchmark benchmark, final ThreadParams threadParams) {
+            // start the threads in different parts of the image, so they do not read the same tiles in lockstep
+            tileIndex = threadParams.getThreadIndex() * 7919;
+            final int destTileSize = (benchmark.getSourceTileSize() + benchmark.step - 1) / benchmark.step;
+            buffer = ProductData.createInstance(benchmark.band.getDataType(), destTileSize * destTileSize);
+        }
+
+        @Setup(Level.Iteration)
+        public void resetCounters() {
+            bytes = 0;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public ProductData readTile1Thread(final Cursor cursor) throws IOException {
+        return readNextTile(cursor);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ProductData readTile4Threads(final Cursor cursor) throws IOException {
+        return readNextTile(cursor);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public ProductData readTileMaxThreads(final Cursor cursor) throws IOException {
+        return readNextTile(cursor);
+    }
+
+    private ProductData readNextTile(final Cursor cursor) throws IOException {
+        final int sourceTileSize = getSourceTileSize();
+        final int index = cursor.tileIndex++ % (tilesX * tilesY);
+        final int sourceX = (index % tilesX) * sourceTileSize;
+        final int sourceY = (index / tilesX) * sourceTileSize;
+        final int sourceWidth = Math.min(sourceTileSize, imageSize - sourceX);
+        final int sourceHeight = Math.min(sourceTileSize, imageSize - sourceY);
+        final int destWidth = (sourceWidth + step - 1) / step;
+        final int destHeight = (sourceHeight + step - 1) / step;
+
+        reader.readBandRasterDataImpl(sourceX, sourceY, sourceWidth, sourceHeight, step, step, band,
+                                      0, 0, destWidth, destHeight, cursor.buffer, ProgressMonitor.NULL);
+        cursor.bytes += (long) destWidth * destHeight * cursor.buffer.getElemSize();
+        return cursor.buffer;
+    }
+
+    /**
+     * @return the source extent of a tile
+     */
+    private int getSourceTileSize() {
+        return tileSize * step;
+    }
+
+    private static File getProduct(final String productType, final int imageSize) throws IOException {
+        final File productDir = new File(System.getProperty("java.io.tmpdir"),
+                                         "novasar-benchmark-products/" + productType + "_" + imageSize);
+        final File metadataFile = new File(productDir, NovaSARConstants.PRODUCT_HEADER_NAME);
+        if (metadataFile.exists()) {
+            return metadataFile;
+        }
+        final NovaSARProductGenerator generator = new NovaSARProductGenerator().size(imageSize, imageSize);
+        if (productType.equals("COMPACT_POL")) {
+            generator.productType("GRD").polarisations("RH", "RV");
+        } else {
+            generator.productType(productType).polarisations("HH");
+        }
+        return generator.writeProduct(productDir);
+    }
+}
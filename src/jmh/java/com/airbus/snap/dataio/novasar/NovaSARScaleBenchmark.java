@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.snap.core.dataio.ProductReader;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens synthetic products of growing scene size, as folders and as stored or deflated {@code NOVS*.zip} files,
+ * reads a tile from the middle of the first band and reports the heap the open product retains through the
+ * {@code retainedBytes} counter. With a reader that does not hold scene-sized data, the retained heap stays flat as
+ * the scene grows.
+ * <p>
+ * The products are written once to {@code novasar-benchmark-products} in the temporary directory and reused; the
+ * largest scene needs 2 GB per polarisation on disk.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NovaSARScaleBenchmark {
+
+    private static final int TILE_SIZE = 512;
+
+    @Param({"4096", "16384", "32768"})
+    public int sceneSize;
+
+    @Param({"FOLDER", "ZIP_STORED", "ZIP_DEFLATED"})
+    public String container;
+
+    private File input;
+
+    @Setup(Level.Trial)
+    public void writeProduct() throws IOException {
+        input = getProduct(sceneSize, container);
+    }
+
+    /**
+     * The heap retained by the open product, in bytes, averaged over the iterations.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Heap {
+
+        public long retainedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            retainedBytes = 0;
+        }
+    }
+
+    @Benchmark
+    public ProductData openAndReadTile(final Heap heap) throws IOException {
+        final long baseline = usedHeap();
+        final ProductReader reader = new NovaSARProductReaderPlugIn().createReaderInstance();
+        final Product product = reader.readProductNodes(input, null);
+        try {
+            final Band band = product.getBands()[0];
+            final ProductData buffer = ProductData.createInstance(band.getDataType(), TILE_SIZE * TILE_SIZE);
+            final int offset = (sceneSize - TILE_SIZE) / 2;
+            ((NovaSARProductReader) reader).readBandRasterDataImpl(offset, offset, TILE_SIZE, TILE_SIZE, 1, 1, band,
+                                                                  0, 0, TILE_SIZE, TILE_SIZE, buffer,
+                                                                  ProgressMonitor.NULL);
+            heap.retainedBytes = Math.max(0, usedHeap() - baseline);
+            return buffer;
+        } finally {
+            product.dispose();
+            reader.close();
+        }
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static File getProduct(final int sceneSize, final String container) throws IOException {
+        final File dir = new File(System.getProperty("java.io.tmpdir"), "novasar-benchmark-products");
+        final NovaSARProductGenerator generator = new NovaSARProductGenerator()
+                .productType("GRD")
+                .polarisations("HH")
+                .size(sceneSize, sceneSize)
+                .tiePoints(101, 101);
+        if (container.equals("FOLDER")) {
+            final File metadataFile = new File(dir, "SCALE_" + sceneSize + "/" + NovaSARConstants.PRODUCT_HEADER_NAME);
+            return metadataFile.exists() ? metadataFile : generator.writeProduct(metadataFile.getParentFile());
+        }
+        final boolean deflated = container.equals("ZIP_DEFLATED");
+        final File zipFile = new File(dir, "NOVS_SCALE_" + sceneSize + (deflated ? "_DEFLATED" : "_STORED") + ".zip");
+        return zipFile.exists() ? zipFile : generator.writeZip(zipFile, deflated);
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.esa.snap.core.datamodel.ProductData;
+
+import org.esa.snap.core.util.SystemUtils;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Serves reads of an image file from decoded tiles held in the {@link NovaSARTileCache}, decoding missing tiles
+ * from the underlying raster source.
+ * <p>
+ * The tiles form a fixed grid over the subsampled image, one grid per subsampling step and phase, so overlapping and
+ * repeated requests of downstream operators with the same step hit the same tiles. A missing tile is decoded for all
+ * samples of the image at once, so reading the Q band of complex data after the I band does not decode the file again.
+ * <p>
+ * The grid follows the preferred tile size of the product when it is aligned with the TIFF tiles or strips, so that
+ * a request of the tile scheduler is exactly one cached tile and is copied in a single block.
+ * <p>
+ * With a {@link NovaSARPrefetcher}, the tile rows ahead of a top-to-bottom scan are decoded in the background. A
+ * request for a tile being decoded, whether for a prefetch or another request, waits for it instead of decoding it
+ * again.
+ */
+class NovaSARCachedRasterSource implements NovaSARRasterSource, NovaSARPrefetcher.TileLoader {
+
+    static final int TILE_SIZE = 512;
+
+    private final NovaSARRasterSource source;
+    private final int width;
+    private final int height;
+    private final int numSamples;
+    private final int cacheTileWidth;
+    private final int cacheTileHeight;
+    private final NovaSARTileCache cache;
+    private final NovaSARPrefetcher prefetcher;     // null if not prefetching
+    // the tiles being decoded, by their key with sample offset -1
+    private final ConcurrentHashMap<NovaSARTileCache.Key, CompletableFuture<ProductData[]>> loading =
+            new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    NovaSARCachedRasterSource(final NovaSARRasterSource source, final int width, final int height,
+                              final int numSamples) {
+        this(source, width, height, numSamples, NovaSARTileCache.getInstance());
+    }
+
+    NovaSARCachedRasterSource(final NovaSARRasterSource source, final int width, final int height,
+                              final int numSamples, final NovaSARTileCache cache) {
+        this(source, width, height, numSamples, new Dimension(TILE_SIZE, TILE_SIZE), cache, 0);
+    }
+
+    /**
+     * @param tileSize      the size of the cached tiles
+     * @param prefetchDepth the number of tile rows to decode ahead of sequential scans, 0 for none
+     */
+    NovaSARCachedRasterSource(final NovaSARRasterSource source, final int width, final int height,
+                              final int numSamples, final Dimension tileSize, final NovaSARTileCache cache,
+                              final int prefetchDepth) {
+        this.source = source;
+        this.width = width;
+        this.height = height;
+        this.numSamples = Math.max(1, numSamples);
+        this.cacheTileWidth = Math.max(1, tileSize.width);
+        this.cacheTileHeight = Math.max(1, tileSize.height);
+        this.cache = cache;
+        this.prefetcher = prefetchDepth > 0 ? new NovaSARPrefetcher(this, prefetchDepth) : null;
+    }
+
+    @Override
+    public void readRaster(final int sourceOffsetX, final int sourceOffsetY,
+                           final int sourceStepX, final int sourceStepY,
+                           final int destWidth, final int destHeight,
+                           final int sampleOffset, final ProductData destBuffer) throws IOException {
+        if (sampleOffset < 0 || sampleOffset >= numSamples) {
+            throw new IllegalArgumentException("Sample offset " + sampleOffset + " not in 0 to " + (numSamples - 1));
+        }
+        final int phaseX = sourceOffsetX % sourceStepX;
+        final int phaseY = sourceOffsetY % sourceStepY;
+        // the request in the grid of the subsampled image
+        final int gx0 = sourceOffsetX / sourceStepX;
+        final int gy0 = sourceOffsetY / sourceStepY;
+        final int gridWidth = (width - phaseX + sourceStepX - 1) / sourceStepX;
+        final int gridHeight = (height - phaseY + sourceStepY - 1) / sourceStepY;
+        if (gx0 + destWidth > gridWidth || gy0 + destHeight > gridHeight) {
+            source.readRaster(sourceOffsetX, sourceOffsetY, sourceStepX, sourceStepY,
+                              destWidth, destHeight, sampleOffset, destBuffer);
+            return;
+        }
+        final Object dest = destBuffer.getElems();
+
+        for (int ty = gy0 / cacheTileHeight; ty <= (gy0 + destHeight - 1) / cacheTileHeight; ty++) {
+            final int tileTop = ty * cacheTileHeight;
+            final int tileHeight = Math.min(cacheTileHeight, gridHeight - tileTop);
+            for (int tx = gx0 / cacheTileWidth; tx <= (gx0 + destWidth - 1) / cacheTileWidth; tx++) {
+                final int tileLeft = tx * cacheTileWidth;
+                final int tileWidth = Math.min(cacheTileWidth, gridWidth - tileLeft);
+
+                final NovaSARTileCache.Key key = new NovaSARTileCache.Key(this, sourceStepX, sourceStepY, phaseX, phaseY,
+                                                                          tx, ty, sampleOffset, destBuffer.getType());
+                ProductData tile = cache.get(key);
+                if (tile == null) {
+                    tile = readTile(sourceStepX, sourceStepY, phaseX, phaseY, tx, ty, tileWidth, tileHeight,
+                                    sampleOffset, destBuffer.getType());
+                }
+
+                if (tileLeft == gx0 && tileTop == gy0 && tileWidth == destWidth && tileHeight == destHeight) {
+                    // an aligned request is exactly one tile: copy it in one block
+                    System.arraycopy(tile.getElems(), 0, dest, 0, destWidth * destHeight);
+                    continue;
+                }
+                final int x0 = Math.max(gx0, tileLeft);
+                final int x1 = Math.min(gx0 + destWidth, tileLeft + tileWidth);
+                final int y0 = Math.max(gy0, tileTop);
+                final int y1 = Math.min(gy0 + destHeight, tileTop + tileHeight);
+                final Object src = tile.getElems();
+                for (int y = y0; y < y1; y++) {
+                    System.arraycopy(src, (y - tileTop) * tileWidth + (x0 - tileLeft),
+                                     dest, (y - gy0) * destWidth + (x0 - gx0), x1 - x0);
+                }
+            }
+        }
+
+        if (prefetcher != null) {
+            prefetcher.onRead(sourceStepX, sourceStepY, phaseX, phaseY,
+                              gy0 / cacheTileHeight, (gy0 + destHeight - 1) / cacheTileHeight,
+                              gx0 / cacheTileWidth, (gx0 + destWidth - 1) / cacheTileWidth,
+                              (gridHeight + cacheTileHeight - 1) / cacheTileHeight, destBuffer.getType());
+        }
+    }
+
+    @Override
+    public void prefetchTile(final int stepX, final int stepY, final int phaseX, final int phaseY,
+                             final int tileX, final int tileY, final int dataType) {
+        if (closed || cache.contains(new NovaSARTileCache.Key(this, stepX, stepY, phaseX, phaseY, tileX, tileY, 0,
+                                                                dataType))) {
+            return;
+        }
+        final int gridWidth = (width - phaseX + stepX - 1) / stepX;
+        final int gridHeight = (height - phaseY + stepY - 1) / stepY;
+        final int tileWidth = Math.min(cacheTileWidth, gridWidth - tileX * cacheTileWidth);
+        final int tileHeight = Math.min(cacheTileHeight, gridHeight - tileY * cacheTileHeight);
+        if (tileWidth <= 0 || tileHeight <= 0) {
+            return;
+        }
+        try {
+            readTile(stepX, stepY, phaseX, phaseY, tileX, tileY, tileWidth, tileHeight, 0, dataType);
+        } catch (IOException e) {
+            SystemUtils.LOG.fine("Unable to prefetch a tile: " + e.getMessage());
+        }
+    }
+
+    private ProductData readTile(final int stepX, final int stepY, final int phaseX, final int phaseY,
+                                 final int tx, final int ty, final int tileWidth, final int tileHeight,
+                                 final int sampleOffset, final int dataType) throws IOException {
+        final NovaSARTileCache.Key loadKey = new NovaSARTileCache.Key(this, stepX, stepY, phaseX, phaseY, tx, ty, -1,
+                                                                      dataType);
+        final CompletableFuture<ProductData[]> load = new CompletableFuture<>();
+        final CompletableFuture<ProductData[]> pending = loading.putIfAbsent(loadKey, load);
+        if (pending != null) {
+            try {
+                return pending.get()[sampleOffset];
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a tile");
+            } catch (ExecutionException e) {
+                // the other decode failed: try again here, to report the failure to this caller
+                return decodeTile(stepX, stepY, phaseX, phaseY, tx, ty, tileWidth, tileHeight, dataType)[sampleOffset];
+            }
+        }
+        try {
+            final ProductData[] tiles = decodeTile(stepX, stepY, phaseX, phaseY, tx, ty, tileWidth, tileHeight,
+                                                   dataType);
+            load.complete(tiles);
+            return tiles[sampleOffset];
+        } catch (IOException | RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(loadKey, load);
+        }
+    }
+
+    private ProductData[] decodeTile(final int stepX, final int stepY, final int phaseX, final int phaseY,
+                                     final int tx, final int ty, final int tileWidth, final int tileHeight,
+                                     final int dataType) throws IOException {
+        final int[] sampleOffsets = new int[numSamples];
+        final ProductData[] tiles = new ProductData[numSamples];
+        for (int s = 0; s < numSamples; s++) {
+            sampleOffsets[s] = s;
+            tiles[s] = ProductData.createInstance(dataType, tileWidth * tileHeight);
+        }
+        source.readRasters(phaseX + tx * cacheTileWidth * stepX, phaseY + ty * cacheTileHeight * stepY, stepX, stepY,
+                           tileWidth, tileHeight, sampleOffsets, tiles);
+        if (!closed) {
+            for (int s = 0; s < numSamples; s++) {
+                cache.put(new NovaSARTileCache.Key(this, stepX, stepY, phaseX, phaseY, tx, ty, s, dataType), tiles[s]);
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Drops the cached tiles of this image file.
+     */
+    void close() {
+        closed = true;
+        if (prefetcher != null) {
+            prefetcher.close();
+        }
+        cache.invalidate(this);
+    }
+}
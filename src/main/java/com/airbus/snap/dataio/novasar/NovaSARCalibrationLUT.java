@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * A NovaSAR radiometric calibration look-up table: a constant offset and one gain per range sample, such that the
+ * calibrated value of a pixel is {@code (DN^2 + offset) / gain}.
+ */
+public final class NovaSARCalibrationLUT {
+
+    /**
+     * The calibration LUTs of a NovaSAR product.
+     */
+    public enum Type {
+        SIGMA0("lutSigma"),
+        GAMMA0("lutGamma"),
+        BETA0("lutBeta");
+
+        private final String fileName;
+
+        Type(final String fileName) {
+            this.fileName = fileName;
+        }
+
+        /**
+         * @return the name of the LUT file, without extension, which is also the name of its metadata element
+         */
+        public String getName() {
+            return fileName;
+        }
+    }
+
+    private static final XMLInputFactory xmlInputFactory = createXMLInputFactory();
+
+    private final Type type;
+    private final double offset;
+    private final double[] gains;
+
+    private NovaSARCalibrationLUT(final Type type, final double offset, final double[] gains) {
+        this.type = type;
+        this.offset = offset;
+        this.gains = gains;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public double getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the gains, one per range sample. The array is shared and must not be modified.
+     */
+    public double[] getGains() {
+        return gains;
+    }
+
+    /**
+     * Reads a LUT file with a streaming parser, converting the gains straight into a primitive array.
+     *
+     * @param type   the LUT type
+     * @param stream the LUT XML, closed when done
+     * @return the LUT
+     * @throws IOException if the file cannot be read or has no gains
+     */
+    static NovaSARCalibrationLUT read(final Type type, final InputStream stream) throws IOException {
+        double offset = 0.0;
+        final DoubleParser gains = new DoubleParser();
+        try (InputStream is = stream) {
+            final XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(is);
+            try {
+                int depth = 0;
+                while (reader.hasNext()) {
+                    final int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        ++depth;
+                        if (depth == 2 && "offset".equals(reader.getLocalName())) {
+                            offset = Double.parseDouble(reader.getElementText().trim());
+                            --depth;
+                        } else if (depth == 2 && "gains".equals(reader.getLocalName())) {
+                            readGains(reader, gains);
+                            --depth;
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        --depth;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException | NumberFormatException e) {
+            throw new IOException("Unable to read " + type.getName() + ": " + e.getMessage(), e);
+        }
+        if (gains.count == 0) {
+            throw new IOException("No gains in " + type.getName());
+        }
+        return new NovaSARCalibrationLUT(type, offset, gains.toArray());
+    }
+
+    private static void readGains(final XMLStreamReader reader, final DoubleParser gains) throws XMLStreamException {
+        while (reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA ||
+                    event == XMLStreamConstants.SPACE) {
+                gains.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                gains.flush();
+                return;
+            }
+        }
+    }
+
+    private static XMLInputFactory createXMLInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        return factory;
+    }
+
+    /**
+     * Parses whitespace-separated numbers from text arriving in chunks, which may split a number.
+     */
+    private static final class DoubleParser {
+
+        private final StringBuilder token = new StringBuilder(32);
+        private double[] values = new double[4096];
+        private int count = 0;
+
+        void append(final char[] chars, final int start, final int length) {
+            for (int i = start; i < start + length; i++) {
+                final char c = chars[i];
+                if (Character.isWhitespace(c)) {
+                    flush();
+                } else {
+                    token.append(c);
+                }
+            }
+        }
+
+        void flush() {
+            if (token.length() > 0) {
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, 2 * count);
+                }
+                values[count++] = Double.parseDouble(token.toString());
+                token.setLength(0);
+            }
+        }
+
+        double[] toArray() {
+            return Arrays.copyOf(values, count);
+        }
+    }
+}
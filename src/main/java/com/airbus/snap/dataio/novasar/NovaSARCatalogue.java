@@ -0,0 +1,498 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.esa.snap.core.datamodel.MetadataElement;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.engine_utilities.datamodel.AbstractMetadata;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Builds a catalogue of the NovaSAR products in a directory tree, without creating products or opening any image
+ * file. For every product folder ({@code metadata.xml}) and {@code NOVS*.zip} file, {@code metadata.xml} is read in
+ * one streaming pass and turned into the abstracted metadata the reader would create; the catalogue keeps the
+ * scene corners, first and last line times, acquisition mode, pass, product type and polarisations.
+ * <p>
+ * Products are read on a fixed number of worker threads. The catalogue is written as JSON lines, one product per
+ * line, in the order the products are done; products that cannot be read are logged and left out.
+ * <pre>
+ *     java com.airbus.snap.dataio.novasar.NovaSARCatalogue &lt;product tree&gt; &lt;catalogue.jsonl&gt; [threads]
+ * </pre>
+ */
+public class NovaSARCatalogue {
+
+    private static final Logger LOG = Logger.getLogger(NovaSARCatalogue.class.getName());
+
+    private NovaSARCatalogue() {
+    }
+
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: NovaSARCatalogue <product tree> <catalogue.jsonl> [threads]");
+            System.exit(1);
+        }
+        final int numThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        final int count = write(Paths.get(args[0]), Paths.get(args[1]), numThreads);
+        System.out.println(count + " products catalogued in " + args[1]);
+    }
+
+    /**
+     * Catalogues the products in a directory tree. The catalogue file is replaced when complete.
+     *
+     * @param root       the directory tree
+     * @param output     the JSON lines file to write
+     * @param numThreads the number of products read concurrently
+     * @return the number of products catalogued
+     * @throws IOException          if the tree cannot be listed or the catalogue not be written
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    public static int write(final Path root, final Path output, final int numThreads)
+            throws IOException, InterruptedException {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads < 1");
+        }
+        final List<Path> inputs = findProducts(root);
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads, r -> {
+            final Thread thread = new Thread(r, "NovaSAR catalogue " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        final CompletionService<Record> completion = new ExecutorCompletionService<>(executor);
+
+        final Path absOutput = output.toAbsolutePath();
+        final Path tmpFile = absOutput.resolveSibling(absOutput.getFileName() + ".part");
+        int count = 0;
+        try (Writer writer = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+            // only a few products per worker are in flight, so the records do not pile up in memory
+            final Iterator<Path> it = inputs.iterator();
+            int pending = 0;
+            while (pending > 0 || it.hasNext()) {
+                while (it.hasNext() && pending < 2 * numThreads) {
+                    final Path input = it.next();
+                    completion.submit(() -> read(input));
+                    ++pending;
+                }
+                final Future<Record> future = completion.take();
+                --pending;
+                try {
+                    writer.write(future.get().toJson());
+                    writer.write('\n');
+                    ++count;
+                } catch (ExecutionException e) {
+                    LOG.warning(e.getCause().getMessage());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Files.move(tmpFile, absOutput, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * Reads a catalogue written by {@link #write}.
+     *
+     * @param catalogue the JSON lines file
+     * @return the records, in the order of the file
+     * @throws IOException if the file cannot be read or holds other lines than records
+     */
+    public static List<Record> readCatalogue(final Path catalogue) throws IOException {
+        final List<Record> records = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(catalogue, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    records.add(Record.fromJson(line));
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Lists the products in a directory tree: the {@code metadata.xml} files of product folders and the
+     * {@code NOVS*.zip} files, sorted by path.
+     *
+     * @param root the directory tree
+     * @return the product inputs, as the reader accepts them
+     * @throws IOException if the tree cannot be listed
+     */
+    public static List<Path> findProducts(final Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(NovaSARCatalogue::isProductInput).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static boolean isProductInput(final Path path) {
+        final String name = path.getFileName().toString().toUpperCase(Locale.ENGLISH);
+        return (name.equalsIgnoreCase(NovaSARConstants.PRODUCT_HEADER_NAME) ||
+                (name.startsWith(NovaSARConstants.MISSION_NAME) && name.endsWith(".ZIP"))) &&
+                Files.isRegularFile(path);
+    }
+
+    /**
+     * Reads the catalogue record of a product.
+     *
+     * @param input the {@code metadata.xml} of a product folder or a {@code NOVS*.zip} file
+     * @return the record
+     * @throws IOException if the metadata cannot be read
+     */
+    public static Record read(final Path input) throws IOException {
+        final NovaSARProductDirectory dir = new NovaSARProductDirectory(input.toFile());
+        try {
+            final MetadataElement absRoot;
+            try {
+                if (input.getFileName().toString().toUpperCase(Locale.ENGLISH).endsWith(".ZIP")) {
+                    try (NovaSARZipArchive archive = NovaSARZipArchive.open(input.toFile())) {
+                        final NovaSARZipArchive.Entry entry = archive.find(NovaSARConstants.PRODUCT_HEADER_NAME);
+                        if (entry == null) {
+                            throw new IOException("No " + NovaSARConstants.PRODUCT_HEADER_NAME + " found");
+                        }
+                        absRoot = dir.readCatalogueMetadata(archive.openInputStream(entry));
+                    }
+                } else {
+                    absRoot = dir.readCatalogueMetadata(Files.newInputStream(input));
+                }
+            } catch (IOException | RuntimeException e) {
+                throw new IOException("Unable to catalogue " + input + ": " + e.getMessage(), e);
+            }
+            return new Record(input.toAbsolutePath().toString(), Files.size(input),
+                              Files.getLastModifiedTime(input).toMillis(), absRoot);
+        } finally {
+            dir.close();
+        }
+    }
+
+    /**
+     * The catalogue entry of a product. Times are ISO-8601 UTC with microseconds, corners in degrees.
+     */
+    public static final class Record {
+
+        public final String path;
+        public final long size;
+        public final long lastModified;
+        public final String product;
+        public final String productType;
+        public final String acquisitionMode;
+        public final String pass;
+        public final String[] polarisations;
+        public final String firstLineTime;
+        public final String lastLineTime;
+        public final double firstNearLat;
+        public final double firstNearLon;
+        public final double firstFarLat;
+        public final double firstFarLon;
+        public final double lastNearLat;
+        public final double lastNearLon;
+        public final double lastFarLat;
+        public final double lastFarLon;
+
+        Record(final String path, final long size, final long lastModified, final MetadataElement absRoot) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            product = absRoot.getAttributeString(AbstractMetadata.PRODUCT);
+            productType = absRoot.getAttributeString(AbstractMetadata.PRODUCT_TYPE);
+            acquisitionMode = absRoot.getAttributeString(AbstractMetadata.ACQUISITION_MODE);
+            pass = absRoot.getAttributeString(AbstractMetadata.PASS);
+            final List<String> pols = new ArrayList<>(4);
+            for (String tag : AbstractMetadata.polarTags) {
+                final String pol = absRoot.getAttributeString(tag, AbstractMetadata.NO_METADATA_STRING).trim();
+                if (!pol.isEmpty() && !pol.equals(AbstractMetadata.NO_METADATA_STRING.trim())) {
+                    pols.add(pol);
+                }
+            }
+            polarisations = pols.toArray(new String[0]);
+            firstLineTime = toIsoString(absRoot.getAttributeUTC(AbstractMetadata.first_line_time));
+            lastLineTime = toIsoString(absRoot.getAttributeUTC(AbstractMetadata.last_line_time));
+            firstNearLat = absRoot.getAttributeDouble(AbstractMetadata.first_near_lat);
+            firstNearLon = absRoot.getAttributeDouble(AbstractMetadata.first_near_long);
+            firstFarLat = absRoot.getAttributeDouble(AbstractMetadata.first_far_lat);
+            firstFarLon = absRoot.getAttributeDouble(AbstractMetadata.first_far_long);
+            lastNearLat = absRoot.getAttributeDouble(AbstractMetadata.last_near_lat);
+            lastNearLon = absRoot.getAttributeDouble(AbstractMetadata.last_near_long);
+            lastFarLat = absRoot.getAttributeDouble(AbstractMetadata.last_far_lat);
+            lastFarLon = absRoot.getAttributeDouble(AbstractMetadata.last_far_long);
+        }
+
+        Record(final String path, final long size, final long lastModified, final String product,
+               final String productType, final String acquisitionMode, final String pass,
+               final String[] polarisations, final String firstLineTime, final String lastLineTime,
+               final double[] corners) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.product = product;
+            this.productType = productType;
+            this.acquisitionMode = acquisitionMode;
+            this.pass = pass;
+            this.polarisations = polarisations;
+            this.firstLineTime = firstLineTime;
+            this.lastLineTime = lastLineTime;
+            firstNearLat = corners[0];
+            firstNearLon = corners[1];
+            firstFarLat = corners[2];
+            firstFarLon = corners[3];
+            lastNearLat = corners[4];
+            lastNearLon = corners[5];
+            lastFarLat = corners[6];
+            lastFarLon = corners[7];
+        }
+
+        /**
+         * @return the corners as latitude/longitude pairs, in the order first near, first far, last near, last far
+         */
+        double[] getCorners() {
+            return new double[]{firstNearLat, firstNearLon, firstFarLat, firstFarLon,
+                    lastNearLat, lastNearLon, lastFarLat, lastFarLon};
+        }
+
+        /**
+         * Parses a line of a catalogue.
+         *
+         * @param json a line written by {@link #toJson()}
+         * @return the record
+         * @throws IOException if the line is not a catalogue record
+         */
+        public static Record fromJson(final String json) throws IOException {
+            final Map<String, Object> values = new JsonParser(json).parseObject();
+            try {
+                final List<?> pols = (List<?>) values.get("polarisations");
+                return new Record((String) values.get("path"),
+                                  ((Number) values.get("size")).longValue(),
+                                  ((Number) values.get("lastModified")).longValue(),
+                                  (String) values.get("product"),
+                                  (String) values.get("productType"),
+                                  (String) values.get("acquisitionMode"),
+                                  (String) values.get("pass"),
+                                  pols.toArray(new String[0]),
+                                  (String) values.get("firstLineTime"),
+                                  (String) values.get("lastLineTime"),
+                                  new double[]{
+                                          getDouble(values, "firstNearLat"), getDouble(values, "firstNearLon"),
+                                          getDouble(values, "firstFarLat"), getDouble(values, "firstFarLon"),
+                                          getDouble(values, "lastNearLat"), getDouble(values, "lastNearLon"),
+                                          getDouble(values, "lastFarLat"), getDouble(values, "lastFarLon")});
+            } catch (ClassCastException | NullPointerException | ArrayStoreException e) {
+                throw new IOException("Not a NovaSAR catalogue record: " + json, e);
+            }
+        }
+
+        private static double getDouble(final Map<String, Object> values, final String name) {
+            final Object value = values.get(name);
+            if (value == null && values.containsKey(name)) {
+                // a value that was not finite
+                return Double.NaN;
+            }
+            return ((Number) value).doubleValue();
+        }
+
+        /**
+         * @return the record as a single-line JSON object
+         */
+        public String toJson() {
+            final StringBuilder sb = new StringBuilder(512);
+            sb.append('{');
+            appendString(sb, "path", path).append(',');
+            sb.append("\"size\":").append(size).append(',');
+            sb.append("\"lastModified\":").append(lastModified).append(',');
+            appendString(sb, "product", product).append(',');
+            appendString(sb, "productType", productType).append(',');
+            appendString(sb, "acquisitionMode", acquisitionMode).append(',');
+            appendString(sb, "pass", pass).append(',');
+            sb.append("\"polarisations\":[");
+            for (int i = 0; i < polarisations.length; i++) {
+                appendQuoted(i > 0 ? sb.append(',') : sb, polarisations[i]);
+            }
+            sb.append("],");
+            appendString(sb, "firstLineTime", firstLineTime).append(',');
+            appendString(sb, "lastLineTime", lastLineTime).append(',');
+            appendDouble(sb, "firstNearLat", firstNearLat).append(',');
+            appendDouble(sb, "firstNearLon", firstNearLon).append(',');
+            appendDouble(sb, "firstFarLat", firstFarLat).append(',');
+            appendDouble(sb, "firstFarLon", firstFarLon).append(',');
+            appendDouble(sb, "lastNearLat", lastNearLat).append(',');
+            appendDouble(sb, "lastNearLon", lastNearLon).append(',');
+            appendDouble(sb, "lastFarLat", lastFarLat).append(',');
+            appendDouble(sb, "lastFarLon", lastFarLon);
+            return sb.append('}').toString();
+        }
+
+        /**
+         * Appends a number, or {@code null} if it is not finite, as JSON has no NaN or infinity.
+         */
+        private static StringBuilder appendDouble(final StringBuilder sb, final String name, final double value) {
+            appendQuoted(sb, name).append(':');
+            return Double.isFinite(value) ? sb.append(value) : sb.append("null");
+        }
+
+        private static StringBuilder appendString(final StringBuilder sb, final String name, final String value) {
+            return appendQuoted(appendQuoted(sb, name).append(':'), value);
+        }
+
+        private static StringBuilder appendQuoted(final StringBuilder sb, final String value) {
+            sb.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    sb.append('\\').append(c);
+                } else if (c < 0x20) {
+                    sb.append(String.format("\\u%04x", (int) c));
+                } else {
+                    sb.append(c);
+                }
+            }
+            return sb.append('"');
+        }
+
+        private static String toIsoString(final ProductData.UTC utc) {
+            final long millis = utc.getAsDate().getTime();
+            return Instant.ofEpochSecond(Math.floorDiv(millis, 1000L), utc.getMicroSecondsFraction() * 1000L).toString();
+        }
+    }
+
+    /**
+     * Reads the flat JSON objects of a catalogue: string, number, null and string array values.
+     */
+    private static final class JsonParser {
+
+        private final String text;
+        private int pos = 0;
+
+        JsonParser(final String text) {
+            this.text = text;
+        }
+
+        Map<String, Object> parseObject() throws IOException {
+            final Map<String, Object> values = new HashMap<>(32);
+            expect('{');
+            if (peek() != '}') {
+                do {
+                    final String name = parseString();
+                    expect(':');
+                    values.put(name, parseValue());
+                } while (accept(','));
+            }
+            expect('}');
+            return values;
+        }
+
+        private Object parseValue() throws IOException {
+            final char c = peek();
+            if (c == '"') {
+                return parseString();
+            }
+            if (c == '[') {
+                final List<Object> list = new ArrayList<>(4);
+                expect('[');
+                if (peek() != ']') {
+                    do {
+                        list.add(parseValue());
+                    } while (accept(','));
+                }
+                expect(']');
+                return list;
+            }
+            if (text.startsWith("null", pos)) {
+                pos += 4;
+                return null;
+            }
+            final int start = pos;
+            while (pos < text.length() && "+-.0123456789eE".indexOf(text.charAt(pos)) >= 0) {
+                ++pos;
+            }
+            try {
+                return Double.parseDouble(text.substring(start, pos));
+            } catch (NumberFormatException e) {
+                throw error();
+            }
+        }
+
+        private String parseString() throws IOException {
+            expect('"');
+            final StringBuilder sb = new StringBuilder();
+            while (pos < text.length()) {
+                final char c = text.charAt(pos++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                } else if (pos < text.length() && text.charAt(pos) == 'u' && pos + 5 <= text.length()) {
+                    sb.append((char) Integer.parseInt(text.substring(pos + 1, pos + 5), 16));
+                    pos += 5;
+                } else if (pos < text.length()) {
+                    sb.append(text.charAt(pos++));
+                }
+            }
+            throw error();
+        }
+
+        private char peek() throws IOException {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                ++pos;
+            }
+            if (pos == text.length()) {
+                throw error();
+            }
+            return text.charAt(pos);
+        }
+
+        private boolean accept(final char c) throws IOException {
+            if (peek() == c) {
+                ++pos;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(final char c) throws IOException {
+            if (!accept(c)) {
+                throw error();
+            }
+        }
+
+        private IOException error() {
+            return new IOException("Not a NovaSAR catalogue record at position " + pos + ": " + text);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A seekable image stream over a byte range of a file, e.g. an image file or one stored in a zip file, for the
+ * TIFF decoder. Reads are positional on the channel of a {@link NovaSARFileHandles.Handle}, so several streams can
+ * share it, and the channel is only pinned during a read: an idle stream holds no open file. Closing the stream
+ * leaves the handle open.
+ * <p>
+ * Small reads, like those of TIFF tags, are served from a read-ahead buffer.
+ */
+class NovaSARChannelImageInputStream extends ImageInputStreamImpl {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final NovaSARFileHandles.Handle handle;
+    private final long start;
+    private final long length;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long bufferPos = 0;     // stream position of the first byte in the buffer
+
+    NovaSARChannelImageInputStream(final NovaSARFileHandles.Handle handle, final long start, final long length) {
+        this.handle = handle;
+        this.start = start;
+        this.length = length;
+        buffer.limit(0);
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (streamPos >= length || !fill()) {
+            return -1;
+        }
+        return buffer.get((int) (streamPos++ - bufferPos)) & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (len == 0) {
+            return 0;
+        }
+        if (streamPos >= length) {
+            return -1;
+        }
+        final int n = (int) Math.min(len, length - streamPos);
+        if (n >= BUFFER_SIZE) {
+            final ByteBuffer dst = ByteBuffer.wrap(b, off, n);
+            handle.readFully(dst, start + streamPos);
+            streamPos += n;
+            return n;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        final int available = (int) Math.min(n, bufferPos + buffer.limit() - streamPos);
+        final ByteBuffer src = buffer.duplicate();
+        src.position((int) (streamPos - bufferPos));
+        src.get(b, off, available);
+        streamPos += available;
+        return available;
+    }
+
+    /**
+     * Makes sure the buffer holds the byte at the stream position.
+     */
+    private boolean fill() throws IOException {
+        if (streamPos >= bufferPos && streamPos < bufferPos + buffer.limit()) {
+            return true;
+        }
+        buffer.clear();
+        buffer.limit((int) Math.min(BUFFER_SIZE, length - streamPos));
+        handle.readFully(buffer, start + streamPos);
+        buffer.flip();
+        bufferPos = streamPos;
+        return buffer.limit() > 0;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.esa.snap.core.datamodel.ProductData;
+
+import java.io.IOException;
+
+/**
+ * The raster source of an image file that is indexed on its first read rather than when the product is opened, e.g.
+ * a deflated GeoTIFF of a {@code NOVS*.zip}, which has to be inflated before its strips can be located.
+ */
+final class NovaSARDeferredRasterSource implements NovaSARRasterSource {
+
+    /**
+     * Indexes the image file.
+     */
+    interface Indexer {
+        /**
+         * @return the source to read the image file from
+         * @throws IOException if the image file cannot be read
+         */
+        NovaSARRasterSource index() throws IOException;
+    }
+
+    private final Indexer indexer;
+    private volatile NovaSARRasterSource source = null;
+
+    NovaSARDeferredRasterSource(final Indexer indexer) {
+        this.indexer = indexer;
+    }
+
+    @Override
+    public void readRaster(final int sourceOffsetX, final int sourceOffsetY, final int sourceStepX,
+                           final int sourceStepY, final int destWidth, final int destHeight,
+                           final int sampleOffset, final ProductData destBuffer) throws IOException {
+        getSource().readRaster(sourceOffsetX, sourceOffsetY, sourceStepX, sourceStepY, destWidth, destHeight,
+                               sampleOffset, destBuffer);
+    }
+
+    @Override
+    public void readRasters(final int sourceOffsetX, final int sourceOffsetY, final int sourceStepX,
+                            final int sourceStepY, final int destWidth, final int destHeight,
+                            final int[] sampleOffsets, final ProductData[] destBuffers) throws IOException {
+        getSource().readRasters(sourceOffsetX, sourceOffsetY, sourceStepX, sourceStepY, destWidth, destHeight,
+                                sampleOffsets, destBuffers);
+    }
+
+    private NovaSARRasterSource getSource() throws IOException {
+        NovaSARRasterSource s = source;
+        if (s == null) {
+            synchronized (this) {
+                s = source;
+                if (s == null) {
+                    s = indexer.index();
+                    source = s;
+                }
+            }
+        }
+        return s;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.esa.snap.core.util.SystemUtils;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A cache of the reader in the SNAP cache directory, bounded in size.
+ * <p>
+ * The cache is a directory with one subdirectory per cache key. A subdirectory is touched whenever an open product
+ * starts using it, and after new content has been written the least recently used subdirectories are deleted until
+ * the cache fits its size limit again. Subdirectories in use by an open product of this session are never deleted;
+ * content in use by another session may be, and that session then recreates it.
+ */
+final class NovaSARDiskCache {
+
+    private final File root;
+    private final long maxBytes;
+    // subdirectories in use by open products, with their number of users
+    private final Map<File, Integer> pinned = new HashMap<>();
+
+    /**
+     * @param name     the name of the cache directory in the SNAP cache directory
+     * @param maxBytes the size limit
+     */
+    NovaSARDiskCache(final String name, final long maxBytes) {
+        this.root = new File(SystemUtils.getCacheDir(), name);
+        this.maxBytes = Math.max(0, maxBytes);
+    }
+
+    /**
+     * @return the subdirectory of a cache key, which may not exist yet
+     */
+    File getDir(final String key) {
+        return new File(root, key);
+    }
+
+    /**
+     * Marks the subdirectory of a cache key as used, keeping it until {@link #unpin(File)}.
+     *
+     * @return the subdirectory, which may not exist yet
+     */
+    synchronized File pin(final String key) {
+        final File dir = getDir(key);
+        pinned.merge(dir, 1, Integer::sum);
+        touch(dir);
+        return dir;
+    }
+
+    /**
+     * Marks the subdirectory of a cache key as recently used, for content that is read without being kept open.
+     *
+     * @return the subdirectory, which may not exist yet
+     */
+    File touch(final String key) {
+        final File dir = getDir(key);
+        touch(dir);
+        return dir;
+    }
+
+    synchronized void unpin(final File dir) {
+        pinned.computeIfPresent(dir, (d, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * Deletes the least recently used subdirectories that are not pinned until the cache fits its size limit.
+     */
+    synchronized void trim() {
+        final File[] dirs = root.listFiles(File::isDirectory);
+        if (dirs == null) {
+            return;
+        }
+        final Map<File, Long> lastUsed = new HashMap<>();
+        final Map<File, Long> sizes = new HashMap<>();
+        long total = 0;
+        for (File dir : dirs) {
+            lastUsed.put(dir, dir.lastModified());
+            final long size = getSize(dir);
+            sizes.put(dir, size);
+            total += size;
+        }
+        Arrays.sort(dirs, Comparator.comparing(lastUsed::get));
+        for (File dir : dirs) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (!pinned.containsKey(dir) && delete(dir)) {
+                total -= sizes.get(dir);
+            }
+        }
+    }
+
+    private static void touch(final File dir) {
+        if (dir.isDirectory() && !dir.setLastModified(System.currentTimeMillis())) {
+            SystemUtils.LOG.fine("Unable to touch " + dir);
+        }
+    }
+
+    private static long getSize(final File dir) {
+        final File[] files = dir.listFiles();
+        long size = 0;
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    private static boolean delete(final File dir) {
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    SystemUtils.LOG.fine("Unable to delete " + file);
+                }
+            }
+        }
+        return dir.delete();
+    }
+}
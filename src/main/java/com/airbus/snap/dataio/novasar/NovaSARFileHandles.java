@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.esa.snap.core.util.SystemUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A process-wide budget of the file channels held by all open NovaSAR products.
+ * <p>
+ * A {@link Handle} stands for a file that is read with positional reads. Its channel is opened on first use, not when
+ * the handle is created, so the image files of bands that are never read are not kept open. Once more channels are
+ * open than the budget allows, the least recently used ones that no thread is reading from are closed; they are
+ * reopened transparently on their next use. The budget is set with the system property
+ * {@code snap.novasar.reader.maxOpenFiles}. It is a soft limit: when every open channel is being read from, a new one
+ * is opened anyway rather than blocking the caller.
+ * <p>
+ * The channel of a file is shared by all threads reading it, and an interrupted read closes it for all of them. Reads
+ * made with {@link Handle#read(ChannelRead)} therefore reopen the channel and retry when it was closed by another
+ * thread; only the interrupted thread itself sees the failure.
+ */
+final class NovaSARFileHandles {
+
+    private static final NovaSARFileHandles instance = new NovaSARFileHandles(Integer.getInteger(
+            SystemUtils.getApplicationContextId() + ".novasar.reader.maxOpenFiles", 256));
+
+    // retries of a read whose channel was closed under it by other threads
+    private static final int MAX_REOPEN = 3;
+
+    private final int maxOpenFiles;
+    // the handles with an open channel, least recently used first
+    private final LinkedHashMap<Handle, Boolean> openHandles = new LinkedHashMap<>(64, 0.75f, true);
+    private long openCount = 0;
+    private long closeCount = 0;
+
+    NovaSARFileHandles(final int maxOpenFiles) {
+        this.maxOpenFiles = Math.max(1, maxOpenFiles);
+    }
+
+    /**
+     * @return the budget shared by all NovaSAR products
+     */
+    static NovaSARFileHandles getInstance() {
+        return instance;
+    }
+
+    /**
+     * Creates a handle on a file, without opening it.
+     *
+     * @param path the file
+     * @return the handle, to be closed by the caller
+     */
+    Handle open(final Path path) {
+        return new Handle(path, null);
+    }
+
+    /**
+     * Creates a handle on a file that is created or checked by a preparation whenever its channel is about to be
+     * opened, e.g. a cached copy of other data that is only made once the file is read.
+     *
+     * @param path        the file
+     * @param preparation makes sure the file exists; called outside the budget, so it may take long
+     * @return the handle, to be closed by the caller
+     */
+    Handle open(final Path path, final Preparation preparation) {
+        return new Handle(path, preparation);
+    }
+
+    int getMaxOpenFiles() {
+        return maxOpenFiles;
+    }
+
+    /**
+     * @return the number of channels currently open
+     */
+    synchronized int getOpenFileCount() {
+        return openHandles.size();
+    }
+
+    /**
+     * @return the number of channels opened, including reopened ones, since the start of the session
+     */
+    synchronized long getOpenCount() {
+        return openCount;
+    }
+
+    /**
+     * @return the number of idle channels closed to stay within the budget since the start of the session
+     */
+    synchronized long getCloseCount() {
+        return closeCount;
+    }
+
+    private synchronized FileChannel acquire(final Handle handle) throws IOException {
+        if (handle.closed) {
+            throw new ClosedChannelException();
+        }
+        if (handle.channel != null && !handle.channel.isOpen()) {
+            // closed by an interrupted read of another thread
+            openHandles.remove(handle);
+            handle.channel = null;
+        }
+        if (handle.channel == null) {
+            closeIdle(maxOpenFiles - 1);
+            handle.channel = FileChannel.open(handle.path, StandardOpenOption.READ);
+            openCount++;
+        }
+        openHandles.put(handle, Boolean.TRUE);
+        handle.users++;
+        return handle.channel;
+    }
+
+    private synchronized void release(final Handle handle) {
+        handle.users--;
+        if (handle.closed && handle.users == 0) {
+            closeChannel(handle);
+        }
+    }
+
+    private synchronized void suspend(final Handle handle) {
+        if (handle.users == 0) {
+            closeChannel(handle);
+        }
+    }
+
+    private synchronized void close(final Handle handle) {
+        handle.closed = true;
+        if (handle.users == 0) {
+            closeChannel(handle);
+        }
+    }
+
+    /**
+     * Closes the least recently used idle channels until at most the given number are open.
+     */
+    private void closeIdle(final int maxOpen) {
+        final Iterator<Handle> it = openHandles.keySet().iterator();
+        while (openHandles.size() > maxOpen && it.hasNext()) {
+            final Handle handle = it.next();
+            if (handle.users == 0) {
+                it.remove();
+                closeQuietly(handle);
+                closeCount++;
+            }
+        }
+    }
+
+    private void closeChannel(final Handle handle) {
+        if (handle.channel != null) {
+            openHandles.remove(handle);
+            closeQuietly(handle);
+        }
+    }
+
+    private static void closeQuietly(final Handle handle) {
+        try {
+            handle.channel.close();
+        } catch (IOException e) {
+            SystemUtils.LOG.fine("Unable to close " + handle.path + ": " + e.getMessage());
+        }
+        handle.channel = null;
+        handle.prepared = false;
+    }
+
+    /**
+     * Makes the file of a handle available before its channel is opened.
+     */
+    interface Preparation {
+        void prepare() throws IOException;
+    }
+
+    /**
+     * A read from the channel of a handle.
+     */
+    interface ChannelRead<T> {
+        T read(FileChannel channel) throws IOException;
+    }
+
+    /**
+     * A file read through the budget. Reads pin the channel with {@link #read(ChannelRead)}, so it is not closed
+     * under them by the budget; any number of threads may read concurrently.
+     */
+    final class Handle implements Closeable {
+
+        private final Path path;
+        private final Preparation preparation;
+        // guarded by the budget
+        private FileChannel channel = null;
+        private int users = 0;
+        private boolean closed = false;
+        // whether the file has been prepared since the channel was last closed
+        private volatile boolean prepared = false;
+
+        private Handle(final Path path, final Preparation preparation) {
+            this.path = path;
+            this.preparation = preparation;
+        }
+
+        Path getPath() {
+            return path;
+        }
+
+        /**
+         * Opens the channel if needed, preparing the file first, and keeps it open until {@link #release()}.
+         *
+         * @return the channel, for positional reads only
+         * @throws IOException if the file cannot be prepared or opened or the handle is closed
+         */
+        FileChannel acquire() throws IOException {
+            if (preparation != null && !prepared) {
+                synchronized (this) {
+                    if (!prepared) {
+                        preparation.prepare();
+                        prepared = true;
+                    }
+                }
+            }
+            return NovaSARFileHandles.this.acquire(this);
+        }
+
+        void release() {
+            NovaSARFileHandles.this.release(this);
+        }
+
+        /**
+         * Reads from the channel, pinned for the duration of the read. If another thread closes the shared channel
+         * by being interrupted while reading it, the channel is reopened and the read is repeated, so it must not
+         * depend on the state left by a failed attempt.
+         *
+         * @param read the read
+         * @return the result of the read
+         * @throws IOException if the read fails, this thread is interrupted or the handle is closed
+         */
+        <T> T read(final ChannelRead<T> read) throws IOException {
+            for (int attempt = 0; ; attempt++) {
+                final FileChannel ch = acquire();
+                try {
+                    return read.read(ch);
+                } catch (ClosedChannelException e) {
+                    if (e instanceof ClosedByInterruptException || Thread.currentThread().isInterrupted() ||
+                            attempt >= MAX_REOPEN) {
+                        throw e;
+                    }
+                } finally {
+                    release();
+                }
+            }
+        }
+
+        /**
+         * @return the size of the file
+         */
+        long size() throws IOException {
+            return read(FileChannel::size);
+        }
+
+        /**
+         * Fills a buffer from a position of the file.
+         */
+        void readFully(final ByteBuffer buf, final long position) throws IOException {
+            final int start = buf.position();
+            read(ch -> {
+                buf.position(start);
+                NovaSARTiffLayout.readFully(ch, buf, position);
+                return null;
+            });
+        }
+
+        /**
+         * Closes the channel now if no thread is reading from it, e.g. once the header of a file has been read when
+         * opening a product. It is reopened on the next read.
+         */
+        void suspend() {
+            NovaSARFileHandles.this.suspend(this);
+        }
+
+        /**
+         * Closes the channel once the reads in progress are done. The handle cannot be used afterwards.
+         */
+        @Override
+        public void close() {
+            NovaSARFileHandles.this.close(this);
+        }
+
+        @Override
+        public String toString() {
+            return path.toString();
+        }
+    }
+}
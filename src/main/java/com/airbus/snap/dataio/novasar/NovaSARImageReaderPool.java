@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.util.SystemUtils;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A bounded pool of independent TIFF reader / image stream pairs for one NovaSAR image file.
+ * <p>
+ * An {@link ImageReader} and its stream keep a read position and decoder state, so they cannot be shared between
+ * threads. Each thread reading a tile leases its own pair for the duration of the read and returns it afterwards,
+ * which lets tiles of the same polarisation be decoded in parallel. Pairs are opened lazily and kept for reuse.
+ */
+class NovaSARImageReaderPool implements NovaSARRasterSource {
+
+    private static final int DEFAULT_POOL_SIZE = Integer.getInteger(SystemUtils.getApplicationContextId() +
+            ".novasar.reader.pool.size", Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Opens a new, independent stream on the image file.
+     */
+    interface StreamFactory {
+        ImageInputStream createStream() throws IOException;
+    }
+
+    private final String name;
+    private final StreamFactory streamFactory;
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<Lease> idle = new ConcurrentLinkedDeque<>();
+    private volatile boolean closed = false;
+
+    NovaSARImageReaderPool(final String name, final StreamFactory streamFactory) {
+        this(name, streamFactory, DEFAULT_POOL_SIZE);
+    }
+
+    NovaSARImageReaderPool(final String name, final StreamFactory streamFactory, final int maxSize) {
+        this.name = name;
+        this.streamFactory = streamFactory;
+        this.permits = new Semaphore(Math.max(1, maxSize), true);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Leases a reader for exclusive use by the calling thread. Blocks while all readers of the pool are in use.
+     * The lease must be given back with {@link Lease#release()}.
+     *
+     * @return the lease
+     * @throws IOException if a new stream or reader cannot be opened
+     */
+    Lease acquire() throws IOException {
+        if (closed) {
+            throw new IOException("Reader pool for " + name + " is closed");
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a reader of " + name, e);
+        }
+        Lease lease = idle.pollFirst();
+        if (lease == null) {
+            try {
+                lease = open();
+            } catch (IOException | RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+        return lease;
+    }
+
+    @Override
+    public void readRaster(final int sourceOffsetX, final int sourceOffsetY,
+                           final int sourceStepX, final int sourceStepY,
+                           final int destWidth, final int destHeight,
+                           final int sampleOffset, final ProductData destBuffer) throws IOException {
+        readRasters(sourceOffsetX, sourceOffsetY, sourceStepX, sourceStepY, destWidth, destHeight,
+                    new int[]{sampleOffset}, new ProductData[]{destBuffer});
+    }
+
+    /**
+     * Decodes the rectangle once and extracts every requested sample from the decoded raster.
+     */
+    @Override
+    public void readRasters(final int sourceOffsetX, final int sourceOffsetY,
+                            final int sourceStepX, final int sourceStepY,
+                            final int destWidth, final int destHeight,
+                            final int[] sampleOffsets, final ProductData[] destBuffers) throws IOException {
+        final Raster data;
+        final Lease lease = acquire();
+        try {
+            final ImageReader reader = lease.getReader();
+            final ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(sourceStepX, sourceStepY,
+                                       sourceOffsetX % sourceStepX,
+                                       sourceOffsetY % sourceStepY);
+
+            final RenderedImage image = reader.readAsRenderedImage(0, param);
+
+            data = image.getData(new Rectangle(sourceOffsetX / sourceStepX,
+                                               sourceOffsetY / sourceStepY,
+                                               destWidth, destHeight));
+        } finally {
+            lease.release();
+        }
+
+        final int width = data.getWidth();
+        final int height = data.getHeight();
+        final DataBuffer dataBuffer = data.getDataBuffer();
+        final SampleModel sampleModel = data.getSampleModel();
+
+        for (int k = 0; k < sampleOffsets.length; k++) {
+            if (destBuffers[k].getType() == ProductData.TYPE_FLOAT32) {
+                sampleModel.getSamples(0, 0, width, height, sampleOffsets[k], (float[]) destBuffers[k].getElems(), dataBuffer);
+            } else {
+                sampleModel.getSamples(0, 0, width, height, sampleOffsets[k], (int[]) destBuffers[k].getElems(), dataBuffer);
+            }
+        }
+    }
+
+    private Lease open() throws IOException {
+        final ImageInputStream stream = streamFactory.createStream();
+        if (stream == null) {
+            throw new IOException("Unable to open " + name);
+        }
+        final ImageReader reader;
+        try {
+            reader = NovaSARProductDirectory.getTiffIIOReader(stream);
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+        return new Lease(reader, stream);
+    }
+
+    private void giveBack(final Lease lease) {
+        synchronized (idle) {
+            if (closed) {
+                lease.dispose();
+            } else {
+                idle.offerFirst(lease);
+            }
+        }
+        permits.release();
+    }
+
+    /**
+     * Closes all idle readers and streams of this pool. Readers currently leased are closed when they are released.
+     */
+    void close() {
+        synchronized (idle) {
+            closed = true;
+            Lease lease;
+            while ((lease = idle.pollFirst()) != null) {
+                lease.dispose();
+            }
+        }
+    }
+
+    /**
+     * A reader and its stream, leased from the pool by one thread.
+     */
+    final class Lease {
+
+        private final ImageReader reader;
+        private final ImageInputStream stream;
+
+        private Lease(final ImageReader reader, final ImageInputStream stream) {
+            this.reader = reader;
+            this.stream = stream;
+        }
+
+        ImageReader getReader() {
+            return reader;
+        }
+
+        void release() {
+            giveBack(this);
+        }
+
+        private void dispose() {
+            reader.dispose();
+            try {
+                stream.close();
+            } catch (IOException e) {
+                SystemUtils.LOG.warning("Unable to close image stream of " + name + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.esa.snap.core.datamodel.MetadataAttribute;
+import org.esa.snap.core.datamodel.MetadataElement;
+import org.esa.snap.core.datamodel.ProductData;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Reads a NovaSAR {@code metadata.xml} in a single streaming pass.
+ * <p>
+ * The elements are converted to a {@link MetadataElement} tree with the same rules SNAP applies to a parsed XML
+ * document, so the tree can be read like the original product metadata: leaf elements become attributes, elements
+ * with XML attributes or children become elements. The repeated {@code TiePoint} elements of
+ * {@code geographicInformation}, which make up most of the file, are not added to the tree; their latitudes and
+ * longitudes are collected into arrays instead.
+ */
+class NovaSARMetadataScanner {
+
+    private static final XMLInputFactory xmlInputFactory = createXMLInputFactory();
+
+    private MetadataElement metadata;
+    private float[] latitudes = new float[256];
+    private float[] longitudes = new float[256];
+    private int numTiePoints = 0;
+
+    private NovaSARMetadataScanner() {
+    }
+
+    /**
+     * @return the tree of the root element, without the tie point elements
+     */
+    MetadataElement getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * @return the tie point latitudes, in the order of the file
+     */
+    float[] getTiePointLatitudes() {
+        return Arrays.copyOf(latitudes, numTiePoints);
+    }
+
+    /**
+     * @return the tie point longitudes, in the order of the file
+     */
+    float[] getTiePointLongitudes() {
+        return Arrays.copyOf(longitudes, numTiePoints);
+    }
+
+    int getNumTiePoints() {
+        return numTiePoints;
+    }
+
+    /**
+     * Scans a metadata file.
+     *
+     * @param stream the metadata XML, closed when done
+     * @return the scanned metadata
+     * @throws IOException if the file cannot be read or parsed
+     */
+    static NovaSARMetadataScanner scan(final InputStream stream) throws IOException {
+        final NovaSARMetadataScanner scanner = new NovaSARMetadataScanner();
+        try (InputStream is = stream) {
+            final XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(is);
+            try {
+                scanner.scan(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException | NumberFormatException e) {
+            throw new IOException("Unable to read NovaSAR metadata: " + e.getMessage(), e);
+        }
+        if (scanner.metadata == null) {
+            throw new IOException("Unable to read NovaSAR metadata: no root element");
+        }
+        return scanner;
+    }
+
+    private void scan(final XMLStreamReader reader) throws XMLStreamException {
+        final Deque<Frame> stack = new ArrayDeque<>();
+        final Frame document = new Frame(null);
+        stack.push(document);
+
+        while (reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                final Frame parent = stack.peek();
+                parent.hasChildElements = true;
+                final String name = reader.getLocalName();
+                if (stack.size() == 3 && "TiePoint".equals(name) && "geographicInformation".equals(parent.name)) {
+                    readTiePoint(reader);
+                    continue;
+                }
+                final Frame frame = new Frame(name);
+                for (int i = 0; i < reader.getAttributeCount(); i++) {
+                    frame.attributes.add(new String[]{reader.getAttributeLocalName(i), reader.getAttributeValue(i)});
+                }
+                stack.push(frame);
+            } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA ||
+                    event == XMLStreamConstants.SPACE) {
+                stack.peek().text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                final Frame frame = stack.pop();
+                frame.addTo(stack.peek());
+            }
+        }
+        for (Object node : document.children) {
+            if (node instanceof MetadataElement) {
+                metadata = (MetadataElement) node;
+            }
+        }
+    }
+
+    private void readTiePoint(final XMLStreamReader reader) throws XMLStreamException {
+        if (numTiePoints == latitudes.length) {
+            latitudes = Arrays.copyOf(latitudes, 2 * numTiePoints);
+            longitudes = Arrays.copyOf(longitudes, 2 * numTiePoints);
+        }
+        float lat = 0;
+        float lon = 0;
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (depth == 1 && "latitude".equals(reader.getLocalName())) {
+                    lat = (float) Double.parseDouble(reader.getElementText().trim());
+                } else if (depth == 1 && "longitude".equals(reader.getLocalName())) {
+                    lon = (float) Double.parseDouble(reader.getElementText().trim());
+                } else {
+                    ++depth;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                --depth;
+            }
+        }
+        latitudes[numTiePoints] = lat;
+        longitudes[numTiePoints] = lon;
+        ++numTiePoints;
+    }
+
+    private static MetadataAttribute createAttribute(final String name, final String value) {
+        return new MetadataAttribute(name, ProductData.createInstance(value.isEmpty() ? " " : value), true);
+    }
+
+    private static XMLInputFactory createXMLInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * An element being read. Whether it becomes an attribute or an element is only known at its end.
+     */
+    private static final class Frame {
+
+        final String name;
+        final List<String[]> attributes = new ArrayList<>(2);
+        final List<Object> children = new ArrayList<>();
+        final StringBuilder text = new StringBuilder();
+        boolean hasChildElements = false;
+
+        Frame(final String name) {
+            this.name = name;
+        }
+
+        void addTo(final Frame parent) {
+            final String value = hasChildElements ? "" : text.toString();
+            if (!hasChildElements && attributes.isEmpty()) {
+                if (!value.isEmpty()) {
+                    parent.children.add(createAttribute(name, value));
+                }
+                return;
+            }
+            final MetadataElement elem = new MetadataElement(name);
+            if (!value.isEmpty()) {
+                elem.addAttribute(createAttribute(name, value));
+            }
+            for (Object child : children) {
+                if (child instanceof MetadataElement) {
+                    elem.addElement((MetadataElement) child);
+                } else {
+                    elem.addAttribute((MetadataAttribute) child);
+                }
+            }
+            for (String[] attribute : attributes) {
+                elem.addAttribute(createAttribute(attribute[0], attribute[1]));
+            }
+            parent.children.add(elem);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.esa.snap.core.datamodel.MetadataElement;
+import org.esa.snap.engine_utilities.datamodel.AbstractMetadata;
+import org.esa.snap.engine_utilities.datamodel.OrbitStateVector;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The orbit of a NovaSAR product, interpolated from the state vectors of its metadata.
+ * <p>
+ * Between two state vectors, the position is the cubic Hermite polynomial through both positions and velocities,
+ * and the velocity its derivative. The polynomial coefficients of all intervals are computed once, when the product
+ * is opened, and kept in a primitive array, so position and velocity queries do not allocate. Before the first and
+ * after the last state vector, the polynomials of the first and last interval are extrapolated.
+ * <p>
+ * Instances are immutable and can be shared by threads. Times are modified Julian dates in days, as returned by
+ * {@link org.esa.snap.core.datamodel.ProductData.UTC#getMJD()}; positions are in m and velocities in m/s, in the
+ * frame of the state vectors.
+ */
+public final class NovaSAROrbit {
+
+    private static final double SECONDS_PER_DAY = 86400.0;
+
+    private final double mjd0;          // time of the first state vector
+    private final double[] times;       // seconds since the first state vector
+    private final double[] coefficients;    // per interval and axis: a, b, c, d of a + b s + c s^2 + d s^3
+
+    private NovaSAROrbit(final double mjd0, final double[] times, final double[] coefficients) {
+        this.mjd0 = mjd0;
+        this.times = times;
+        this.coefficients = coefficients;
+    }
+
+    /**
+     * Builds the orbit of a product from its abstracted metadata.
+     *
+     * @param absRoot the abstracted metadata, with the orbit state vectors
+     * @return the orbit, or null if there are fewer than two state vectors with distinct times
+     */
+    public static NovaSAROrbit create(final MetadataElement absRoot) {
+        return create(AbstractMetadata.getOrbitStateVectors(absRoot));
+    }
+
+    /**
+     * Builds an orbit from state vectors, in any order. Vectors with the time of an earlier one are ignored.
+     *
+     * @param stateVectors the state vectors
+     * @return the orbit, or null if there are fewer than two state vectors with distinct times
+     */
+    public static NovaSAROrbit create(final OrbitStateVector[] stateVectors) {
+        if (stateVectors == null) {
+            return null;
+        }
+        final OrbitStateVector[] sorted = stateVectors.clone();
+        Arrays.sort(sorted, Comparator.comparingDouble(v -> v.time_mjd));
+        int n = 0;
+        for (OrbitStateVector v : sorted) {
+            if (n == 0 || v.time_mjd > sorted[n - 1].time_mjd) {
+                sorted[n++] = v;
+            }
+        }
+        if (n < 2) {
+            return null;
+        }
+
+        final double mjd0 = sorted[0].time_mjd;
+        final double[] times = new double[n];
+        for (int i = 0; i < n; i++) {
+            times[i] = (sorted[i].time_mjd - mjd0) * SECONDS_PER_DAY;
+        }
+        final double[] coefficients = new double[12 * (n - 1)];
+        for (int i = 0; i < n - 1; i++) {
+            final OrbitStateVector v0 = sorted[i];
+            final OrbitStateVector v1 = sorted[i + 1];
+            final double h = times[i + 1] - times[i];
+            setCoefficients(coefficients, 12 * i, v0.x_pos, v0.x_vel, v1.x_pos, v1.x_vel, h);
+            setCoefficients(coefficients, 12 * i + 4, v0.y_pos, v0.y_vel, v1.y_pos, v1.y_vel, h);
+            setCoefficients(coefficients, 12 * i + 8, v0.z_pos, v0.z_vel, v1.z_pos, v1.z_vel, h);
+        }
+        return new NovaSAROrbit(mjd0, times, coefficients);
+    }
+
+    private static void setCoefficients(final double[] coefficients, final int offset, final double p0,
+                                        final double v0, final double p1, final double v1, final double h) {
+        coefficients[offset] = p0;
+        coefficients[offset + 1] = h * v0;
+        coefficients[offset + 2] = 3 * (p1 - p0) - h * (2 * v0 + v1);
+        coefficients[offset + 3] = 2 * (p0 - p1) + h * (v0 + v1);
+    }
+
+    /**
+     * @return the time of the first state vector, as modified Julian date
+     */
+    public double getStartTime() {
+        return mjd0;
+    }
+
+    /**
+     * @return the time of the last state vector, as modified Julian date
+     */
+    public double getEndTime() {
+        return mjd0 + times[times.length - 1] / SECONDS_PER_DAY;
+    }
+
+    /**
+     * Computes the satellite position at a time.
+     *
+     * @param mjd      the time, as modified Julian date
+     * @param position receives x, y and z, in m
+     */
+    public void getPosition(final double mjd, final double[] position) {
+        getPositionVelocity(mjd, position, null);
+    }
+
+    /**
+     * Computes the satellite velocity at a time.
+     *
+     * @param mjd      the time, as modified Julian date
+     * @param velocity receives x, y and z, in m/s
+     */
+    public void getVelocity(final double mjd, final double[] velocity) {
+        getPositionVelocity(mjd, null, velocity);
+    }
+
+    /**
+     * Computes the satellite position and velocity at a time.
+     *
+     * @param mjd      the time, as modified Julian date
+     * @param position receives x, y and z, in m; may be null
+     * @param velocity receives x, y and z, in m/s; may be null
+     */
+    public void getPositionVelocity(final double mjd, final double[] position, final double[] velocity) {
+        final double t = (mjd - mjd0) * SECONDS_PER_DAY;
+        final int i = findInterval(t);
+        final double h = times[i + 1] - times[i];
+        final double s = (t - times[i]) / h;
+        for (int axis = 0; axis < 3; axis++) {
+            final int o = 12 * i + 4 * axis;
+            final double a = coefficients[o];
+            final double b = coefficients[o + 1];
+            final double c = coefficients[o + 2];
+            final double d = coefficients[o + 3];
+            if (position != null) {
+                position[axis] = a + s * (b + s * (c + s * d));
+            }
+            if (velocity != null) {
+                velocity[axis] = (b + s * (2 * c + s * 3 * d)) / h;
+            }
+        }
+    }
+
+    /**
+     * @return the index of the interval holding the time, the first or last one outside the state vectors
+     */
+    private int findInterval(final double t) {
+        int lo = 0;
+        int hi = times.length - 2;
+        while (lo < hi) {
+            final int mid = (lo + hi + 1) >>> 1;
+            if (times[mid] <= t) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+}
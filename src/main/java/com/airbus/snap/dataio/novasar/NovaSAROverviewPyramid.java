@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.util.SystemUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A persistent power-of-two overview pyramid of one NovaSAR image file.
+ * <p>
+ * Level {@code L} holds every {@code 2^L}-th pixel of every {@code 2^L}-th row of the image, i.e. exactly the samples
+ * a subsampled read with a step of {@code 2^L} returns. A subsampled request is served from the coarsest level whose
+ * pixel grid contains all requested pixels, so the full-resolution strips are not decoded just to be thrown away.
+ * <p>
+ * The levels are stored as uncompressed TIFFs in the SNAP cache directory, keyed by the path, size and modification
+ * time of the image file, and are built in the background on the first subsampled request. Until a level is
+ * available, requests are answered from the image itself. A build that fails is retried on a later request, after a
+ * delay that doubles with each failure, from 10 s up to 30 min. Once a pyramid is built, the least recently used
+ * pyramids of closed images are deleted until the cache fits the size set with the system property
+ * {@code snap.novasar.reader.overviews.size} (in MB).
+ */
+class NovaSAROverviewPyramid {
+
+    private static final boolean enabled = Boolean.parseBoolean(System.getProperty(
+            SystemUtils.getApplicationContextId() + ".novasar.reader.overviews", "true"));
+
+    // no levels are built below this size, and no pyramid for images smaller than twice of it
+    private static final int MIN_LEVEL_SIZE = 256;
+    private static final int BUILD_CHUNK_BYTES = 8 * 1024 * 1024;
+
+    // delays before a failed build is retried, in ms
+    private static final long RETRY_DELAY = 10 * 1000L;
+    private static final long MAX_RETRY_DELAY = 30 * 60 * 1000L;
+
+    private static final NovaSARDiskCache cache = new NovaSARDiskCache("novasar-overviews", Long.getLong(
+            SystemUtils.getApplicationContextId() + ".novasar.reader.overviews.size", 4 * 1024L) * 1024 * 1024);
+
+    private static final ExecutorService builder = Executors.newSingleThreadExecutor(r -> {
+        final Thread thread = new Thread(r, "NovaSAR overview builder");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private final String name;
+    private final File dir;
+    private final NovaSARTiffLayout layout;
+    private final NovaSARRasterSource baseSource;
+    private final int numLevels;
+    private final AtomicReferenceArray<NovaSARTiffRasterReader> levels;
+    private final AtomicBoolean buildScheduled = new AtomicBoolean(false);
+    private volatile long retryTime = 0;
+    private int numFailures = 0;   // accessed by the builder thread only
+    private volatile boolean closed = false;
+
+    private NovaSAROverviewPyramid(final String name, final File dir, final NovaSARTiffLayout layout,
+                                   final NovaSARRasterSource baseSource, final int numLevels) {
+        this.name = name;
+        this.dir = dir;
+        this.layout = layout;
+        this.baseSource = baseSource;
+        this.numLevels = numLevels;
+        this.levels = new AtomicReferenceArray<>(numLevels + 1);
+    }
+
+    /**
+     * Creates the pyramid of an image file and opens the levels already in the cache.
+     *
+     * @param imageFile  the image file
+     * @param layout     the raster layout of the image file
+     * @param baseSource where to read the full-resolution image from when building the pyramid
+     * @return the pyramid, or null if overviews are disabled or the image is too small to need them
+     */
+    static NovaSAROverviewPyramid create(final File imageFile, final NovaSARTiffLayout layout,
+                                         final NovaSARRasterSource baseSource) {
+        return create(imageFile.getName(), getCacheKey(imageFile), layout, baseSource);
+    }
+
+    /**
+     * Creates the pyramid of an image file that is not a file of its own, e.g. an entry of a zip file.
+     *
+     * @param name     the file name of the image
+     * @param cacheKey the key of the pyramid in the cache, changing when the image changes
+     */
+    static NovaSAROverviewPyramid create(final String name, final String cacheKey, final NovaSARTiffLayout layout,
+                                         final NovaSARRasterSource baseSource) {
+        if (!enabled) {
+            return null;
+        }
+        int numLevels = 0;
+        while (Math.max(levelSize(layout.width, numLevels + 1), levelSize(layout.height, numLevels + 1)) >= MIN_LEVEL_SIZE) {
+            ++numLevels;
+        }
+        if (numLevels == 0) {
+            return null;
+        }
+        final File dir = cache.pin(cacheKey);
+        final NovaSAROverviewPyramid pyramid = new NovaSAROverviewPyramid(name, dir, layout, baseSource, numLevels);
+        for (int level = 1; level <= numLevels; level++) {
+            final File levelFile = pyramid.getLevelFile(level);
+            if (!levelFile.exists() || !pyramid.openLevel(level, levelFile)) {
+                break;
+            }
+        }
+        return pyramid;
+    }
+
+    /**
+     * Serves a subsampled read from the coarsest suitable overview level, if it has been built already. Otherwise
+     * the pyramid is built in the background and the request has to be read from the image.
+     *
+     * @return true if the request was served, false if it has to be read from the image
+     * @throws IOException if the overview cannot be read
+     */
+    boolean readRaster(final int sourceOffsetX, final int sourceOffsetY,
+                       final int sourceStepX, final int sourceStepY,
+                       final int destWidth, final int destHeight,
+                       final int sampleOffset, final ProductData destBuffer) throws IOException {
+        return readRasters(sourceOffsetX, sourceOffsetY, sourceStepX, sourceStepY, destWidth, destHeight,
+                           new int[]{sampleOffset}, new ProductData[]{destBuffer});
+    }
+
+    /**
+     * Like {@link #readRaster}, for several samples of each pixel decoded at once.
+     */
+    boolean readRasters(final int sourceOffsetX, final int sourceOffsetY,
+                        final int sourceStepX, final int sourceStepY,
+                        final int destWidth, final int destHeight,
+                        final int[] sampleOffsets, final ProductData[] destBuffers) throws IOException {
+        int level = Math.min(numLevels, Math.min(Integer.numberOfTrailingZeros(sourceStepX),
+                                                 Integer.numberOfTrailingZeros(sourceStepY)));
+        if (sourceOffsetX != 0) {
+            level = Math.min(level, Integer.numberOfTrailingZeros(sourceOffsetX));
+        }
+        if (sourceOffsetY != 0) {
+            level = Math.min(level, Integer.numberOfTrailingZeros(sourceOffsetY));
+        }
+        if (level == 0) {
+            return false;
+        }
+        NovaSARTiffRasterReader overview = null;
+        while (level > 0 && (overview = levels.get(level)) == null) {
+            --level;
+        }
+        if (levels.get(numLevels) == null) {
+            scheduleBuild();
+        }
+        if (overview == null) {
+            return false;
+        }
+        overview.readRasters(sourceOffsetX >> level, sourceOffsetY >> level,
+                             sourceStepX >> level, sourceStepY >> level,
+                             destWidth, destHeight, sampleOffsets, destBuffers);
+        return true;
+    }
+
+    private void scheduleBuild() {
+        if (!closed && System.currentTimeMillis() >= retryTime && buildScheduled.compareAndSet(false, true)) {
+            builder.execute(this::build);
+        }
+    }
+
+    private void build() {
+        try {
+            Files.createDirectories(dir.toPath());
+            for (int level = 1; level <= numLevels && !closed; level++) {
+                if (levels.get(level) == null) {
+                    buildLevel(level);
+                }
+            }
+            cache.trim();
+        } catch (IOException | RuntimeException e) {
+            if (!closed) {
+                // retried by a later request, once the delay is over
+                final long delay = Math.min(MAX_RETRY_DELAY, RETRY_DELAY << Math.min(numFailures, 20));
+                ++numFailures;
+                retryTime = System.currentTimeMillis() + delay;
+                SystemUtils.LOG.warning("Unable to build overviews of " + name + ", retrying in " + delay / 1000 +
+                                                " s: " + e.getMessage());
+            }
+            buildScheduled.set(false);
+        }
+    }
+
+    private void buildLevel(final int level) throws IOException {
+        final NovaSARRasterSource source = level == 1 ? baseSource : levels.get(level - 1);
+        final int width = levelSize(layout.width, level);
+        final int height = levelSize(layout.height, level);
+        final int spp = layout.samplesPerPixel;
+        final boolean floating = layout.sampleFormat == NovaSARTiffLayout.SAMPLE_FORMAT_FLOAT;
+        final int bytesPerSample = layout.bitsPerSample / 8;
+        final int chunkRows = Math.max(1, Math.min(height, BUILD_CHUNK_BYTES / (width * spp * bytesPerSample)));
+
+        final int[] sampleOffsets = new int[spp];
+        final ProductData[] samples = new ProductData[spp];
+        for (int s = 0; s < spp; s++) {
+            sampleOffsets[s] = s;
+            samples[s] = ProductData.createInstance(floating ? ProductData.TYPE_FLOAT32 : ProductData.TYPE_INT32,
+                                                    width * chunkRows);
+        }
+        final ByteBuffer rows = ByteBuffer.allocate(width * chunkRows * spp * bytesPerSample)
+                .order(ByteOrder.nativeOrder());
+
+        final File levelFile = getLevelFile(level);
+        final File tmpFile = new File(dir, levelFile.getName() + ".part");
+        try (NovaSARTiffWriter writer = new NovaSARTiffWriter(tmpFile, width, height, spp, layout.bitsPerSample,
+                                                              layout.sampleFormat, chunkRows, ByteOrder.nativeOrder())) {
+            for (int y = 0; y < height && !closed; y += chunkRows) {
+                final int numRows = Math.min(chunkRows, height - y);
+                source.readRasters(0, 2 * y, 2, 2, width, numRows, sampleOffsets, samples);
+                rows.clear();
+                final int count = width * numRows;
+                for (int i = 0; i < count; i++) {
+                    for (int s = 0; s < spp; s++) {
+                        put(rows, samples[s].getElems(), i, bytesPerSample, floating);
+                    }
+                }
+                rows.flip();
+                writer.writeRows(rows);
+            }
+        }
+        if (closed) {
+            Files.deleteIfExists(tmpFile.toPath());
+            return;
+        }
+        Files.move(tmpFile.toPath(), levelFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        if (!openLevel(level, levelFile)) {
+            throw new IOException("Unable to open " + levelFile);
+        }
+    }
+
+    private static void put(final ByteBuffer buf, final Object elems, final int i, final int bytesPerSample,
+                            final boolean floating) {
+        if (floating) {
+            final float value = ((float[]) elems)[i];
+            if (bytesPerSample == 8) {
+                buf.putDouble(value);
+            } else {
+                buf.putFloat(value);
+            }
+        } else {
+            final int value = ((int[]) elems)[i];
+            switch (bytesPerSample) {
+                case 1:
+                    buf.put((byte) value);
+                    break;
+                case 2:
+                    buf.putShort((short) value);
+                    break;
+                default:
+                    buf.putInt(value);
+                    break;
+            }
+        }
+    }
+
+    private boolean openLevel(final int level, final File levelFile) {
+        final NovaSARFileHandles.Handle handle = NovaSARFileHandles.getInstance().open(levelFile.toPath());
+        try {
+            final NovaSARTiffLayout levelLayout = handle.read(NovaSARTiffLayout::parse);
+            if (levelLayout.width == levelSize(layout.width, level) &&
+                    levelLayout.height == levelSize(layout.height, level) &&
+                    levelLayout.samplesPerPixel == layout.samplesPerPixel && levelLayout.isDirectlyReadable()) {
+                levels.set(level, new NovaSARTiffRasterReader(levelLayout, handle, true));
+                return true;
+            }
+        } catch (IOException e) {
+            SystemUtils.LOG.warning("Unable to open overview " + levelFile + ": " + e.getMessage());
+        }
+        handle.close();
+        return false;
+    }
+
+    private File getLevelFile(final int level) {
+        final String baseName = name.contains(".") ? name.substring(0, name.lastIndexOf('.')) : name;
+        return new File(dir, baseName + "_L" + level + ".tif");
+    }
+
+    void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            cache.unpin(dir);
+        }
+        for (int level = 1; level <= numLevels; level++) {
+            final NovaSARTiffRasterReader reader = levels.getAndSet(level, null);
+            if (reader != null) {
+                reader.close();
+            }
+        }
+    }
+
+    private static int levelSize(final int size, final int level) {
+        return ((size - 1) >> level) + 1;
+    }
+
+    private static String getCacheKey(final File imageFile) {
+        return getCacheKey(imageFile.getAbsolutePath() + '|' + imageFile.length() + '|' + imageFile.lastModified());
+    }
+
+    /**
+     * @return a short, file-name safe digest of an identifier of cached data
+     */
+    static String getCacheKey(final String id) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(id.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 10; i++) {
+                sb.append(String.format("%02x", digest[i]));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(id.hashCode());
+        }
+    }
+}
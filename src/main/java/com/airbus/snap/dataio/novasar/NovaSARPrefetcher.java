@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.esa.snap.core.util.SystemUtils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Detects top-to-bottom scans of an image file and decodes the tile rows ahead of them into the tile cache, so that
+ * reading and decoding overlap with the processing of the rows already read.
+ * <p>
+ * A scan is taken as sequential once the requested tile rows have advanced by at most one row a few times in a row;
+ * requests for the current or previous tile row, as issued by concurrent tile scheduler threads, do not break it.
+ * Each advance then schedules the next tile rows, over the tile columns requested during the scan, up to the
+ * prefetch depth set with the system property {@code snap.novasar.reader.prefetch} (a number of tile rows; 0
+ * disables prefetching). Tiles are decoded on a small pool of background threads shared by all images; when its
+ * queue is full, the remaining rows are left to the next advance, so a scan never waits for the prefetcher.
+ */
+class NovaSARPrefetcher {
+
+    private static final int DEFAULT_DEPTH = Integer.getInteger(
+            SystemUtils.getApplicationContextId() + ".novasar.reader.prefetch", 2);
+
+    // advances of the scan by one tile row before it is taken as sequential
+    private static final int SEQUENTIAL_RUN = 2;
+    // tiles scheduled at once, at most
+    private static final int MAX_TILES_PER_ADVANCE = 64;
+    private static final int MAX_QUEUED = 128;
+
+    private static final ThreadPoolExecutor executor = createExecutor();
+
+    private static final AtomicLong scheduledCount = new AtomicLong();
+
+    /**
+     * Decodes a tile into the cache, unless it is cached already.
+     */
+    interface TileLoader {
+        void prefetchTile(int stepX, int stepY, int phaseX, int phaseY, int tileX, int tileY, int dataType);
+    }
+
+    private final TileLoader loader;
+    private final int depth;
+
+    // the scan, guarded by this
+    private int stepX, stepY, phaseX, phaseY, dataType;
+    private int lastRow = -1;
+    private int run = 0;
+    private int minColumn, maxColumn;
+    private int prefetchedRow = -1;
+    private int scan = 0;   // counts restarts, so that a rollback does not apply to a later scan
+    private volatile boolean closed = false;
+
+    NovaSARPrefetcher(final TileLoader loader, final int depth) {
+        this.loader = loader;
+        this.depth = depth;
+    }
+
+    /**
+     * @return the number of tile rows to prefetch, 0 if disabled
+     */
+    static int getDefaultDepth() {
+        return Math.max(0, DEFAULT_DEPTH);
+    }
+
+    /**
+     * @return the number of tiles scheduled for prefetching since the start of the session
+     */
+    static long getScheduledCount() {
+        return scheduledCount.get();
+    }
+
+    /**
+     * Notes a request of the tile grid of a subsampling and prefetches ahead of it if the image is being scanned.
+     *
+     * @param row0     the first tile row of the request
+     * @param row1     the last tile row of the request
+     * @param column0  the first tile column of the request
+     * @param column1  the last tile column of the request
+     * @param numRows  the number of tile rows of the grid
+     * @param dataType the data type the tiles are decoded to
+     */
+    void onRead(final int stepX, final int stepY, final int phaseX, final int phaseY,
+                final int row0, final int row1, final int column0, final int column1,
+                final int numRows, final int dataType) {
+        final int first;
+        final int last;
+        final int columnFrom;
+        final int columnTo;
+        final int currentScan;
+        synchronized (this) {
+            if (stepX != this.stepX || stepY != this.stepY || phaseX != this.phaseX || phaseY != this.phaseY ||
+                    dataType != this.dataType) {
+                this.stepX = stepX;
+                this.stepY = stepY;
+                this.phaseX = phaseX;
+                this.phaseY = phaseY;
+                this.dataType = dataType;
+                restart(row1, column0, column1);
+                return;
+            }
+            if (row1 > lastRow) {
+                if (row0 <= lastRow + 1) {
+                    run++;
+                } else {
+                    restart(row1, column0, column1);
+                    return;
+                }
+                lastRow = row1;
+            } else if (row0 < lastRow - 1) {
+                restart(row1, column0, column1);
+                return;
+            }
+            minColumn = Math.min(minColumn, column0);
+            maxColumn = Math.max(maxColumn, column1);
+            if (run < SEQUENTIAL_RUN) {
+                return;
+            }
+            first = Math.max(prefetchedRow, lastRow) + 1;
+            final int maxRows = Math.max(1, MAX_TILES_PER_ADVANCE / (maxColumn - minColumn + 1));
+            last = Math.min(Math.min(lastRow + depth, numRows - 1), first + maxRows - 1);
+            if (first > last) {
+                return;
+            }
+            // claimed before scheduling, so that concurrent requests do not schedule the same rows
+            prefetchedRow = last;
+            columnFrom = minColumn;
+            columnTo = maxColumn;
+            currentScan = scan;
+        }
+        for (int row = first; row <= last; row++) {
+            for (int column = columnFrom; column <= columnTo; column++) {
+                if (!schedule(row, column, stepX, stepY, phaseX, phaseY, dataType)) {
+                    // the queue is full: the rows from this one on are scheduled again by a later request
+                    synchronized (this) {
+                        if (scan == currentScan && prefetchedRow == last) {
+                            prefetchedRow = row - 1;
+                        }
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    private void restart(final int row, final int column0, final int column1) {
+        lastRow = row;
+        run = 0;
+        minColumn = column0;
+        maxColumn = column1;
+        prefetchedRow = row;
+        scan++;
+    }
+
+    private boolean schedule(final int row, final int column, final int stepX, final int stepY,
+                             final int phaseX, final int phaseY, final int dataType) {
+        if (closed || executor.getQueue().remainingCapacity() == 0) {
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                if (!closed) {
+                    loader.prefetchTile(stepX, stepY, phaseX, phaseY, column, row, dataType);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // filled up by another image since the check
+            return false;
+        }
+        scheduledCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Stops prefetching; tiles already scheduled are skipped.
+     */
+    void close() {
+        closed = true;
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+        final int numThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 4));
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(numThreads, numThreads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED), r -> {
+                    final Thread thread = new Thread(r, "NovaSAR prefetcher");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
@@ -34,12 +34,15 @@ import org.esa.snap.core.datamodel.ProductData;
 import org.esa.snap.core.datamodel.TiePointGeoCoding;
 import org.esa.snap.core.datamodel.TiePointGrid;
 
+import org.esa.snap.core.dataop.downloadable.XMLSupport;
 import org.esa.snap.core.util.SystemUtils;
 import org.esa.snap.engine_utilities.datamodel.AbstractMetadata;
 import org.esa.snap.engine_utilities.datamodel.Unit;
+import org.esa.snap.engine_utilities.datamodel.metadata.AbstractMetadataIO;
 import org.esa.snap.engine_utilities.eo.Constants;
 import org.esa.snap.engine_utilities.gpf.OperatorUtils;
 import org.esa.snap.engine_utilities.gpf.ReaderUtils;
+import org.jdom2.Document;
 
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
@@ -49,15 +52,18 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.DateFormat;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntConsumer;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
 //========================================================================================================================================================================================
 // Class to represent a NovaSAR Product Directory
@@ -73,9 +79,46 @@ public class NovaSARProductDirectory extends XMLProductDirectory
     final String defStr = AbstractMetadata.NO_METADATA_STRING;
     final int defInt = AbstractMetadata.NO_METADATA;
 
-    private static final DateFormat standardDateFormat = ProductData.UTC.createDateFormat("yyyy-MM-dd HH:mm:ss");
+    // uncompressed rasters on local disk are memory mapped unless this is set to false
+    private static final boolean useMemoryMapping = Boolean.parseBoolean(System.getProperty(
+            SystemUtils.getApplicationContextId() + ".novasar.reader.mmap", "true"));
+
+    // Intensity bands are computed by the reader instead of as virtual bands if this is set to true
+    private static final boolean useNativeIntensity = Boolean.parseBoolean(System.getProperty(
+            SystemUtils.getApplicationContextId() + ".novasar.reader.intensity.native", "false"));
+
+    // metadata.xml is read in one streaming pass without its tie point elements if this is set to true
+    private static final boolean useFastOpen = Boolean.parseBoolean(System.getProperty(
+            SystemUtils.getApplicationContextId() + ".novasar.reader.fastOpen", "false"));
+
+    // geo to pixel lookups use a precomputed inverse grid unless this is set to false
+    private static final boolean useInverseGrid = Boolean.parseBoolean(System.getProperty(
+            SystemUtils.getApplicationContextId() + ".novasar.reader.inverseGrid", "true"));
+
+    // number of tie points per row and column of the incidence angle and slant range time grids
+    private static final int tiePointGridSize = Math.max(2, Integer.getInteger(
+            SystemUtils.getApplicationContextId() + ".novasar.reader.tiePointGrid.size", 11));
+
+    // rows of at least this many tie points are computed in parallel
+    private static final int PARALLEL_TIE_POINTS = 1024;
+
+    // DateFormat is not thread-safe, and products may be opened or catalogued concurrently
+    private static final ThreadLocal<DateFormat> standardDateFormat =
+            ThreadLocal.withInitial(() -> ProductData.UTC.createDateFormat("yyyy-MM-dd HH:mm:ss"));
 
     private final transient Map<String, String> polarizationMap = new HashMap<>(4);
+    private final transient Map<String, NovaSARImageReaderPool> readerPoolMap = new HashMap<>(4);
+    // filled on the first read for images indexed then
+    private final transient Map<String, NovaSARTiffRasterReader> directReaderMap = new ConcurrentHashMap<>(4);
+    private final transient Map<String, NovaSAROverviewPyramid> overviewMap = new ConcurrentHashMap<>(4);
+    private final transient Map<String, NovaSARDeferredRasterSource> deferredSourceMap = new HashMap<>(4);
+    private final transient Map<String, NovaSARCachedRasterSource> cachedSourceMap = new HashMap<>(4);
+    private final transient Map<String, NovaSARFileHandles.Handle> imageHandleMap = new HashMap<>(4);
+    private final transient Map<String, Dimension> tileSizeMap = new LinkedHashMap<>(4);   // aligned with the TIFF tiles or strips
+    private final transient Map<Band, ImageIOFile.BandInfo[]> intensityBandMap = new HashMap<>(4);
+    private final transient Map<String, ImageIOFile.BandInfo[]> polComponentsMap = new LinkedHashMap<>(4);
+    private transient NovaSARMetadataScanner metadataScan = null;   // set in fast-open mode only
+    private transient NovaSARZipArchive zipArchive = null;          // random access to the images of a NOVS*.zip
 
 //========================================================================================================================================================================================
 // Function to
@@ -113,8 +156,38 @@ protected void addImageFile(final String imgPath, final MetadataElement newRoot)
             }
             if (valid) {
                 final Dimension bandDimensions = getBandDimensions(newRoot, name);
-                final InputStream inStream = getInputStream(imgPath);
-                final ImageInputStream imgStream = ImageIOFile.createImageInputStream(inStream, bandDimensions);
+                // images are read with positional reads through the file handle budget where possible, so that an image file is only
+                // open while it is being read
+                final NovaSARZipArchive.Range zipRange = isZipped() ? openZipRange(imgPath) : null;
+                final NovaSARFileHandles.Handle imgHandle;
+                final long imgStart;
+                final long imgLength;
+                if (zipRange != null)
+                {
+                    imgHandle = zipRange.handle;
+                    imgStart = zipRange.offset;
+                    imgLength = zipRange.size;
+                }
+                else if (!isZipped())
+                {
+                    final File file = getFile(imgPath);
+                    imgHandle = NovaSARFileHandles.getInstance().open(file.toPath());
+                    imageHandleMap.put(name, imgHandle);
+                    imgStart = 0;
+                    imgLength = file.length();
+                }
+                else
+                {
+                    imgHandle = null;
+                    imgStart = 0;
+                    imgLength = 0;
+                }
+                // a deflated image in a NOVS*.zip with its header at the start is only inflated on its first read: until then, its header is
+                // inflated into memory. With the header at the end of the file, reading it inflates the whole entry anyway, so the entry is inflated
+                // into the cache right away, in that same pass
+                final boolean deferred = zipRange != null && zipRange.inflated && hasHeaderAtStart(imgPath);
+                final ImageInputStream imgStream = deferred ? zipArchive.openImageInputStream(zipArchive.find(imgPath)) :
+                        openImageStream(imgPath, bandDimensions, imgHandle, imgStart, imgLength);
                 if (imgStream == null)
                     throw new IOException("Unable to open " + imgPath);
 
@@ -126,12 +199,278 @@ protected void addImageFile(final String imgPath, final MetadataElement newRoot)
                     img = new ImageIOFile(name, imgStream, getTiffIIOReader(imgStream), productInputFile);
                 }
                 bandImageFileMap.put(img.getName(), img);
+                readerPoolMap.put(img.getName(), new NovaSARImageReaderPool(img.getName(),
+                        () -> openImageStream(imgPath, bandDimensions, imgHandle, imgStart, imgLength)));
+                if (deferred)
+                {
+                    deferredSourceMap.put(img.getName(), new NovaSARDeferredRasterSource(() -> {
+                        indexZipEntry(img.getName(), zipRange);
+                        return getIndexedRasterSource(img.getName());
+                    }));
+                }
+                else if (zipRange != null)
+                {
+                    final NovaSARTiffLayout layout = indexZipEntry(img.getName(), zipRange);
+                    if (layout != null)
+                    {
+                        tileSizeMap.put(img.getName(), layout.getAlignedTileSize(NovaSARCachedRasterSource.TILE_SIZE));
+                    }
+                }
+                else if (imgHandle != null)
+                {
+                    indexImageFile(img.getName(), getFile(imgPath), imgHandle);
+                }
+                addCachedRasterSource(img);
+                if (imgHandle != null)
+                {
+                    // the header and strip index are read: nothing is held open for this band until it is read
+                    imgHandle.suspend();
+                }
+                if (zipArchive != null)
+                {
+                    zipArchive.suspend();
+                }
             }
         }
     } // End of addImageFile()
 
+//========================================================================================================================================================================================
+// Function to index the strips/tiles of a GeoTIFF once, so that it can be read with positional reads instead of through ImageIO when uncompressed,
+// and to open its overview pyramid
+//========================================================================================================================================================================================
+private void indexImageFile(final String name, final File file, final NovaSARFileHandles.Handle handle)
+    {
+        try
+        {
+            final NovaSARTiffLayout layout = parseLayout(handle, 0);
+            tileSizeMap.put(name, layout.getAlignedTileSize(NovaSARCachedRasterSource.TILE_SIZE));
+            NovaSARRasterSource baseSource = readerPoolMap.get(name);
+            if (layout.isDirectlyReadable())
+            {
+                final boolean memoryMapped = useMemoryMapping && NovaSARTiffRasterReader.isLocalFile(file.toPath());
+                final NovaSARTiffRasterReader directReader = new NovaSARTiffRasterReader(layout, handle, memoryMapped);
+                directReaderMap.put(name, directReader);
+                baseSource = directReader;
+            }
+            final NovaSAROverviewPyramid pyramid = NovaSAROverviewPyramid.create(file, layout, baseSource);
+            if (pyramid != null)
+            {
+                overviewMap.put(name, pyramid);
+            }
+        }
+        catch (IOException e)
+        {
+            LOG.warning("Unable to index " + file + ", reading it through ImageIO: " + e.getMessage());
+        }
+    } // End of indexImageFile()
+
+//========================================================================================================================================================================================
+// Function to index a GeoTIFF in a NOVS*.zip like an unpacked one, reading it in place if stored or from its inflated copy if deflated. Returns
+// its layout, or null if it is read through ImageIO. A deflated GeoTIFF is indexed on its first read, inflating it.
+//========================================================================================================================================================================================
+private NovaSARTiffLayout indexZipEntry(final String name, final NovaSARZipArchive.Range range)
+    {
+        try
+        {
+            final NovaSARTiffLayout layout = parseLayout(range.handle, range.offset);
+            NovaSARRasterSource baseSource = readerPoolMap.get(name);
+            if (layout.isDirectlyReadable())
+            {
+                final boolean memoryMapped = useMemoryMapping && NovaSARTiffRasterReader.isLocalFile(range.file.toPath());
+                final NovaSARTiffRasterReader directReader = new NovaSARTiffRasterReader(layout, range.handle,
+                        range.offset, range.size, memoryMapped);
+                directReaderMap.put(name, directReader);
+                baseSource = directReader;
+            }
+            final NovaSAROverviewPyramid pyramid = NovaSAROverviewPyramid.create(name,
+                    NovaSAROverviewPyramid.getCacheKey(range.id), layout, baseSource);
+            if (pyramid != null)
+            {
+                overviewMap.put(name, pyramid);
+            }
+            return layout;
+        }
+        catch (IOException e)
+        {
+            LOG.warning("Unable to index " + name + " in " + productInputFile + ", reading it through ImageIO: " + e.getMessage());
+            return null;
+        }
+    } // End of indexZipEntry()
+
+//========================================================================================================================================================================================
+// Function to open an image file of a NOVS*.zip for positional reads, or return null if it can only be read sequentially
+//========================================================================================================================================================================================
+private NovaSARZipArchive.Range openZipRange(final String imgPath)
+    {
+        try
+        {
+            if (zipArchive == null)
+            {
+                zipArchive = NovaSARZipArchive.open(productInputFile);
+            }
+            final NovaSARZipArchive.Entry entry = zipArchive.find(imgPath);
+            return entry != null ? zipArchive.openRange(entry) : null;
+        }
+        catch (IOException e)
+        {
+            LOG.warning("Unable to open " + imgPath + " in " + productInputFile + " for random access: " + e.getMessage());
+            return null;
+        }
+    } // End of openZipRange()
+
+//========================================================================================================================================================================================
+// Function to check whether the image file directory of a deflated GeoTIFF in a NOVS*.zip is close enough to its start to inflate its header into
+// memory
+//========================================================================================================================================================================================
+private boolean hasHeaderAtStart(final String imgPath)
+    {
+        try
+        {
+            return zipArchive.readTiffDirectoryOffset(zipArchive.find(imgPath)) <= NovaSARZipArchive.MAX_INFLATED_HEADER;
+        }
+        catch (IOException e)
+        {
+            LOG.warning("Unable to read the header of " + imgPath + " in " + productInputFile + ": " + e.getMessage());
+            return false;
+        }
+    } // End of hasHeaderAtStart()
 
-    private static ImageReader getTiffIIOReader(final ImageInputStream stream) throws IOException {
+private static NovaSARTiffLayout parseLayout(final NovaSARFileHandles.Handle handle, final long start) throws IOException
+    {
+        return handle.read(channel -> NovaSARTiffLayout.parse(channel, start));
+    }
+
+//========================================================================================================================================================================================
+// Function to put the tile cache in front of an image file. The tiles are decoded for all samples at once, so that the I and Q bands of an SLC
+// product are decoded in one pass. Without the shared cache, a buffer of the last decoded tile still keeps the sibling component ready for the
+// next request. Only the shared cache is filled ahead of sequential scans.
+//========================================================================================================================================================================================
+private void addCachedRasterSource(final ImageIOFile img)
+    {
+        final Dimension tileSize = tileSizeMap.getOrDefault(img.getName(),
+                new Dimension(NovaSARCachedRasterSource.TILE_SIZE, NovaSARCachedRasterSource.TILE_SIZE));
+        final NovaSARTileCache cache;
+        if (NovaSARTileCache.getInstance().isEnabled())
+        {
+            cache = NovaSARTileCache.getInstance();
+        }
+        else if (img.getNumBands() > 1)
+        {
+            cache = NovaSARTileCache.createTileBuffer(tileSize, img.getNumBands());
+        }
+        else
+        {
+            return;
+        }
+        cachedSourceMap.put(img.getName(), new NovaSARCachedRasterSource(getUncachedRasterSource(img.getName()),
+                img.getSceneWidth(), img.getSceneHeight(), img.getNumBands(), tileSize, cache,
+                cache == NovaSARTileCache.getInstance() ? NovaSARPrefetcher.getDefaultDepth() : 0));
+    } // End of addCachedRasterSource()
+
+//========================================================================================================================================================================================
+// Function to return the tile size for the product, made of whole strips or tiles of its GeoTIFFs so that each of them is decoded once per pass
+// of the tile scheduler, or null if no GeoTIFF could be indexed. All images of a product share the layout of the first one.
+//========================================================================================================================================================================================
+Dimension getPreferredTileSize()
+    {
+        return tileSizeMap.isEmpty() ? null : new Dimension(tileSizeMap.values().iterator().next());
+    } // End of getPreferredTileSize()
+
+//========================================================================================================================================================================================
+// Function to open a stream on an image file, for the image file of the band and for each reader of the pool for concurrent reads. With a
+// handle, the streams share its channel, which the file handle budget may close while they are idle; images in a NOVS*.zip are read in place
+// when possible rather than by inflating the entry from its start.
+//========================================================================================================================================================================================
+private ImageInputStream openImageStream(final String imgPath, final Dimension bandDimensions,
+                                         final NovaSARFileHandles.Handle handle, final long start,
+                                         final long length) throws IOException
+    {
+        if (handle != null)
+        {
+            return new NovaSARChannelImageInputStream(handle, start, length);
+        }
+        return ImageIOFile.createImageInputStream(getInputStream(imgPath), bandDimensions);
+    } // End of openImageStream()
+
+//========================================================================================================================================================================================
+// Function to check whether the product is read from a NOVS*.zip rather than an unpacked product folder
+//========================================================================================================================================================================================
+boolean isZipped()
+    {
+        return productInputFile.getName().toLowerCase().endsWith(".zip");
+    } // End of isZipped()
+
+//========================================================================================================================================================================================
+// Function to return what to read an image file from: the tile cache if enabled, in front of the strips of the file if uncompressed,
+// otherwise the pool of ImageIO readers
+//========================================================================================================================================================================================
+NovaSARRasterSource getRasterSource(final ImageIOFile img)
+    {
+        final NovaSARCachedRasterSource cachedSource = cachedSourceMap.get(img.getName());
+        return cachedSource != null ? cachedSource : getUncachedRasterSource(img.getName());
+    } // End of getRasterSource()
+
+private NovaSARRasterSource getUncachedRasterSource(final String name)
+    {
+        final NovaSARDeferredRasterSource deferredSource = deferredSourceMap.get(name);
+        return deferredSource != null ? deferredSource : getIndexedRasterSource(name);
+    }
+
+private NovaSARRasterSource getIndexedRasterSource(final String name)
+    {
+        final NovaSARTiffRasterReader directReader = directReaderMap.get(name);
+        return directReader != null ? directReader : readerPoolMap.get(name);
+    }
+
+//========================================================================================================================================================================================
+// Function to return the overview pyramid of an image file, or null if it has none
+//========================================================================================================================================================================================
+NovaSAROverviewPyramid getOverviewPyramid(final ImageIOFile img)
+    {
+        return overviewMap.get(img.getName());
+    } // End of getOverviewPyramid()
+
+//========================================================================================================================================================================================
+// Function to close the pooled readers in addition to the image files of the product
+//========================================================================================================================================================================================
+@Override
+public void close() throws IOException
+    {
+        for (NovaSAROverviewPyramid pyramid : overviewMap.values())
+        {
+            pyramid.close();
+        }
+        overviewMap.clear();
+        for (NovaSARCachedRasterSource cachedSource : cachedSourceMap.values())
+        {
+            cachedSource.close();
+        }
+        cachedSourceMap.clear();
+        deferredSourceMap.clear();
+        for (NovaSARImageReaderPool pool : readerPoolMap.values())
+        {
+            pool.close();
+        }
+        readerPoolMap.clear();
+        for (NovaSARTiffRasterReader directReader : directReaderMap.values())
+        {
+            directReader.close();
+        }
+        directReaderMap.clear();
+        super.close();
+        for (NovaSARFileHandles.Handle handle : imageHandleMap.values())
+        {
+            handle.close();
+        }
+        imageHandleMap.clear();
+        if (zipArchive != null)
+        {
+            zipArchive.close();
+            zipArchive = null;
+        }
+    } // End of close()
+
+    static ImageReader getTiffIIOReader(final ImageInputStream stream) throws IOException {
         ImageReader reader = null;
         final Iterator<ImageReader> imageReaders = ImageIO.getImageReaders(stream);
         while (imageReaders.hasNext()) {
@@ -237,7 +576,13 @@ protected void addBands(final Product product)
                         else
                         {
 							betaBandName = radScaling + "_Intensity_";
-                            ReaderUtils.createVirtualIntensityBand(product, lastRealBand, band, betaBandName, getPol(imgName));
+                            final Band intensityBand = ReaderUtils.createVirtualIntensityBand(product, lastRealBand, band, betaBandName, getPol(imgName));
+                            final ImageIOFile.BandInfo[] components = {bandMap.get(lastRealBand), bandMap.get(band)};
+                            polComponentsMap.put(getPol(imgName), components);
+                            if (useNativeIntensity)
+                            {
+                                addNativeIntensityBand(product, intensityBand, components);
+                            }
                         }
                         real = !real;
                     }
@@ -258,6 +603,12 @@ protected void addBands(final Product product)
 						final String snapBandName = "Intensity" + getPol(imgName);
 						Band snapBand = product.getBand(snapBandName);
 						snapBand.setName(betaBandName);
+                        final ImageIOFile.BandInfo[] components = {bandMap.get(band)};
+                        polComponentsMap.put(getPol(imgName), components);
+                        if (useNativeIntensity)
+                        {
+                            addNativeIntensityBand(product, snapBand, components);
+                        }
                     }
                 }
             }
@@ -270,6 +621,138 @@ protected void addBands(final Product product)
         }
     } // End of addBands()
 
+//========================================================================================================================================================================================
+// Function to replace a virtual intensity band by a band of the same name that the reader computes from the decoded I/Q or amplitude samples,
+// rather than SNAP evaluating its expression pixel by pixel on top of reading the source bands
+//========================================================================================================================================================================================
+private void addNativeIntensityBand(final Product product, final Band virtualBand, final ImageIOFile.BandInfo... components)
+    {
+        final Band band = new Band(virtualBand.getName(), ProductData.TYPE_FLOAT32,
+                                   virtualBand.getRasterWidth(), virtualBand.getRasterHeight());
+        band.setUnit(virtualBand.getUnit());
+        band.setDescription(virtualBand.getDescription());
+        band.setNoDataValueUsed(virtualBand.isNoDataValueUsed());
+        band.setNoDataValue(virtualBand.getNoDataValue());
+
+        product.removeBand(virtualBand);
+        product.addBand(band);
+        intensityBandMap.put(band, components);
+    } // End of addNativeIntensityBand()
+
+//========================================================================================================================================================================================
+// Function to return the I and Q, or the amplitude, components of an intensity band computed by the reader, or null for other bands
+//========================================================================================================================================================================================
+ImageIOFile.BandInfo[] getIntensityComponents(final Band band)
+    {
+        return intensityBandMap.get(band);
+    } // End of getIntensityComponents()
+
+//========================================================================================================================================================================================
+// Function to return, per polarisation, the I and Q components of complex data or the amplitude of detected data, in band order
+//========================================================================================================================================================================================
+Map<String, ImageIOFile.BandInfo[]> getIntensityComponentsByPolarisation()
+    {
+        return polComponentsMap;
+    } // End of getIntensityComponentsByPolarisation()
+
+//========================================================================================================================================================================================
+// Function to read metadata.xml. In fast-open mode, it is read in a single streaming pass instead of being parsed into a document, which nothing
+// but the full original metadata needs.
+//========================================================================================================================================================================================
+@Override
+public void readProductDirectory() throws IOException
+    {
+        if (!useFastOpen)
+        {
+            super.readProductDirectory();
+            return;
+        }
+        metadataScan = NovaSARMetadataScanner.scan(getInputStream(getRootFolder() + getHeaderFileName()));
+    } // End of readProductDirectory()
+
+//========================================================================================================================================================================================
+// Function to build the metadata of the product. In fast-open mode, the tree scanned from metadata.xml is used, without the tie point elements,
+// whose coordinates are kept in arrays for the geocoding; the complete original metadata can be loaded later on demand.
+//========================================================================================================================================================================================
+@Override
+protected MetadataElement addMetaData() throws IOException
+    {
+        if (!useFastOpen)
+        {
+            return super.addMetaData();
+        }
+        if (metadataScan == null)
+        {
+            metadataScan = NovaSARMetadataScanner.scan(getInputStream(getRootFolder() + getHeaderFileName()));
+        }
+
+        final MetadataElement root = new MetadataElement(Product.METADATA_ROOT_NAME);
+        AbstractMetadata.addOriginalProductMetadata(root).addElement(metadataScan.getMetadata());
+        addAbstractedMetadataHeader(root);
+        return root;
+    } // End of addMetaData()
+
+//========================================================================================================================================================================================
+// Function to check whether the original metadata of the product lacks the elements left out in fast-open mode
+//========================================================================================================================================================================================
+boolean isOriginalMetadataPartial()
+    {
+        return metadataScan != null;
+    } // End of isOriginalMetadataPartial()
+
+//========================================================================================================================================================================================
+// Function to replace the original metadata read in fast-open mode by the complete tree of metadata.xml
+//========================================================================================================================================================================================
+void loadFullOriginalMetadata(final Product product) throws IOException
+    {
+        if (metadataScan == null)
+        {
+            return;
+        }
+        final Document xmlDoc;
+        try (InputStream is = getInputStream(getRootFolder() + getHeaderFileName()))
+        {
+            xmlDoc = XMLSupport.LoadXML(is);
+        }
+        final MetadataElement origProdRoot = AbstractMetadata.getOriginalProductMetadata(product);
+        final MetadataElement partial = origProdRoot.getElement("metadata");
+        if (partial != null)
+        {
+            origProdRoot.removeElement(partial);
+        }
+        AbstractMetadataIO.AddXMLMetadata(xmlDoc.getRootElement(), origProdRoot);
+        metadataScan = null;
+    } // End of loadFullOriginalMetadata()
+
+//========================================================================================================================================================================================
+// Function to read just the abstracted metadata of a product for cataloguing: the metadata header and the scene corners, from one streaming pass over
+// metadata.xml. No product is created and no image file is opened.
+//========================================================================================================================================================================================
+MetadataElement readCatalogueMetadata(final InputStream metadataStream) throws IOException
+    {
+        final NovaSARMetadataScanner scan = NovaSARMetadataScanner.scan(metadataStream);
+
+        final MetadataElement root = new MetadataElement(Product.METADATA_ROOT_NAME);
+        AbstractMetadata.addOriginalProductMetadata(root).addElement(scan.getMetadata());
+        addAbstractedMetadataHeader(root);
+        final MetadataElement absRoot = root.getElement(AbstractMetadata.ABSTRACT_METADATA_ROOT);
+
+        final MetadataElement geographicInformation = scan.getMetadata().getElement("geographicInformation");
+        final int gridWidth = geographicInformation.getAttributeInt("NumberOfRangeTiepoints", defInt);
+        final int gridHeight = geographicInformation.getAttributeInt("NumberOfAzimuthTiepoints", defInt);
+        final int numberOfTiepoints = gridWidth * gridHeight;
+        if (gridWidth < 2 || gridHeight < 2 || scan.getNumTiePoints() < numberOfTiepoints)
+        {
+            throw new IOException("Missing tie points in " + productInputFile);
+        }
+        final int w = absRoot.getAttributeInt(AbstractMetadata.num_samples_per_line);
+        final int h = absRoot.getAttributeInt(AbstractMetadata.num_output_lines);
+        final float[] latList = Arrays.copyOf(scan.getTiePointLatitudes(), numberOfTiepoints);
+        final float[] lngList = Arrays.copyOf(scan.getTiePointLongitudes(), numberOfTiepoints);
+        setLatLongMetadata(absRoot, w, h, createLatGrid(gridWidth, gridHeight, w, h, latList), createLonGrid(gridWidth, gridHeight, w, h, lngList));
+        return absRoot;
+    } // End of readCatalogueMetadata()
+
 //========================================================================================================================================================================================
 // Function to 
 //========================================================================================================================================================================================
@@ -429,7 +912,7 @@ protected void addAbstractedMetadataHeader(final MetadataElement root) throws IO
 
     // Extract Processing Time
     final String processingTime = imageGenerationParameters.getAttributeString("ProcessingTime");
-    ProductData.UTC processingTimeUTC = AbstractMetadata.parseUTC(processingTime, standardDateFormat);
+    ProductData.UTC processingTimeUTC = AbstractMetadata.parseUTC(processingTime, standardDateFormat.get());
     AbstractMetadata.setAttribute(absRoot, AbstractMetadata.PROC_TIME, processingTimeUTC);
 
 //   AbstractMetadata.setAttribute(absRoot, AbstractMetadata.ant_elev_corr_flag, getFlag(sarProcessingInformation, "elevationPatternCorrection")); // Included in Radarsat 2 version!
@@ -437,12 +920,12 @@ protected void addAbstractedMetadataHeader(final MetadataElement root) throws IO
 
     // Extract First Line Time
     final String startTimeString = imageGenerationParameters.getAttributeString("ZeroDopplerTimeFirstLine");
-    ProductData.UTC startTime = AbstractMetadata.parseUTC(startTimeString, standardDateFormat);
+    ProductData.UTC startTime = AbstractMetadata.parseUTC(startTimeString, standardDateFormat.get());
     AbstractMetadata.setAttribute(absRoot, AbstractMetadata.first_line_time, startTime);
 
     // Extract Last Line Time
     final String stopTimeString = imageGenerationParameters.getAttributeString("ZeroDopplerTimeLastLine");
-    ProductData.UTC stopTime = AbstractMetadata.parseUTC(stopTimeString, standardDateFormat);
+    ProductData.UTC stopTime = AbstractMetadata.parseUTC(stopTimeString, standardDateFormat.get());
     AbstractMetadata.setAttribute(absRoot, AbstractMetadata.last_line_time, stopTime);
 
     // Extract Number of Range Looks
@@ -637,7 +1120,7 @@ private static void addOrbitStateVectors(final MetadataElement absRoot, final Me
         // set state vector time
         if (absRoot.getAttributeUTC(AbstractMetadata.STATE_VECTOR_TIME, AbstractMetadata.NO_METADATA_UTC).equalElems(AbstractMetadata.NO_METADATA_UTC))
         {
-            AbstractMetadata.setAttribute(absRoot, AbstractMetadata.STATE_VECTOR_TIME, ReaderUtils.getTime(stateVectorElems[0], "Time", standardDateFormat));
+            AbstractMetadata.setAttribute(absRoot, AbstractMetadata.STATE_VECTOR_TIME, ReaderUtils.getTime(stateVectorElems[0], "Time", standardDateFormat.get()));
         }
 
     } // End of addOrbitStateVectors()
@@ -650,7 +1133,7 @@ private static void addVector(String name, MetadataElement orbitVectorListElem,M
     {
         final MetadataElement orbitVectorElem = new MetadataElement(name + num);
 
-        orbitVectorElem.setAttributeUTC(AbstractMetadata.orbit_vector_time,ReaderUtils.getTime(srcElem, "Time", standardDateFormat));
+        orbitVectorElem.setAttributeUTC(AbstractMetadata.orbit_vector_time,ReaderUtils.getTime(srcElem, "Time", standardDateFormat.get()));
 
         final MetadataElement xpos = srcElem.getElement("xPosition");
         orbitVectorElem.setAttributeDouble(AbstractMetadata.orbit_vector_x_pos,xpos.getAttributeDouble("xPosition", 0));
@@ -679,7 +1162,7 @@ private static void addSRGRCoefficients(final MetadataElement absRoot, final Met
         int listCnt = 1;
 
         final String zdtfl = imageGenerationParameters.getAttributeString("ZeroDopplerTimeFirstLine");
-        ProductData.UTC zdtfl_utc = AbstractMetadata.parseUTC(zdtfl, standardDateFormat);
+        ProductData.UTC zdtfl_utc = AbstractMetadata.parseUTC(zdtfl, standardDateFormat.get());
 
 //        ProductData.UTC zdtfl_utc = ReaderUtils.getTime(zdtfl_elem, "Value", standardDateFormat);
 
@@ -750,7 +1233,7 @@ private static void addDopplerCentroidCoefficients(final MetadataElement absRoot
                 ++listCnt;
 
                 final String zdtfl = imageGenerationParameters.getAttributeString("ZeroDopplerTimeFirstLine");
-                ProductData.UTC utcTime = AbstractMetadata.parseUTC(zdtfl, standardDateFormat);
+                ProductData.UTC utcTime = AbstractMetadata.parseUTC(zdtfl, standardDateFormat.get());
                 dopplerListElem.setAttributeUTC(AbstractMetadata.dop_coef_time, utcTime);
 
                 final double refTime = elem.getElement("dopplerCentroidReferenceTime").getAttributeDouble("dopplerCentroidReferenceTime", 0) * 1e9; // s to ns
@@ -811,31 +1294,35 @@ protected void addGeoCoding(final Product product)
         float[] latList = new float[numberOfTiepoints];
         float[] lngList = new float[numberOfTiepoints];
 
-        int i = 0;
-        for (MetadataElement elem : geographicInformation.getElements()) // For all elements in the Geographic Information
+        if (metadataScan != null) // Tie points were collected while scanning the metadata in fast-open mode
+        {
+            System.arraycopy(metadataScan.getTiePointLatitudes(), 0, latList, 0, Math.min(numberOfTiepoints, metadataScan.getNumTiePoints()));
+            System.arraycopy(metadataScan.getTiePointLongitudes(), 0, lngList, 0, Math.min(numberOfTiepoints, metadataScan.getNumTiePoints()));
+        }
+        else
         {
-            if (elem.getName().equalsIgnoreCase("TiePoint")) // If this element is a Tie Point
+            int i = 0;
+            for (MetadataElement elem : geographicInformation.getElements()) // For all elements in the Geographic Information
             {
-                final MetadataElement latitude = elem.getElement("latitude");
-                final MetadataElement longitude = elem.getElement("longitude");
+                if (elem.getName().equalsIgnoreCase("TiePoint")) // If this element is a Tie Point
+                {
+                    final MetadataElement latitude = elem.getElement("latitude");
+                    final MetadataElement longitude = elem.getElement("longitude");
 
-                latList[i] = (float) latitude.getAttributeDouble("latitude", 0);
-                lngList[i] = (float) longitude.getAttributeDouble("longitude", 0);
+                    latList[i] = (float) latitude.getAttributeDouble("latitude", 0);
+                    lngList[i] = (float) longitude.getAttributeDouble("longitude", 0);
 
-                ++i;
+                    ++i;
+                }
             }
         }
 
-        double subSamplingX = (double) (product.getSceneRasterWidth() - 1) / (gridWidth - 1);
-        double subSamplingY = (double) (product.getSceneRasterHeight() - 1) / (gridHeight - 1);
-
-        final TiePointGrid latGrid = new TiePointGrid(OperatorUtils.TPG_LATITUDE, gridWidth, gridHeight, 0.5f, 0.5f,subSamplingX, subSamplingY, latList);
-        latGrid.setUnit(Unit.DEGREES);
-
-        final TiePointGrid lonGrid = new TiePointGrid(OperatorUtils.TPG_LONGITUDE, gridWidth, gridHeight, 0.5f, 0.5f,subSamplingX, subSamplingY, lngList, TiePointGrid.DISCONT_AT_180);
-        lonGrid.setUnit(Unit.DEGREES);
+        final TiePointGrid latGrid = createLatGrid(gridWidth, gridHeight, product.getSceneRasterWidth(), product.getSceneRasterHeight(), latList);
+        final TiePointGrid lonGrid = createLonGrid(gridWidth, gridHeight, product.getSceneRasterWidth(), product.getSceneRasterHeight(), lngList);
 
-        final TiePointGeoCoding tpGeoCoding = new TiePointGeoCoding(latGrid, lonGrid);
+        final TiePointGeoCoding tpGeoCoding = useInverseGrid
+                ? new NovaSARTiePointGeoCoding(latGrid, lonGrid, product.getSceneRasterWidth(), product.getSceneRasterHeight())
+                : new TiePointGeoCoding(latGrid, lonGrid);
 
         product.addTiePointGrid(latGrid);
         product.addTiePointGrid(lonGrid);
@@ -845,18 +1332,43 @@ protected void addGeoCoding(final Product product)
 
     } // End of addGeoCoding()
 
+//====================================================================================================================
+// Functions to create the latitude and longitude tie point grids from the NovaSAR TiePoint lists
+//
+//       - called by addGeoCoding() and readCatalogueMetadata()
+//====================================================================================================================
+private static TiePointGrid createLatGrid(int gridWidth, int gridHeight, int sceneWidth, int sceneHeight, float[] latList)
+    {
+        double subSamplingX = (double) (sceneWidth - 1) / (gridWidth - 1);
+        double subSamplingY = (double) (sceneHeight - 1) / (gridHeight - 1);
+
+        final TiePointGrid latGrid = new TiePointGrid(OperatorUtils.TPG_LATITUDE, gridWidth, gridHeight, 0.5f, 0.5f,subSamplingX, subSamplingY, latList);
+        latGrid.setUnit(Unit.DEGREES);
+        return latGrid;
+    }
+
+private static TiePointGrid createLonGrid(int gridWidth, int gridHeight, int sceneWidth, int sceneHeight, float[] lngList)
+    {
+        double subSamplingX = (double) (sceneWidth - 1) / (gridWidth - 1);
+        double subSamplingY = (double) (sceneHeight - 1) / (gridHeight - 1);
+
+        final TiePointGrid lonGrid = new TiePointGrid(OperatorUtils.TPG_LONGITUDE, gridWidth, gridHeight, 0.5f, 0.5f,subSamplingX, subSamplingY, lngList, TiePointGrid.DISCONT_AT_180);
+        lonGrid.setUnit(Unit.DEGREES);
+        return lonGrid;
+    }
+
 //====================================================================================================================
 // Function to set image corner tiepoint longitudes and latitudes in the SNAP structures 
 //
-//       - called by addGeoCoding()
+//       - called by addGeoCoding() and readCatalogueMetadata()
 //====================================================================================================================
 private static void setLatLongMetadata(Product product, TiePointGrid latGrid, TiePointGrid lonGrid)
     {
-        final MetadataElement absRoot = AbstractMetadata.getAbstractedMetadata(product);
-
-        final int w = product.getSceneRasterWidth();
-        final int h = product.getSceneRasterHeight();
+        setLatLongMetadata(AbstractMetadata.getAbstractedMetadata(product), product.getSceneRasterWidth(), product.getSceneRasterHeight(), latGrid, lonGrid);
+    }
 
+private static void setLatLongMetadata(MetadataElement absRoot, int w, int h, TiePointGrid latGrid, TiePointGrid lonGrid)
+    {
         AbstractMetadata.setAttribute(absRoot, AbstractMetadata.first_near_lat, latGrid.getPixelDouble(0, 0));
         AbstractMetadata.setAttribute(absRoot, AbstractMetadata.first_near_long, lonGrid.getPixelDouble(0, 0));
         AbstractMetadata.setAttribute(absRoot, AbstractMetadata.first_far_lat, latGrid.getPixelDouble(w - 1, 0));
@@ -869,7 +1381,8 @@ private static void setLatLongMetadata(Product product, TiePointGrid latGrid, Ti
     }
 
 //========================================================================================================================================================================================
-// Function to 
+// Function to add the incidence angle and slant range time tie point grids. Each tie point is computed in closed form from its range position,
+// in parallel for dense grids; the number of tie points per row and column is set with snap.novasar.reader.tiePointGrid.size.
 //========================================================================================================================================================================================
 
 @Override
@@ -878,10 +1391,10 @@ protected void addTiePointGrids(final Product product)
 
         final int sourceImageWidth = product.getSceneRasterWidth();
         final int sourceImageHeight = product.getSceneRasterHeight();
-        final int gridWidth = 11;
-        final int gridHeight = 11;
-        final int subSamplingX = (int) ((float) sourceImageWidth / (float) (gridWidth - 1));
-        final int subSamplingY = (int) ((float) sourceImageHeight / (float) (gridHeight - 1));
+        final int gridWidth = tiePointGridSize;
+        final int gridHeight = tiePointGridSize;
+        final double subSamplingX = (double) (sourceImageWidth - 1) / (gridWidth - 1);
+        final double subSamplingY = (double) (sourceImageHeight - 1) / (gridHeight - 1);
 
         double a = Constants.semiMajorAxis; // WGS 84: equatorial Earth radius in m
         double b = Constants.semiMinorAxis; // WGS 84: polar Earth radius in m
@@ -891,8 +1404,6 @@ protected void addTiePointGrids(final Product product)
         final double slantRangeToFirstPixel = absRoot.getAttributeDouble(AbstractMetadata.slant_range_to_first_pixel, 0); // in m
         final double rangeSpacing = absRoot.getAttributeDouble(AbstractMetadata.range_spacing, 0); // in m
         final boolean srgrFlag = absRoot.getAttributeInt(AbstractMetadata.srgr_flag) != 0;
-        final boolean isDescending = absRoot.getAttributeString(AbstractMetadata.PASS).equals("DESCENDING");
-        final boolean isAntennaPointingRight = absRoot.getAttributeString(AbstractMetadata.antenna_pointing).equals("right");
 
         // Get scene center latitude
         final GeoPos sceneCenterPos = product.getSceneGeoCoding().getGeoPos(new PixelPos(sourceImageWidth / 2.0f, sourceImageHeight / 2.0f), null);
@@ -914,42 +1425,32 @@ protected void addTiePointGrids(final Product product)
         final double rt = a * Math.sqrt((cos2 + e2 * e2 * sin2) / (cos2 + e2 * sin2));
         final double rt2 = rt * rt;
 
-        double groundRangeSpacing;
-        if (srgrFlag)
-        { // ground range - so use as is
-            groundRangeSpacing = rangeSpacing;
-        }
-        else
-        { // slant range - so convert to ground range
-            groundRangeSpacing = rangeSpacing / FastMath.sin(alpha1);
-        }
-
-        double deltaPsi = groundRangeSpacing / rt; // in radians
         final double r1 = slantRangeToFirstPixel;
         final double rtPlusH = Math.sqrt(rt2 + r1 * r1 + 2.0 * rt * r1 * FastMath.cos(alpha1));
         final double rtPlusH2 = rtPlusH * rtPlusH;
         final double theta1 = FastMath.acos((r1 + rt * FastMath.cos(alpha1)) / rtPlusH);
         final double psi1 = alpha1 - theta1;
-        double psi = psi1;
-        float[] incidenceAngles = new float[gridWidth];
-        final int n = gridWidth * subSamplingX;
-        int k = 0;
-        for (int i = 0; i < n; i++)
+        final double deltaPsi = rangeSpacing / rt; // in radians, per ground range pixel
+
+        // The incidence angle at a range position follows from the triangle of Earth centre, satellite and ground point: for ground range images
+        // from the Earth angle psi of the pixel, for slant range images from its slant range
+        final float[] incidenceAngles = new float[gridWidth];
+        forEachTiePoint(gridWidth, i ->
         {
-            final double ri = Math.sqrt(rt2 + rtPlusH2 - 2.0 * rt * rtPlusH * FastMath.cos(psi));
-            final double alpha = FastMath.acos((rtPlusH2 - ri * ri - rt2) / (2.0 * ri * rt));
-            if (i % subSamplingX == 0)
+            final double x = i * subSamplingX;
+            final double ri;
+            if (srgrFlag)
             {
-                int index = k++;
-                incidenceAngles[index] = (float) (alpha * Constants.RTOD);
+                final double psi = psi1 + x * deltaPsi;
+                ri = Math.sqrt(rt2 + rtPlusH2 - 2.0 * rt * rtPlusH * FastMath.cos(psi));
             }
-
-            if (!srgrFlag) { // complex
-                groundRangeSpacing = rangeSpacing / FastMath.sin(alpha);
-                deltaPsi = groundRangeSpacing / rt;
+            else
+            {
+                ri = r1 + x * rangeSpacing;
             }
-            psi = psi + deltaPsi;
-        }
+            final double alpha = FastMath.acos((rtPlusH2 - ri * ri - rt2) / (2.0 * ri * rt));
+            incidenceAngles[i] = (float) (alpha * Constants.RTOD);
+        });
 
         float[] incidenceAngleList = new float[gridWidth * gridHeight];
 
@@ -964,96 +1465,80 @@ protected void addTiePointGrids(final Product product)
 
         product.addTiePointGrid(incidentAngleGrid);
 
-        //addSlantRangeTime(product, imageGenerationParameters);
+        addSlantRangeTime(product, imageGenerationParameters, gridWidth, gridHeight);
 
     } // End of addTiePointGrids()
 
 //========================================================================================================================================================================================
-// Function to 
+// Function to run a computation for each tie point of a grid row, in parallel if the row is long enough to be worth it
+//========================================================================================================================================================================================
+private static void forEachTiePoint(final int count, final IntConsumer computation)
+    {
+        final IntStream indices = IntStream.range(0, count);
+        (count >= PARALLEL_TIE_POINTS ? indices.parallel() : indices).forEach(computation);
+    }
+
+//========================================================================================================================================================================================
+// Function to add the slant range time grid, so that operators do not evaluate the slant range polynomial per pixel. For ground range images the
+// slant range is the GroundToSlantRangeCoefficients polynomial of the ground range in pixels, for slant range images it grows linearly from the near edge.
 //
 //   - called by addTiePointGrids()
 //========================================================================================================================================================================================
-private static void addSlantRangeTime(final Product product, final MetadataElement imageGenerationParameters)
+private static void addSlantRangeTime(final Product product, final MetadataElement imageGenerationParameters, final int gridWidth, final int gridHeight)
    {
-        class coefList
+        final MetadataElement absRoot = AbstractMetadata.getAbstractedMetadata(product);
+        final boolean srgrFlag = absRoot.getAttributeInt(AbstractMetadata.srgr_flag) != 0;
+        final double slantRangeToFirstPixel = absRoot.getAttributeDouble(AbstractMetadata.slant_range_to_first_pixel, 0); // in m
+        final double rangeSpacing = absRoot.getAttributeDouble(AbstractMetadata.range_spacing, 0); // in m
+
+        double[] coefficients = new double[0];
+        if (srgrFlag)
         {
-            double utcSeconds = 0.0;
-            double grOrigin = 0.0;
-            final List<Double> coefficients = new ArrayList<>();
+            final StringTokenizer st = new StringTokenizer(imageGenerationParameters.getAttributeString("GroundToSlantRangeCoefficients", ""));
+            coefficients = new double[st.countTokens()];
+            for (int c = 0; c < coefficients.length; c++)
+            {
+                coefficients[c] = Double.parseDouble(st.nextToken());
+            }
+            if (coefficients.length == 0)
+            {
+                LOG.warning("No GroundToSlantRangeCoefficients in " + product.getName() + ", not adding the " + OperatorUtils.TPG_SLANT_RANGE_TIME + " grid");
+                return;
+            }
         }
 
-        final List<coefList> segmentsArray = new ArrayList<>();
-
-
-       final String coeffStr = imageGenerationParameters.getAttributeString("GroundToSlantRangeCoefficients", "");
-
-       coefList coef = new coefList();
-       segmentsArray.add(coef);
-      // coef.utcSeconds = ReaderUtils.getTime(elem, "zeroDopplerAzimuthTime", standardDateFormat).getMJD() * 24 * 3600;
-      // coef.grOrigin = elem.getElement("groundRangeOrigin").getAttributeDouble("groundRangeOrigin", 0);
-
-       if (!coeffStr.isEmpty())
-                {
-                    final StringTokenizer st = new StringTokenizer(coeffStr);
-                    while (st.hasMoreTokens()) {
-                        coef.coefficients.add(Double.parseDouble(st.nextToken()));
-                    }
-                }
-
-
-        final MetadataElement absRoot = AbstractMetadata.getAbstractedMetadata(product);
-        final double lineTimeInterval = absRoot.getAttributeDouble(AbstractMetadata.line_time_interval, 0);
-        final ProductData.UTC startTime = absRoot.getAttributeUTC(AbstractMetadata.first_line_time, AbstractMetadata.NO_METADATA_UTC);
-        final double startSeconds = startTime.getMJD() * 24 * 3600;
-        final double pixelSpacing = absRoot.getAttributeDouble(AbstractMetadata.range_spacing, 0);
-        final boolean isDescending = absRoot.getAttributeString(AbstractMetadata.PASS).equals("DESCENDING");
-        final boolean isAntennaPointingRight = absRoot.getAttributeString(AbstractMetadata.antenna_pointing).equals("right");
-
-        final int gridWidth = 11;
-        final int gridHeight = 11;
         final int sceneWidth = product.getSceneRasterWidth();
         final int sceneHeight = product.getSceneRasterHeight();
-        final int subSamplingX = sceneWidth / (gridWidth - 1);
-        final int subSamplingY = sceneHeight / (gridHeight - 1);
-        final float[] rangeDist = new float[gridWidth * gridHeight];
-        final float[] rangeTime = new float[gridWidth * gridHeight];
+        final double subSamplingX = (double) (sceneWidth - 1) / (gridWidth - 1);
+        final double subSamplingY = (double) (sceneHeight - 1) / (gridHeight - 1);
 
-        final coefList[] segments = segmentsArray.toArray(new coefList[segmentsArray.size()]);
-
-        int k = 0;
-        int c = 0;
-        for (int j = 0; j < gridHeight; j++)
+        // The coefficients are constant over the scene, so all rows of the grid are the same
+        final double[] srgrCoefficients = coefficients;
+        final float[] rangeTimes = new float[gridWidth];
+        forEachTiePoint(gridWidth, i ->
         {
-            final double time = startSeconds + (j * lineTimeInterval);
-            while (c < segments.length && segments[c].utcSeconds < time)
-                ++c;
-            if (c >= segments.length)
-                c = segments.length - 1;
-
-            coef = segments[c];
-            final double GR0 = coef.grOrigin;
-            final double s0 = coef.coefficients.get(0);
-            final double s1 = coef.coefficients.get(1);
-            final double s2 = coef.coefficients.get(2);
-            final double s3 = coef.coefficients.get(3);
-            final double s4 = coef.coefficients.get(4);
-
-            for (int i = 0; i < gridWidth; i++)
+            final double x = i * subSamplingX;
+            double slantRange;
+            if (srgrFlag)
             {
-                int x = i * subSamplingX;
-                final double GR = x * pixelSpacing;
-                final double g = GR - GR0;
-                final double g2 = g * g;
-
-                //SlantRange = s0 + s1(GR - GR0) + s2(GR-GR0)^2 + s3(GRGR0)^3 + s4(GR-GR0)^4;
-                rangeDist[k++] = (float) (s0 + s1 * g + s2 * g2 + s3 * g2 * g + s4 * g2 * g2);
+                // SlantRange = s0 + s1 * GR + s2 * GR^2 + ... with GR the ground range in pixels
+                slantRange = 0;
+                for (int c = srgrCoefficients.length - 1; c >= 0; c--)
+                {
+                    slantRange = slantRange * x + srgrCoefficients[c];
+                }
             }
-        }
+            else
+            {
+                slantRange = slantRangeToFirstPixel + x * rangeSpacing;
+            }
+            rangeTimes[i] = (float) (slantRange / Constants.halfLightSpeed * Constants.oneBillion); // in ns
+        });
 
-        // get slant range time in nanoseconds from range distance in meters
-        for (int i = 0; i < rangeDist.length; i++)
+        final float[] rangeTime = new float[gridWidth * gridHeight];
+        for (int j = 0; j < gridHeight; j++)
         {
-            rangeTime[i] = (float) (rangeDist[i] / Constants.halfLightSpeed * Constants.oneBillion); // in ns
+            System.arraycopy(rangeTimes, 0, rangeTime, j * gridWidth, gridWidth);
         }
 
         final TiePointGrid slantRangeGrid = new TiePointGrid(OperatorUtils.TPG_SLANT_RANGE_TIME,gridWidth, gridHeight, 0, 0, subSamplingX, subSamplingY, rangeTime);
@@ -0,0 +1,474 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.esa.snap.core.dataio.ProductReader;
+import org.esa.snap.core.datamodel.Product;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An in-memory index of NovaSAR products by footprint and acquisition time, built from catalogue records
+ * ({@link NovaSARCatalogue}).
+ * <p>
+ * The index is a packed R-tree over boxes of longitude, latitude and the first to last line time interval: the
+ * products are sorted tile by tile (sort-tile-recursive) into leaves of {@value #NODE_SIZE}, and the levels above
+ * group consecutive nodes. All boxes are kept in primitive arrays. Products whose box matches a query are tested
+ * against the quadrilateral of their four scene corners.
+ * <p>
+ * Footprints crossing the antimeridian are stored with their negative longitudes shifted by 360 degrees, into
+ * {@code [0, 360)}, and queries are run a second time shifted by 360 degrees. Products with a corner that is not
+ * finite have no footprint and are not found by area.
+ * <p>
+ * The index file stores the records in packed order, so that loading it only recomputes the node boxes.
+ */
+public class NovaSARProductIndex {
+
+    static final int NODE_SIZE = 16;
+
+    private static final int MAGIC = 0x4E534958;    // "NSIX"
+    private static final int VERSION = 1;
+
+    private final NovaSARCatalogue.Record[] records;
+    private final double[] corners;     // lat/lon of the footprint quadrilaterals, 8 per record
+    private final long[] times;         // start and end in microseconds since 1970, 2 per record
+    // per level, from the leaves up: minLat, maxLat, minLon, maxLon of each node
+    private final double[][] nodeBoxes;
+    // per level: start and end time of each node
+    private final long[][] nodeTimes;
+
+    private NovaSARProductIndex(final NovaSARCatalogue.Record[] records) {
+        this.records = records;
+        final int n = records.length;
+        corners = new double[8 * n];
+        times = new long[2 * n];
+        for (int i = 0; i < n; i++) {
+            final NovaSARCatalogue.Record record = records[i];
+            final double[] c = record.getCorners();
+            // first near, first far, last far, last near: the corners in order around the footprint
+            final double[] quad = {c[0], c[1], c[2], c[3], c[6], c[7], c[4], c[5]};
+            if (!hasFootprint(quad)) {
+                Arrays.fill(quad, Double.NaN);
+            } else if (crossesAntimeridian(quad)) {
+                for (int k = 1; k < 8; k += 2) {
+                    if (quad[k] < 0) {
+                        quad[k] += 360;
+                    }
+                }
+            }
+            System.arraycopy(quad, 0, corners, 8 * i, 8);
+            final long t1 = toMicros(record.firstLineTime);
+            final long t2 = toMicros(record.lastLineTime);
+            times[2 * i] = Math.min(t1, t2);
+            times[2 * i + 1] = Math.max(t1, t2);
+        }
+
+        final List<double[]> boxLevels = new ArrayList<>();
+        final List<long[]> timeLevels = new ArrayList<>();
+        double[] boxes = new double[0];
+        long[] nodeTime = new long[0];
+        int count = n;
+        boolean leaves = true;
+        do {
+            final int numNodes = (count + NODE_SIZE - 1) / NODE_SIZE;
+            final double[] parentBoxes = new double[4 * numNodes];
+            final long[] parentTimes = new long[2 * numNodes];
+            for (int p = 0; p < numNodes; p++) {
+                double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+                double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+                long start = Long.MAX_VALUE, end = Long.MIN_VALUE;
+                for (int c = p * NODE_SIZE; c < Math.min(count, (p + 1) * NODE_SIZE); c++) {
+                    if (leaves) {
+                        // a product without footprint only adds its times
+                        if (!Double.isNaN(corners[8 * c])) {
+                            for (int k = 0; k < 8; k += 2) {
+                                minLat = Math.min(minLat, corners[8 * c + k]);
+                                maxLat = Math.max(maxLat, corners[8 * c + k]);
+                                minLon = Math.min(minLon, corners[8 * c + k + 1]);
+                                maxLon = Math.max(maxLon, corners[8 * c + k + 1]);
+                            }
+                        }
+                        start = Math.min(start, times[2 * c]);
+                        end = Math.max(end, times[2 * c + 1]);
+                    } else {
+                        minLat = Math.min(minLat, boxes[4 * c]);
+                        maxLat = Math.max(maxLat, boxes[4 * c + 1]);
+                        minLon = Math.min(minLon, boxes[4 * c + 2]);
+                        maxLon = Math.max(maxLon, boxes[4 * c + 3]);
+                        start = Math.min(start, nodeTime[2 * c]);
+                        end = Math.max(end, nodeTime[2 * c + 1]);
+                    }
+                }
+                parentBoxes[4 * p] = minLat;
+                parentBoxes[4 * p + 1] = maxLat;
+                parentBoxes[4 * p + 2] = minLon;
+                parentBoxes[4 * p + 3] = maxLon;
+                parentTimes[2 * p] = start;
+                parentTimes[2 * p + 1] = end;
+            }
+            boxLevels.add(parentBoxes);
+            timeLevels.add(parentTimes);
+            boxes = parentBoxes;
+            nodeTime = parentTimes;
+            count = numNodes;
+            leaves = false;
+        } while (count > NODE_SIZE);
+        nodeBoxes = boxLevels.toArray(new double[0][]);
+        nodeTimes = timeLevels.toArray(new long[0][]);
+    }
+
+    /**
+     * Builds an index.
+     *
+     * @param records the catalogue records
+     * @return the index
+     */
+    public static NovaSARProductIndex create(final List<NovaSARCatalogue.Record> records) {
+        final NovaSARCatalogue.Record[] packed = records.toArray(new NovaSARCatalogue.Record[0]);
+        final double[] center = new double[3 * packed.length];
+        final Integer[] order = new Integer[packed.length];
+        for (int i = 0; i < packed.length; i++) {
+            final NovaSARCatalogue.Record record = packed[i];
+            final double[] c = record.getCorners();
+            double lon = (c[1] + c[3] + c[5] + c[7]) / 4;
+            if (crossesAntimeridian(c)) {
+                lon = 0;
+                for (int k = 1; k < 8; k += 2) {
+                    lon += c[k] < 0 ? c[k] + 360 : c[k];
+                }
+                lon /= 4;
+            }
+            center[3 * i] = lon;
+            center[3 * i + 1] = (c[0] + c[2] + c[4] + c[6]) / 4;
+            center[3 * i + 2] = (toMicros(record.firstLineTime) + toMicros(record.lastLineTime)) / 2.0;
+            order[i] = i;
+        }
+
+        // sort-tile-recursive: slabs by longitude, runs by latitude, leaves by time
+        final int numLeaves = (packed.length + NODE_SIZE - 1) / NODE_SIZE;
+        final int slices = Math.max(1, (int) Math.ceil(Math.cbrt(numLeaves)));
+        final int slabSize = slices * slices * NODE_SIZE;
+        final int runSize = slices * NODE_SIZE;
+        Arrays.sort(order, Comparator.comparingDouble(i -> center[3 * i]));
+        for (int s = 0; s < order.length; s += slabSize) {
+            final int slabEnd = Math.min(order.length, s + slabSize);
+            Arrays.sort(order, s, slabEnd, Comparator.comparingDouble(i -> center[3 * i + 1]));
+            for (int r = s; r < slabEnd; r += runSize) {
+                Arrays.sort(order, r, Math.min(slabEnd, r + runSize), Comparator.comparingDouble(i -> center[3 * i + 2]));
+            }
+        }
+        final NovaSARCatalogue.Record[] sorted = new NovaSARCatalogue.Record[packed.length];
+        for (int i = 0; i < order.length; i++) {
+            sorted[i] = packed[order[i]];
+        }
+        return new NovaSARProductIndex(sorted);
+    }
+
+    /**
+     * Builds an index of a catalogue file.
+     *
+     * @param catalogue a catalogue written by {@link NovaSARCatalogue#write}
+     * @return the index
+     * @throws IOException if the catalogue cannot be read
+     */
+    public static NovaSARProductIndex createFromCatalogue(final Path catalogue) throws IOException {
+        return create(NovaSARCatalogue.readCatalogue(catalogue));
+    }
+
+    /**
+     * @return the number of products in the index
+     */
+    public int size() {
+        return records.length;
+    }
+
+    /**
+     * Finds the products whose footprint intersects an area of interest and whose acquisition overlaps a time
+     * interval.
+     *
+     * @param minLat the southern bound of the area, in degrees
+     * @param maxLat the northern bound of the area, in degrees
+     * @param minLon the western bound of the area, in degrees within [-180, 180]
+     * @param maxLon the eastern bound of the area, in degrees within [-180, 180]; less than {@code minLon} for an
+     *               area crossing the antimeridian
+     * @param start  the start of the time interval, inclusive
+     * @param end    the end of the time interval, inclusive
+     * @return the matching records, in index order
+     */
+    public List<NovaSARCatalogue.Record> query(final double minLat, final double maxLat, final double minLon,
+                                               final double maxLon, final Instant start, final Instant end) {
+        final long t1 = toMicros(start);
+        final long t2 = toMicros(end);
+        final BitSet hits = new BitSet(records.length);
+        if (maxLon < minLon) {
+            // east of minLon in [-180, 180] and in shifted footprints, and the rest of the area west of maxLon
+            search(minLat, maxLat, minLon, maxLon + 360, t1, t2, hits);
+            search(minLat, maxLat, -180, maxLon, t1, t2, hits);
+            if (minLon < 0) {
+                // an area over half the globe wide also holds the shifted western part of footprints
+                search(minLat, maxLat, minLon + 360, 360, t1, t2, hits);
+            }
+        } else {
+            search(minLat, maxLat, minLon, maxLon, t1, t2, hits);
+            search(minLat, maxLat, minLon + 360, maxLon + 360, t1, t2, hits);
+        }
+        final List<NovaSARCatalogue.Record> result = new ArrayList<>(hits.cardinality());
+        for (int i = hits.nextSetBit(0); i >= 0; i = hits.nextSetBit(i + 1)) {
+            result.add(records[i]);
+        }
+        return result;
+    }
+
+    private void search(final double minLat, final double maxLat, final double minLon, final double maxLon,
+                        final long t1, final long t2, final BitSet hits) {
+        if (records.length == 0) {
+            return;
+        }
+        final int top = nodeBoxes.length - 1;
+        // depth-first over (level, node) pairs, at most NODE_SIZE children pushed per level
+        final int[] stack = new int[2 * NODE_SIZE * (top + 2)];
+        int sp = 0;
+        for (int p = 0; p < nodeTimes[top].length / 2; p++) {
+            stack[sp++] = top;
+            stack[sp++] = p;
+        }
+        while (sp > 0) {
+            final int node = stack[--sp];
+            final int level = stack[--sp];
+            final double[] boxes = nodeBoxes[level];
+            final long[] nodeTime = nodeTimes[level];
+            if (boxes[4 * node] > maxLat || boxes[4 * node + 1] < minLat ||
+                    boxes[4 * node + 2] > maxLon || boxes[4 * node + 3] < minLon ||
+                    nodeTime[2 * node] > t2 || nodeTime[2 * node + 1] < t1) {
+                continue;
+            }
+            final int first = node * NODE_SIZE;
+            if (level > 0) {
+                final int last = Math.min(nodeTimes[level - 1].length / 2, first + NODE_SIZE);
+                for (int c = first; c < last; c++) {
+                    stack[sp++] = level - 1;
+                    stack[sp++] = c;
+                }
+            } else {
+                final int last = Math.min(records.length, first + NODE_SIZE);
+                for (int c = first; c < last; c++) {
+                    if (times[2 * c] <= t2 && times[2 * c + 1] >= t1 &&
+                            footprintIntersects(c, minLat, maxLat, minLon, maxLon)) {
+                        hits.set(c);
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean footprintIntersects(final int r, final double minLat, final double maxLat, final double minLon,
+                                        final double maxLon) {
+        final int o = 8 * r;
+        if (Double.isNaN(corners[o])) {
+            return false;
+        }
+        // an edge of the footprint enters the area, or the area lies inside the footprint
+        for (int k = 0; k < 8; k += 2) {
+            final int next = (k + 2) % 8;
+            if (segmentIntersects(corners[o + k + 1], corners[o + k], corners[o + next + 1], corners[o + next],
+                                  minLon, minLat, maxLon, maxLat)) {
+                return true;
+            }
+        }
+        return footprintContains(o, (minLat + maxLat) / 2, (minLon + maxLon) / 2);
+    }
+
+    private boolean footprintContains(final int o, final double lat, final double lon) {
+        boolean inside = false;
+        for (int k = 0, j = 6; k < 8; j = k, k += 2) {
+            final double latK = corners[o + k], lonK = corners[o + k + 1];
+            final double latJ = corners[o + j], lonJ = corners[o + j + 1];
+            if ((latK > lat) != (latJ > lat) && lon < (lonJ - lonK) * (lat - latK) / (latJ - latK) + lonK) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Liang-Barsky clipping of the segment (x0, y0)-(x1, y1) to a rectangle.
+     */
+    private static boolean segmentIntersects(final double x0, final double y0, final double x1, final double y1,
+                                             final double minX, final double minY, final double maxX,
+                                             final double maxY) {
+        final double dx = x1 - x0;
+        final double dy = y1 - y0;
+        final double[] p = {-dx, dx, -dy, dy};
+        final double[] q = {x0 - minX, maxX - x0, y0 - minY, maxY - y0};
+        double u0 = 0;
+        double u1 = 1;
+        for (int i = 0; i < 4; i++) {
+            if (p[i] == 0) {
+                if (q[i] < 0) {
+                    return false;
+                }
+            } else {
+                final double u = q[i] / p[i];
+                if (p[i] < 0) {
+                    u0 = Math.max(u0, u);
+                } else {
+                    u1 = Math.min(u1, u);
+                }
+                if (u0 > u1) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Opens a product found in the index.
+     *
+     * @param record a record returned by {@link #query}
+     * @return the product, read by the NovaSAR reader
+     * @throws IOException if the product cannot be read
+     */
+    public Product openProduct(final NovaSARCatalogue.Record record) throws IOException {
+        final ProductReader reader = new NovaSARProductReaderPlugIn().createReaderInstance();
+        return reader.readProductNodes(new File(record.path), null);
+    }
+
+    /**
+     * Writes the index to a file, replacing it when complete.
+     *
+     * @param file the index file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(final Path file) throws IOException {
+        final Path absFile = file.toAbsolutePath();
+        final Path tmpFile = absFile.resolveSibling(absFile.getFileName() + ".part");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(records.length);
+            for (NovaSARCatalogue.Record record : records) {
+                out.writeUTF(record.path);
+                out.writeLong(record.size);
+                out.writeLong(record.lastModified);
+                out.writeUTF(record.product);
+                out.writeUTF(record.productType);
+                out.writeUTF(record.acquisitionMode);
+                out.writeUTF(record.pass);
+                out.writeByte(record.polarisations.length);
+                for (String pol : record.polarisations) {
+                    out.writeUTF(pol);
+                }
+                out.writeLong(toMicros(record.firstLineTime));
+                out.writeLong(toMicros(record.lastLineTime));
+                for (double corner : record.getCorners()) {
+                    out.writeDouble(corner);
+                }
+            }
+        }
+        Files.move(tmpFile, absFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads an index file.
+     *
+     * @param file a file written by {@link #write}
+     * @return the index
+     * @throws IOException if the file cannot be read or is not an index file
+     */
+    public static NovaSARProductIndex read(final Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a NovaSAR product index: " + file);
+            }
+            final NovaSARCatalogue.Record[] records = new NovaSARCatalogue.Record[in.readInt()];
+            for (int i = 0; i < records.length; i++) {
+                final String path = in.readUTF();
+                final long size = in.readLong();
+                final long lastModified = in.readLong();
+                final String product = in.readUTF();
+                final String productType = in.readUTF();
+                final String acquisitionMode = in.readUTF();
+                final String pass = in.readUTF();
+                final String[] polarisations = new String[in.readUnsignedByte()];
+                for (int p = 0; p < polarisations.length; p++) {
+                    polarisations[p] = in.readUTF();
+                }
+                final String firstLineTime = toIsoString(in.readLong());
+                final String lastLineTime = toIsoString(in.readLong());
+                final double[] corners = new double[8];
+                for (int k = 0; k < 8; k++) {
+                    corners[k] = in.readDouble();
+                }
+                records[i] = new NovaSARCatalogue.Record(path, size, lastModified, product, productType,
+                                                         acquisitionMode, pass, polarisations, firstLineTime,
+                                                         lastLineTime, corners);
+            }
+            return new NovaSARProductIndex(records);
+        }
+    }
+
+    private static boolean hasFootprint(final double[] latLon) {
+        for (double value : latLon) {
+            if (!Double.isFinite(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean crossesAntimeridian(final double[] latLon) {
+        double minLon = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        for (int k = 1; k < latLon.length; k += 2) {
+            minLon = Math.min(minLon, latLon[k]);
+            maxLon = Math.max(maxLon, latLon[k]);
+        }
+        return maxLon - minLon > 180;
+    }
+
+    private static long toMicros(final String isoTime) {
+        return toMicros(Instant.parse(isoTime));
+    }
+
+    private static long toMicros(final Instant instant) {
+        try {
+            return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1_000_000L), instant.getNano() / 1000);
+        } catch (ArithmeticException e) {
+            // e.g. Instant.MIN or Instant.MAX as an open interval bound
+            return instant.getEpochSecond() < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+    }
+
+    private static String toIsoString(final long micros) {
+        return Instant.ofEpochSecond(Math.floorDiv(micros, 1_000_000L), Math.floorMod(micros, 1_000_000L) * 1000L)
+                .toString();
+    }
+}
@@ -26,25 +26,24 @@ import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.datamodel.ProductData;
 import org.esa.snap.core.datamodel.VirtualBand;
 import org.esa.snap.core.datamodel.quicklooks.Quicklook;
-import org.esa.snap.core.dataop.downloadable.XMLSupport;
 import org.esa.snap.core.util.SystemUtils;
 import org.esa.snap.engine_utilities.datamodel.AbstractMetadata;
+import org.esa.snap.engine_utilities.datamodel.Unit;
 import org.esa.snap.engine_utilities.gpf.InputProductValidator;
 import org.esa.snap.engine_utilities.gpf.ReaderUtils;
-import org.jdom2.Document;
-import org.jdom2.Element;
-
-import javax.imageio.ImageReadParam;
-import javax.imageio.ImageReader;
-import java.awt.*;
-import java.awt.image.DataBuffer;
-import java.awt.image.Raster;
-import java.awt.image.RenderedImage;
-import java.awt.image.SampleModel;
+
+import java.awt.Dimension;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The product reader for NovaSAR products.
@@ -53,12 +52,23 @@ public class NovaSARProductReader extends SARReader {
 
     private NovaSARProductDirectory dataDir = null;
 
-    private static final String lutsigma = "lutSigma";
-    private static final String lutgamma = "lutGamma";
-    private static final String lutbeta = "lutBeta";
+    private final Map<NovaSARCalibrationLUT.Type, NovaSARCalibrationLUT> calibrationLUTs =
+            new EnumMap<>(NovaSARCalibrationLUT.Type.class);
 
 	private String polarisation;
 
+	private NovaSAROrbit orbit = null;
+
+	// calibrated bands computed on read, e.g. "sigma0,gamma0,beta0"; none unless set
+	private static final String calibratedBandTypes = System.getProperty(SystemUtils.getApplicationContextId() +
+			".novasar.reader.calibration", "");
+
+	private final Map<Band, CalibratedBand> calibratedBandMap = new HashMap<>(8);
+
+	// decodes the image files of a batch read concurrently, shared by all products
+	private static final int MAX_QUEUED_BAND_READS = 64;
+	private static final ThreadPoolExecutor batchExecutor = createBatchExecutor();
+
 	// Doesn't seem to lead anywhere? Assume only ever returns FALSE
     private static final boolean flipToSARGeometry = System.getProperty(SystemUtils.getApplicationContextId() +
             ".flip.to.sar.geometry", "false").equals("true");
@@ -90,6 +100,9 @@ public class NovaSARProductReader extends SARReader {
             dataDir.close();
             dataDir = null;
         }
+        synchronized (this) {
+            calibrationLUTs.clear();
+        }
         super.close();
     }
 
@@ -112,13 +125,20 @@ public class NovaSARProductReader extends SARReader {
 
             final MetadataElement absMeta = AbstractMetadata.getAbstractedMetadata(product);
 			polarisation = absMeta.getAttributeString(AbstractMetadata.mds1_tx_rx_polar);
+            orbit = NovaSAROrbit.create(absMeta);
             addCalibrationLUT(product);
+            addCalibratedBands(product);
             product.getGcpGroup();
             product.setFileLocation(fileFromInput);
             product.setProductReader(this);
+            final Dimension tileSize = dataDir.getPreferredTileSize();
+            if (tileSize != null) {
+                product.setPreferredTileSize(tileSize);
+            }
 
             setQuicklookBandName(product);
-            addQuicklook(product, Quicklook.DEFAULT_QUICKLOOK_NAME, getQuicklookFile(polarisation));
+            addCachedQuicklook(product, absMeta.getAttributeString(AbstractMetadata.PRODUCT),
+                               NovaSARQuicklooks.getLastModified(fileFromInput));
 
             return product;
         } catch (Exception e) {
@@ -131,6 +151,22 @@ public class NovaSARProductReader extends SARReader {
         return new NovaSARProductDirectory(fileFromInput);
     }
 
+    /**
+     * Attaches the largest cached thumbnail of the product as its quicklook, or else the quicklook TIFF, from which
+     * the thumbnails are then cached in the background for the next session.
+     */
+    private void addCachedQuicklook(final Product product, final String productId, final long lastModified) {
+        final int size = NovaSARQuicklooks.THUMBNAIL_SIZES[NovaSARQuicklooks.THUMBNAIL_SIZES.length - 1];
+        final File thumbnail = NovaSARQuicklooks.getThumbnailFile(productId, lastModified, size);
+        if (thumbnail != null) {
+            addQuicklook(product, Quicklook.DEFAULT_QUICKLOOK_NAME, thumbnail);
+            return;
+        }
+        final File quicklookFile = getQuicklookFile(polarisation);
+        addQuicklook(product, Quicklook.DEFAULT_QUICKLOOK_NAME, quicklookFile);
+        NovaSARQuicklooks.scheduleThumbnails(productId, lastModified, quicklookFile);
+    }
+
     private File getQuicklookFile(final String polarisation) {
         try {
 			final String fname = "QL_image_" + polarisation + ".tif";
@@ -144,7 +180,7 @@ public class NovaSARProductReader extends SARReader {
     }
 
     /**
-     * Read the LUT for use in calibration
+     * Add the LUTs for use in calibration to the original product metadata
      *
      * @param product the target product
      * @throws IOException if can't read lut
@@ -152,56 +188,285 @@ public class NovaSARProductReader extends SARReader {
     private void addCalibrationLUT(final Product product) throws IOException {
         final MetadataElement origProdRoot = AbstractMetadata.getOriginalProductMetadata(product);
 
-        readCalibrationLUT(lutsigma, origProdRoot);
-        readCalibrationLUT(lutgamma, origProdRoot);
-        readCalibrationLUT(lutbeta, origProdRoot);
-    }
+        for (NovaSARCalibrationLUT.Type type : NovaSARCalibrationLUT.Type.values()) {
+            final NovaSARCalibrationLUT lut = getCalibrationLUT(type);
+            if (lut == null) {
+                continue;
+            }
+            final MetadataElement lutElem = new MetadataElement(type.getName());
+            origProdRoot.addElement(lutElem);
 
-    private void readCalibrationLUT(final String lutName, final MetadataElement root) throws IOException {
-        InputStream is;
-        if(dataDir.exists(dataDir.getRootFolder() + lutName + ".xml")) {
-            is = dataDir.getInputStream(dataDir.getRootFolder() + lutsigma + ".xml");
-        } else if(dataDir.exists(dataDir.getRootFolder() + lutName.toLowerCase() + ".xml")) {
-            is = dataDir.getInputStream(dataDir.getRootFolder() + lutsigma.toLowerCase() + ".xml");
-        } else {
-            return;
+            final MetadataAttribute offsetAttrib = new MetadataAttribute("offset", ProductData.TYPE_FLOAT64);
+            offsetAttrib.getData().setElemDouble(lut.getOffset());
+            lutElem.addAttribute(offsetAttrib);
+
+            final MetadataAttribute gainsAttrib = new MetadataAttribute("gains", ProductData.TYPE_FLOAT64, lut.getGains().length);
+            gainsAttrib.getData().setElems(lut.getGains());
+            lutElem.addAttribute(gainsAttrib);
         }
+    }
+
+    /**
+     * Returns the orbit of the product, interpolated from its state vectors. It is built once when the product is
+     * opened and can be shared by all operators working on the product.
+     *
+     * @return the orbit, or null if the product has fewer than two state vectors
+     */
+    public NovaSAROrbit getOrbit() {
+        return orbit;
+    }
 
-        final Document xmlDoc = XMLSupport.LoadXML(is);
-        final Element rootElement = xmlDoc.getRootElement();
+    /**
+     * Reads the same rectangle of several bands at full resolution, e.g. HH and HV for a ratio.
+     *
+     * @see #readBandsRasterData(Band[], int, int, int, int, int, int, ProductData[])
+     */
+    public void readBandsRasterData(final Band[] bands, final int offsetX, final int offsetY,
+                                    final int width, final int height,
+                                    final ProductData[] destBuffers) throws IOException {
+        readBandsRasterData(bands, offsetX, offsetY, width, height, 1, 1, destBuffers);
+    }
+
+    /**
+     * Reads the same (subsampled) rectangle of several bands of the product in one call, e.g. all polarisations for a
+     * polarimetric or ratio workflow. Bands stored in the same image file, like the I and Q bands of complex data,
+     * are decoded together in one pass, and the image files of different polarisations are decoded concurrently.
+     * The calling thread decodes one of them itself; the others are decoded on a pool of as many threads as
+     * processors, shared by all products. A dual-pol read thus takes about as long as a single-pol one. When the
+     * queue of the pool is full, the calling thread decodes the image files it cannot hand over itself.
+     *
+     * @param bands         bands of the product read by this reader
+     * @param sourceOffsetX x of the first source pixel
+     * @param sourceOffsetY y of the first source pixel
+     * @param sourceWidth   the width of the source rectangle
+     * @param sourceHeight  the height of the source rectangle
+     * @param sourceStepX   subsampling in x
+     * @param sourceStepY   subsampling in y
+     * @param destBuffers   one per band, each holding the {@code ((sourceWidth - 1) / sourceStepX + 1) x
+     *                      ((sourceHeight - 1) / sourceStepY + 1)} samples of the subsampled rectangle
+     * @throws IOException if a band cannot be read
+     */
+    public void readBandsRasterData(final Band[] bands, final int sourceOffsetX, final int sourceOffsetY,
+                                    final int sourceWidth, final int sourceHeight,
+                                    final int sourceStepX, final int sourceStepY,
+                                    final ProductData[] destBuffers) throws IOException {
+        if (dataDir == null) {
+            throw new IOException("Product is closed");
+        }
+        if (bands.length != destBuffers.length) {
+            throw new IllegalArgumentException("One destination buffer per band expected");
+        }
+        final int destWidth = (sourceWidth - 1) / sourceStepX + 1;
+        final int destHeight = (sourceHeight - 1) / sourceStepY + 1;
+
+        // one task per image file, reading all its requested samples at once, and one per computed band
+        final Map<ImageIOFile, List<Integer>> bandsByImage = new LinkedHashMap<>(4);
+        final List<Callable<Void>> tasks = new ArrayList<>(bands.length);
+        for (int i = 0; i < bands.length; i++) {
+            final Band band = bands[i];
+            if (band.getProduct() == null || band.getProduct().getProductReader() != this) {
+                throw new IllegalArgumentException("Band " + band.getName() + " is not read by this reader");
+            }
+            final ImageIOFile.BandInfo bandInfo = dataDir.getBandInfo(band);
+            if (bandInfo != null && bandInfo.img != null) {
+                bandsByImage.computeIfAbsent(bandInfo.img, img -> new ArrayList<>(2)).add(i);
+            } else {
+                final ProductData destBuffer = destBuffers[i];
+                tasks.add(() -> {
+                    readBandRasterDataImpl(sourceOffsetX, sourceOffsetY, sourceWidth, sourceHeight,
+                                           sourceStepX, sourceStepY, band, 0, 0, destWidth, destHeight,
+                                           destBuffer, ProgressMonitor.NULL);
+                    return null;
+                });
+            }
+        }
+        for (Map.Entry<ImageIOFile, List<Integer>> entry : bandsByImage.entrySet()) {
+            final List<Integer> indices = entry.getValue();
+            final int[] sampleOffsets = new int[indices.size()];
+            final ProductData[] buffers = new ProductData[indices.size()];
+            for (int k = 0; k < sampleOffsets.length; k++) {
+                sampleOffsets[k] = dataDir.getBandInfo(bands[indices.get(k)]).bandSampleOffset;
+                buffers[k] = destBuffers[indices.get(k)];
+            }
+            tasks.add(() -> {
+                readRasterBand(sourceOffsetX, sourceOffsetY, sourceStepX, sourceStepY,
+                               buffers, destWidth, destHeight, 0, entry.getKey(), sampleOffsets);
+                return null;
+            });
+        }
+        runAll(tasks);
+    }
 
-        final Element offsetElem = rootElement.getChild("offset");
-        final double offset = Double.parseDouble(offsetElem.getValue());
+    private static void runAll(final List<Callable<Void>> tasks) throws IOException {
+        final List<Future<Void>> futures = new ArrayList<>(tasks.size());
+        for (int i = 1; i < tasks.size(); i++) {
+            futures.add(batchExecutor.submit(tasks.get(i)));
+        }
+        IOException failure = null;
+        try {
+            if (!tasks.isEmpty()) {
+                tasks.get(0).call();
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (Exception e) {
+            failure = new IOException(e.getMessage(), e);
+        }
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // not interrupted: the readers share the channels of the image files
+                for (Future<Void> other : futures) {
+                    other.cancel(false);
+                }
+                throw new InterruptedIOException("Interrupted while reading bands");
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof IOException ? (IOException) e.getCause() :
+                              new IOException(e.getCause().getMessage(), e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
 
-        final Element gainsElem = rootElement.getChild("gains");
-        final String gainsValue = gainsElem.getValue().trim().replace("  ", " ");
-        final double[] gainsArray = toDoubleArray(gainsValue, " ");
+    private static ThreadPoolExecutor createBatchExecutor() {
+        final int numThreads = Runtime.getRuntime().availableProcessors();
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(numThreads, numThreads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED_BAND_READS), r -> {
+                    final Thread thread = new Thread(r, "NovaSAR band reader");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
 
-        final MetadataElement lut = new MetadataElement(lutName);
-        root.addElement(lut);
+    /**
+     * Completes the original product metadata of a product opened in fast-open mode
+     * ({@code snap.novasar.reader.fastOpen}), in which the tie point elements of {@code metadata.xml} are left out.
+     * Does nothing if the metadata is complete already.
+     *
+     * @param product the product read by this reader
+     * @throws IOException if the metadata file cannot be read
+     */
+    public synchronized void loadFullOriginalMetadata(final Product product) throws IOException {
+        if (dataDir == null) {
+            throw new IOException("Product is closed");
+        }
+        dataDir.loadFullOriginalMetadata(product);
+    }
 
-        final MetadataAttribute offsetAttrib = new MetadataAttribute("offset", ProductData.TYPE_FLOAT64);
-        offsetAttrib.getData().setElemDouble(offset);
-        lut.addAttribute(offsetAttrib);
+    /**
+     * Returns a calibration LUT of the product. All LUTs are read when the product is opened, to add them to the
+     * original product metadata, where the SNAP calibration operators look them up, and are kept while the product is
+     * open.
+     *
+     * @param type the LUT type
+     * @return the LUT, or null if the product has none of this type
+     * @throws IOException if the LUT cannot be read
+     */
+    public synchronized NovaSARCalibrationLUT getCalibrationLUT(final NovaSARCalibrationLUT.Type type) throws IOException {
+        if (dataDir == null) {
+            throw new IOException("Product is closed");
+        }
+        if (!calibrationLUTs.containsKey(type)) {
+            calibrationLUTs.put(type, readCalibrationLUT(type));
+        }
+        return calibrationLUTs.get(type);
+    }
 
-        final MetadataAttribute gainsAttrib = new MetadataAttribute("gains", ProductData.TYPE_FLOAT64, gainsArray.length);
-        gainsAttrib.getData().setElems(gainsArray);
-        lut.addAttribute(gainsAttrib);
+    private NovaSARCalibrationLUT readCalibrationLUT(final NovaSARCalibrationLUT.Type type) throws IOException {
+        final String lutName = type.getName();
+        final InputStream is;
+        if(dataDir.exists(dataDir.getRootFolder() + lutName + ".xml")) {
+            is = dataDir.getInputStream(dataDir.getRootFolder() + lutName + ".xml");
+        } else if(dataDir.exists(dataDir.getRootFolder() + lutName.toLowerCase() + ".xml")) {
+            is = dataDir.getInputStream(dataDir.getRootFolder() + lutName.toLowerCase() + ".xml");
+        } else {
+            return null;
+        }
+        return NovaSARCalibrationLUT.read(type, is);
     }
 
-    private static double[] toDoubleArray(String text, String delim) {
+    /**
+     * Adds the calibrated bands selected with the system property {@code snap.novasar.reader.calibration},
+     * computed on read from the amplitude or I/Q samples and the calibration LUTs.
+     *
+     * @param product the target product
+     * @throws IOException if a LUT cannot be read
+     */
+    private void addCalibratedBands(final Product product) throws IOException {
+        final int width = product.getSceneRasterWidth();
+        final int height = product.getSceneRasterHeight();
+
+        for (String typeName : calibratedBandTypes.split(",")) {
+            final NovaSARCalibrationLUT.Type type;
+            final String prefix;
+            switch (typeName.trim().toLowerCase()) {
+                case "sigma0":
+                    type = NovaSARCalibrationLUT.Type.SIGMA0;
+                    prefix = "Sigma0_";
+                    break;
+                case "gamma0":
+                    type = NovaSARCalibrationLUT.Type.GAMMA0;
+                    prefix = "Gamma0_";
+                    break;
+                case "beta0":
+                    type = NovaSARCalibrationLUT.Type.BETA0;
+                    prefix = "Beta0_";
+                    break;
+                default:
+                    if (!typeName.trim().isEmpty()) {
+                        SystemUtils.LOG.warning("Unknown NovaSAR calibrated band type " + typeName);
+                    }
+                    continue;
+            }
+            final NovaSARCalibrationLUT lut = getCalibrationLUT(type);
+            if (lut == null) {
+                SystemUtils.LOG.warning("No " + type.getName() + " in " + dataDir.getProductName() + ", " + prefix + " bands not added");
+                continue;
+            }
+            final String lutName = type.getName();
+            final double offset = lut.getOffset();
+            final float[] gains = getGainsPerColumn(lut.getGains(), width);
+
+            for (Map.Entry<String, ImageIOFile.BandInfo[]> entry : dataDir.getIntensityComponentsByPolarisation().entrySet()) {
+                final Band band = new Band(prefix + entry.getKey(), ProductData.TYPE_FLOAT32, width, height);
+                band.setUnit(Unit.INTENSITY);
+                band.setDescription(prefix.substring(0, prefix.length() - 1) + " calibrated with " + lutName);
+                band.setNoDataValueUsed(true);
+                band.setNoDataValue(0);
+                product.addBand(band);
+                calibratedBandMap.put(band, new CalibratedBand(entry.getValue(), offset, gains));
+            }
+        }
+    }
 
-        final StringTokenizer st = new StringTokenizer(text, delim);
-        final double[] numbers = new double[st.countTokens()];
-        int i = 0;
-        while (st.hasMoreTokens()) {
-            try {
-                numbers[i++] = Double.parseDouble(st.nextToken());
-            } catch (Exception e) {
-                break;
+    /**
+     * Expands the gains of a LUT to one gain per range column, interpolating linearly if the LUT does not have one
+     * value per column.
+     */
+    private static float[] getGainsPerColumn(final double[] lutGains, final int width) {
+        final float[] gains = new float[width];
+        if (lutGains.length == width || lutGains.length < 2 || width < 2) {
+            for (int x = 0; x < width; x++) {
+                gains[x] = (float) lutGains[Math.min(x, lutGains.length - 1)];
             }
+            return gains;
+        }
+        final double scale = (lutGains.length - 1) / (double) (width - 1);
+        for (int x = 0; x < width; x++) {
+            final double pos = x * scale;
+            final int i = Math.min((int) pos, lutGains.length - 2);
+            final double frac = pos - i;
+            gains[x] = (float) (lutGains[i] + frac * (lutGains[i + 1] - lutGains[i]));
         }
-        return numbers;
+        return gains;
     }
 
     /**
@@ -216,60 +481,110 @@ public class NovaSARProductReader extends SARReader {
         final ImageIOFile.BandInfo bandInfo = dataDir.getBandInfo(destBand);
         if (bandInfo != null && bandInfo.img != null) {
 			readRasterBand(sourceOffsetX, sourceOffsetY, sourceStepX, sourceStepY,
-					destBuffer, destOffsetX, destOffsetY, destWidth, destHeight,
-					0, bandInfo.img, bandInfo.bandSampleOffset);
+					new ProductData[]{destBuffer}, destWidth, destHeight,
+					0, bandInfo.img, new int[]{bandInfo.bandSampleOffset});
+			return;
+        }
+
+        final ImageIOFile.BandInfo[] components = dataDir.getIntensityComponents(destBand);
+        if (components != null) {
+			readIntensityBand(sourceOffsetX, sourceOffsetY, sourceStepX, sourceStepY,
+					destBuffer, destWidth, destHeight, components);
+			return;
+        }
+
+        final CalibratedBand calibratedBand = calibratedBandMap.get(destBand);
+        if (calibratedBand != null) {
+			readIntensityBand(sourceOffsetX, sourceOffsetY, sourceStepX, sourceStepY,
+					destBuffer, destWidth, destHeight, calibratedBand.components);
+			calibratedBand.calibrate((float[]) destBuffer.getElems(), sourceOffsetX, sourceStepX, destWidth, destHeight);
         }
     }
 
+    /**
+     * Computes an intensity band natively: i*i + q*q from the components of complex data, which are decoded in one
+     * pass, or the square of the amplitude of detected data.
+     */
+    private void readIntensityBand(final int sourceOffsetX, final int sourceOffsetY,
+                                   final int sourceStepX, final int sourceStepY,
+                                   final ProductData destBuffer,
+                                   final int destWidth, final int destHeight,
+                                   final ImageIOFile.BandInfo[] components) throws IOException {
+		final int n = destWidth * destHeight;
+		final float[] dest = (float[]) destBuffer.getElems();
+		if (components.length == 2) {
+			final ProductData qBuffer = ProductData.createInstance(ProductData.TYPE_FLOAT32, n);
+			readRasterBand(sourceOffsetX, sourceOffsetY, sourceStepX, sourceStepY,
+					new ProductData[]{destBuffer, qBuffer}, destWidth, destHeight,
+					0, components[0].img, new int[]{components[0].bandSampleOffset, components[1].bandSampleOffset});
+			final float[] q = (float[]) qBuffer.getElems();
+			for (int k = 0; k < n; k++) {
+				dest[k] = dest[k] * dest[k] + q[k] * q[k];
+			}
+		} else {
+			readRasterBand(sourceOffsetX, sourceOffsetY, sourceStepX, sourceStepY,
+					new ProductData[]{destBuffer}, destWidth, destHeight,
+					0, components[0].img, new int[]{components[0].bandSampleOffset});
+			for (int k = 0; k < n; k++) {
+				dest[k] = dest[k] * dest[k];
+			}
+		}
+    }
 
     private void readRasterBand(final int sourceOffsetX, final int sourceOffsetY,
                                 final int sourceStepX, final int sourceStepY,
-                                final ProductData destBuffer,
-                                final int destOffsetX, final int destOffsetY,
+                                final ProductData[] destBuffers,
                                 final int destWidth, final int destHeight,
                                 final int imageID, final ImageIOFile img,
-                                final int bandSampleOffset) throws IOException {
+                                final int[] bandSampleOffsets) throws IOException {
 	/*
-	This function takes a strip of data and reads it into the result.
-	image.getdata reads from the source data (TIFF in our case) to give the input strip.
-	destbuffer.setElem writes that strip to the output (destination buffer)
+	This function takes a strip of data and reads it into the result, one buffer per requested sample.
+	Uncompressed GeoTIFFs are read straight from their strips, others are decoded by a reader leased from the
+	pool of the image file, so tiles of the same image are read in parallel.
+	Subsampled reads (when zoomed out) are served from the overview pyramid once it has been built.
 	*/
-        final Raster data;
-
-		try {
-			// synchronized block, only one thread can read from the source data at a time (why?)
-			// gets used a lot, subsamples when zoomed out.
-			synchronized (dataDir) {
-				final ImageReader reader = img.getReader();
-				final ImageReadParam param = reader.getDefaultReadParam();
-				param.setSourceSubsampling(sourceStepX, sourceStepY,
-						sourceOffsetX % sourceStepX,
-						sourceOffsetY % sourceStepY);
-
-				final RenderedImage image = reader.readAsRenderedImage(0, param);
-
-				data = image.getData(new Rectangle(destOffsetX,
-						destOffsetY,
-						destWidth, destHeight));
+		final int[] sampleOffsets = new int[bandSampleOffsets.length];
+		for (int k = 0; k < sampleOffsets.length; k++) {
+			sampleOffsets[k] = imageID + bandSampleOffsets[k];
+		}
+		if (sourceStepX > 1 || sourceStepY > 1) {
+			final NovaSAROverviewPyramid pyramid = dataDir.getOverviewPyramid(img);
+			if (pyramid != null && pyramid.readRasters(sourceOffsetX, sourceOffsetY, sourceStepX, sourceStepY,
+					destWidth, destHeight, sampleOffsets, destBuffers)) {
+				return;
 			}
+		}
+		dataDir.getRasterSource(img).readRasters(sourceOffsetX, sourceOffsetY, sourceStepX, sourceStepY,
+				destWidth, destHeight, sampleOffsets, destBuffers);
+    }
 
-			final int width = data.getWidth();
-			final int height = data.getHeight();
-			final DataBuffer dataBuffer = data.getDataBuffer();
-			final SampleModel sampleModel = data.getSampleModel();
-			final int sampleOffset = imageID + bandSampleOffset;
+    /**
+     * A band calibrated on read: (DN^2 + offset) / gain, with the gain of the range column. Pixels without data
+     * (DN of 0) stay 0.
+     */
+    private static final class CalibratedBand {
 
-			if(destBuffer.getType() == ProductData.TYPE_FLOAT32) {
-				sampleModel.getSamples(0, 0, width, height, sampleOffset, (float[]) destBuffer.getElems(), dataBuffer);
-			} else {
-				sampleModel.getSamples(0, 0, width, height, sampleOffset, (int[]) destBuffer.getElems(), dataBuffer);
-			}
+        final ImageIOFile.BandInfo[] components;
+        private final float offset;
+        private final float[] gains;
 
+        CalibratedBand(final ImageIOFile.BandInfo[] components, final double offset, final float[] gains) {
+            this.components = components;
+            this.offset = (float) offset;
+            this.gains = gains;
+        }
 
-		} catch (Exception e) {
-        e.printStackTrace();
-		// throw e;
-		}
+        void calibrate(final float[] intensity, final int sourceOffsetX, final int sourceStepX,
+                       final int destWidth, final int destHeight) {
+            for (int j = 0; j < destHeight; j++) {
+                final int row = j * destWidth;
+                for (int i = 0, x = sourceOffsetX; i < destWidth; i++, x += sourceStepX) {
+                    if (intensity[row + i] != 0) {
+                        intensity[row + i] = (intensity[row + i] + offset) / gains[x];
+                    }
+                }
+            }
+        }
     }
 
 }  // End of class definition
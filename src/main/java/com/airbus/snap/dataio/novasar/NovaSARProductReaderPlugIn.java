@@ -20,40 +20,162 @@ import org.esa.snap.core.dataio.ProductReader;
 import org.esa.snap.core.dataio.ProductReaderPlugIn;
 import org.esa.snap.core.util.io.SnapFileFilter;
 import org.esa.snap.engine_utilities.gpf.ReaderUtils;
-import org.esa.snap.engine_utilities.util.ZipUtils;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * The ReaderPlugIn for NovaSAR products.
  */
 public class NovaSARProductReaderPlugIn implements ProductReaderPlugIn {
 
+    private static final int MAX_CACHED_QUALIFICATIONS = 4096;
+
+    // the root element of a NovaSAR metadata file and the elements it starts with
+    private static final String ROOT_ELEMENT = "metadata";
+    private static final Set<String> FIRST_ELEMENTS = new HashSet<>(Arrays.asList(
+            "Product", "Source_Attributes", "OrbitData", "Image_Generation_Parameters", "Image_Attributes",
+            "geographicInformation"));
+
+    private static final XMLInputFactory xmlInputFactory = createXMLInputFactory();
+
+    // decode qualifications of files by path, size and modification time, least recently used first
+    private static final Map<String, DecodeQualification> qualificationCache =
+            new LinkedHashMap<String, DecodeQualification>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, DecodeQualification> eldest) {
+                    return size() > MAX_CACHED_QUALIFICATIONS;
+                }
+            };
+
     /**
      * Checks whether the given object is an acceptable input for this product reader and if so, the method checks if it
      * is capable of decoding the input's content.
+     * <p>
+     * The checks run from cheap to expensive: the file name, then for a {@code NOVS*.zip} the central directory only,
+     * then the root element of the metadata XML. Results are remembered per path, size and modification time, so
+     * repeated probing of the same file costs a lookup; a file that cannot be read is not remembered, so that it is
+     * probed again once it is readable.
      *
      * @param input any input object
      * @return true if this product reader can decode the given input, otherwise false.
      */
     public DecodeQualification getDecodeQualification(final Object input) {
-        final File file = ReaderUtils.getPathFromInput(input).toFile();
-        if (file != null) {
-            final String filename = file.getName().toLowerCase();
-            if (filename.equals(NovaSARConstants.PRODUCT_HEADER_NAME)) {
-                return DecodeQualification.INTENDED;
-            }
-            if (filename.endsWith(".ZIP") && filename.startsWith(NovaSARConstants.MISSION_NAME) &&
-                    ZipUtils.findInZip(file, "", NovaSARConstants.PRODUCT_HEADER_NAME)) {
-                return DecodeQualification.INTENDED;
+        final Path path = ReaderUtils.getPathFromInput(input);
+        if (path == null) {
+            return DecodeQualification.UNABLE;
+        }
+        final File file = path.toFile();
+        final String filename = file.getName().toUpperCase(Locale.ENGLISH);
+        final boolean header = filename.equalsIgnoreCase(NovaSARConstants.PRODUCT_HEADER_NAME);
+        final boolean zip = filename.startsWith(NovaSARConstants.MISSION_NAME) && filename.endsWith(".ZIP");
+        if (!header && !zip) {
+            return DecodeQualification.UNABLE;
+        }
+
+        final String key = file.getAbsolutePath() + '|' + file.length() + '|' + file.lastModified();
+        synchronized (qualificationCache) {
+            final DecodeQualification cached = qualificationCache.get(key);
+            if (cached != null) {
+                return cached;
             }
         }
-        //todo zip stream
+        final DecodeQualification qualification;
+        try {
+            qualification = header ? qualifyHeader(file) : qualifyZip(file);
+        } catch (IOException e) {
+            return DecodeQualification.UNABLE;
+        }
+        synchronized (qualificationCache) {
+            qualificationCache.put(key, qualification);
+        }
+        return qualification;
+    }
+
+    private static DecodeQualification qualifyHeader(final File file) throws IOException {
+        if (!file.isFile()) {
+            return DecodeQualification.UNABLE;
+        }
+        try (InputStream is = Files.newInputStream(file.toPath())) {
+            return isNovaSARMetadata(is) ? DecodeQualification.INTENDED : DecodeQualification.UNABLE;
+        }
+    }
 
+    private static DecodeQualification qualifyZip(final File file) throws IOException {
+        if (!file.isFile()) {
+            return DecodeQualification.UNABLE;
+        }
+        try (NovaSARZipArchive archive = NovaSARZipArchive.open(file)) {
+            for (NovaSARZipArchive.Entry entry : archive.getEntries()) {
+                // the metadata file sits at the top of the zip or in the product folder
+                if (entry.getFileName().equalsIgnoreCase(NovaSARConstants.PRODUCT_HEADER_NAME) &&
+                        entry.name.indexOf('/') == entry.name.lastIndexOf('/')) {
+                    try (InputStream is = archive.openInputStream(entry)) {
+                        if (isNovaSARMetadata(is)) {
+                            return DecodeQualification.INTENDED;
+                        }
+                    }
+                }
+            }
+        }
         return DecodeQualification.UNABLE;
     }
 
+    /**
+     * Sniffs the start of a metadata file: the root element must be {@code metadata} and its first child one of the
+     * elements of a NovaSAR metadata file. Only the bytes up to that child are read.
+     *
+     * @throws IOException if the stream cannot be read, as opposed to holding something else than NovaSAR metadata
+     */
+    static boolean isNovaSARMetadata(final InputStream stream) throws IOException {
+        try {
+            final XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(new BufferedInputStream(stream, 4096));
+            try {
+                int depth = 0;
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                        if (depth == 0 && !ROOT_ELEMENT.equals(reader.getLocalName())) {
+                            return false;
+                        }
+                        if (depth == 1) {
+                            return FIRST_ELEMENTS.contains(reader.getLocalName());
+                        }
+                        ++depth;
+                    }
+                }
+                return false;
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            if (e.getNestedException() instanceof IOException) {
+                throw (IOException) e.getNestedException();
+            }
+            return false;
+        }
+    }
+
+    private static XMLInputFactory createXMLInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
     /**
      * Returns an array containing the classes that represent valid input types for this reader.
      * <p>
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.esa.snap.core.util.SystemUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Thumbnails of the quicklooks of NovaSAR products, cached across sessions.
+ * <p>
+ * The quicklook TIFF of a product ({@code QL_image_<pol>.tif} of its first polarisation) is decoded once and
+ * downsampled to each of the {@link #THUMBNAIL_SIZES}, which are stored as PNG files in the SNAP cache directory
+ * ({@code novasar-quicklooks}), keyed by the product ID and the modification time of the product. From then on,
+ * thumbnails are read from the cache without touching the product. The reader attaches the largest cached
+ * thumbnail as the product quicklook; when the cache has none yet, it attaches the quicklook TIFF as before and
+ * fills the cache in the background. The cache is disabled with the system property
+ * {@code snap.novasar.reader.quicklookCache=false}. Once thumbnails have been added, the thumbnails of the least
+ * recently used products are deleted until the cache fits the size set with the system property
+ * {@code snap.novasar.reader.quicklookCache.size} (in MB).
+ */
+public final class NovaSARQuicklooks {
+
+    /**
+     * The sizes of the cached thumbnails, as length of their longer side in pixels.
+     */
+    public static final int[] THUMBNAIL_SIZES = {128, 256, 512};
+
+    private static final boolean enabled = Boolean.parseBoolean(System.getProperty(
+            SystemUtils.getApplicationContextId() + ".novasar.reader.quicklookCache", "true"));
+
+    private static final NovaSARDiskCache cache = new NovaSARDiskCache("novasar-quicklooks", Long.getLong(
+            SystemUtils.getApplicationContextId() + ".novasar.reader.quicklookCache.size", 1024L) * 1024 * 1024);
+
+    private static final ExecutorService builder = Executors.newSingleThreadExecutor(r -> {
+        final Thread thread = new Thread(r, "NovaSAR thumbnail builder");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    // cache keys of the thumbnails being built in the background
+    private static final Set<String> scheduled = ConcurrentHashMap.newKeySet();
+
+    private NovaSARQuicklooks() {
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns a thumbnail of a catalogued product, from the cache or, on first use, from its quicklook TIFF.
+     *
+     * @param record the catalogue record of the product
+     * @param size   the length of the longer side; the smallest of the {@link #THUMBNAIL_SIZES} that is not smaller
+     *               is returned, or the largest one
+     * @return the thumbnail; it is smaller than requested if the quicklook is
+     * @throws IOException if the product has no quicklook or it cannot be read
+     */
+    public static BufferedImage getThumbnail(final NovaSARCatalogue.Record record, final int size) throws IOException {
+        final int thumbnailSize = getThumbnailSize(size);
+        final File cached = getThumbnailFile(record.product, record.lastModified, thumbnailSize);
+        if (cached != null) {
+            final BufferedImage image = ImageIO.read(cached);
+            if (image != null) {
+                return image;
+            }
+        }
+        final BufferedImage[] thumbnails = createThumbnails(readQuicklook(record));
+        if (enabled) {
+            writeThumbnails(getCacheKey(record.product, record.lastModified), thumbnails);
+        }
+        return thumbnails[indexOf(thumbnailSize)];
+    }
+
+    /**
+     * Returns a thumbnail of a product, from the cache or, on first use, from its quicklook TIFF.
+     *
+     * @param input the {@code metadata.xml} of a product folder or a {@code NOVS*.zip} file
+     * @param size  the length of the longer side, as for {@link #getThumbnail(NovaSARCatalogue.Record, int)}
+     * @return the thumbnail
+     * @throws IOException if the product or its quicklook cannot be read
+     */
+    public static BufferedImage getThumbnail(final Path input, final int size) throws IOException {
+        return getThumbnail(NovaSARCatalogue.read(input), size);
+    }
+
+    /**
+     * @return the cached thumbnail of a product, or null if it is not cached
+     */
+    static File getThumbnailFile(final String productId, final long lastModified, final int size) {
+        if (!enabled || productId == null) {
+            return null;
+        }
+        final String key = getCacheKey(productId, lastModified);
+        final File file = new File(cache.getDir(key), getThumbnailName(size));
+        if (!file.isFile()) {
+            return null;
+        }
+        cache.touch(key);
+        return file;
+    }
+
+    /**
+     * Fills the cache for a product from its quicklook TIFF on a background thread, unless already done.
+     */
+    static void scheduleThumbnails(final String productId, final long lastModified, final File quicklookFile) {
+        if (!enabled || productId == null || quicklookFile == null) {
+            return;
+        }
+        final String key = getCacheKey(productId, lastModified);
+        if (!scheduled.add(key)) {
+            return;
+        }
+        builder.execute(() -> {
+            try {
+                final BufferedImage quicklook = ImageIO.read(quicklookFile);
+                if (quicklook == null) {
+                    throw new IOException("No decoder for " + quicklookFile.getName());
+                }
+                writeThumbnails(key, createThumbnails(quicklook));
+            } catch (IOException | RuntimeException e) {
+                SystemUtils.LOG.warning("Unable to cache thumbnails of " + productId + ": " + e.getMessage());
+            } finally {
+                scheduled.remove(key);
+            }
+        });
+    }
+
+    /**
+     * @return the modification time by which the product of a reader input is cached, that of the
+     * {@code metadata.xml} or {@code NOVS*.zip} file as in the catalogue
+     */
+    static long getLastModified(final File input) {
+        final File file = input.isDirectory() ? new File(input, NovaSARConstants.PRODUCT_HEADER_NAME) : input;
+        return file.lastModified();
+    }
+
+    private static BufferedImage readQuicklook(final NovaSARCatalogue.Record record) throws IOException {
+        if (record.polarisations.length == 0) {
+            throw new IOException("No polarisation in " + record.path);
+        }
+        final String name = "QL_image_" + record.polarisations[0] + ".tif";
+        final Path input = Paths.get(record.path);
+        final BufferedImage image;
+        if (input.getFileName().toString().toUpperCase(Locale.ENGLISH).endsWith(".ZIP")) {
+            try (NovaSARZipArchive archive = NovaSARZipArchive.open(input.toFile())) {
+                final NovaSARZipArchive.Entry entry = archive.find(name);
+                if (entry == null) {
+                    throw new IOException("No " + name + " in " + input);
+                }
+                try (InputStream in = archive.openInputStream(entry)) {
+                    image = ImageIO.read(in);
+                }
+            }
+        } else {
+            image = ImageIO.read(input.resolveSibling(name).toFile());
+        }
+        if (image == null) {
+            throw new IOException("Unable to decode " + name + " of " + input);
+        }
+        return image;
+    }
+
+    /**
+     * Downsamples a quicklook to all thumbnail sizes, halving it repeatedly so that every source pixel contributes.
+     *
+     * @return the thumbnails, in the order of {@link #THUMBNAIL_SIZES}
+     */
+    static BufferedImage[] createThumbnails(final BufferedImage quicklook) {
+        final int type = quicklook.getColorModel().getNumComponents() == 1 ? BufferedImage.TYPE_BYTE_GRAY :
+                         quicklook.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage current = scale(quicklook, quicklook.getWidth(), quicklook.getHeight(), type);
+        final BufferedImage[] thumbnails = new BufferedImage[THUMBNAIL_SIZES.length];
+        for (int i = THUMBNAIL_SIZES.length - 1; i >= 0; i--) {
+            final double scale = Math.min(1.0, (double) THUMBNAIL_SIZES[i] /
+                    Math.max(quicklook.getWidth(), quicklook.getHeight()));
+            final int width = Math.max(1, (int) Math.round(quicklook.getWidth() * scale));
+            final int height = Math.max(1, (int) Math.round(quicklook.getHeight() * scale));
+            while (current.getWidth() >= 2 * width && current.getHeight() >= 2 * height) {
+                current = scale(current, current.getWidth() / 2, current.getHeight() / 2, type);
+            }
+            if (current.getWidth() != width || current.getHeight() != height) {
+                current = scale(current, width, height, type);
+            }
+            thumbnails[i] = current;
+        }
+        return thumbnails;
+    }
+
+    private static BufferedImage scale(final BufferedImage image, final int width, final int height, final int type) {
+        final BufferedImage scaled = new BufferedImage(width, height, type);
+        final Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    private static void writeThumbnails(final String key, final BufferedImage[] thumbnails) throws IOException {
+        final Path dir = cache.getDir(key).toPath();
+        Files.createDirectories(dir);
+        for (int i = 0; i < THUMBNAIL_SIZES.length; i++) {
+            final Path tmpFile = Files.createTempFile(dir, "thumbnail", ".part");
+            try {
+                if (!ImageIO.write(thumbnails[i], "png", tmpFile.toFile())) {
+                    throw new IOException("No PNG encoder");
+                }
+                Files.move(tmpFile, dir.resolve(getThumbnailName(THUMBNAIL_SIZES[i])),
+                           StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmpFile);
+            }
+        }
+        cache.trim();
+    }
+
+    private static int getThumbnailSize(final int size) {
+        for (int thumbnailSize : THUMBNAIL_SIZES) {
+            if (thumbnailSize >= size) {
+                return thumbnailSize;
+            }
+        }
+        return THUMBNAIL_SIZES[THUMBNAIL_SIZES.length - 1];
+    }
+
+    private static int indexOf(final int thumbnailSize) {
+        for (int i = 0; i < THUMBNAIL_SIZES.length; i++) {
+            if (THUMBNAIL_SIZES[i] == thumbnailSize) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Not a thumbnail size: " + thumbnailSize);
+    }
+
+    private static String getThumbnailName(final int size) {
+        return "thumbnail_" + size + ".png";
+    }
+
+    private static String getCacheKey(final String productId, final long lastModified) {
+        return NovaSAROverviewPyramid.getCacheKey(productId + '|' + lastModified);
+    }
+}
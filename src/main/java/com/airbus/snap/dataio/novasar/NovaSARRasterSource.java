@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.esa.snap.core.datamodel.ProductData;
+
+import java.io.IOException;
+
+/**
+ * Something the samples of a NovaSAR image file can be read from.
+ */
+interface NovaSARRasterSource {
+
+    /**
+     * Reads one sample of every pixel of a (subsampled) rectangle into the destination buffer. Destination pixel
+     * {@code (i, j)} is source pixel {@code (sourceOffsetX + i * sourceStepX, sourceOffsetY + j * sourceStepY)}.
+     *
+     * @param sourceOffsetX x of the first source pixel
+     * @param sourceOffsetY y of the first source pixel
+     * @param sourceStepX   subsampling in x
+     * @param sourceStepY   subsampling in y
+     * @param destWidth     the number of pixels per destination row
+     * @param destHeight    the number of destination rows
+     * @param sampleOffset  the index of the sample within a pixel, e.g. 0 for I and 1 for Q of complex data
+     * @param destBuffer    the destination, holding {@code float[]} or {@code int[]} elements
+     * @throws IOException if the file cannot be read
+     */
+    void readRaster(int sourceOffsetX, int sourceOffsetY, int sourceStepX, int sourceStepY,
+                    int destWidth, int destHeight, int sampleOffset, ProductData destBuffer) throws IOException;
+
+    /**
+     * Reads several samples of every pixel of a (subsampled) rectangle, e.g. I and Q of complex data, each into its
+     * own destination buffer. Sources decoding whole pixels at once override this to decode the rectangle only once.
+     *
+     * @param sampleOffsets the indices of the samples within a pixel
+     * @param destBuffers   the destinations, one per sample
+     * @throws IOException if the file cannot be read
+     * @see #readRaster
+     */
+    default void readRasters(final int sourceOffsetX, final int sourceOffsetY, final int sourceStepX, final int sourceStepY,
+                             final int destWidth, final int destHeight,
+                             final int[] sampleOffsets, final ProductData[] destBuffers) throws IOException {
+        for (int k = 0; k < sampleOffsets.length; k++) {
+            readRaster(sourceOffsetX, sourceOffsetY, sourceStepX, sourceStepY,
+                       destWidth, destHeight, sampleOffsets[k], destBuffers[k]);
+        }
+    }
+}
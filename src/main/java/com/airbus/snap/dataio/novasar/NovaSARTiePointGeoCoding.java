@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.esa.snap.core.datamodel.GeoPos;
+import org.esa.snap.core.datamodel.PixelPos;
+import org.esa.snap.core.datamodel.TiePointGeoCoding;
+import org.esa.snap.core.datamodel.TiePointGrid;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A tie point geocoding with a fast inverse for NovaSAR scenes.
+ * <p>
+ * Geo to pixel lookups are answered from a regular latitude/longitude grid over the footprint whose nodes hold the
+ * fractional pixel position, as computed by the generic inverse of {@link TiePointGeoCoding}. The grid is filled in
+ * blocks of {@value #BLOCK_SIZE} x {@value #BLOCK_SIZE} cells on first use. A lookup interpolates the pixel position
+ * within its cell and refines it with one Newton step against the latitude and longitude tie point grids, which
+ * brings it to a small fraction of a pixel. Lookups do not allocate when a {@link PixelPos} is passed in.
+ * <p>
+ * Positions outside the footprint, or in cells crossing its edge, are left to the generic inverse.
+ */
+class NovaSARTiePointGeoCoding extends TiePointGeoCoding {
+
+    static final int BLOCK_SIZE = 16;
+
+    // cells per tie point interval along each axis of the inverse grid
+    private static final int CELLS_PER_TIE_POINT = 4;
+    private static final int MAX_CELLS = 1024;
+
+    private final TiePointGrid latGrid;
+    private final TiePointGrid lonGrid;
+    private final int sceneWidth;
+    private final int sceneHeight;
+    private final boolean shiftLon;     // the footprint crosses the antimeridian: longitudes are kept in [0, 360)
+    private final double minLat;
+    private final double minLon;
+    private final double deltaLat;
+    private final double deltaLon;
+    private final int numCellsLat;
+    private final int numCellsLon;
+    private final int numBlocksLon;
+    // per block, the x and y of its (BLOCK_SIZE + 1)^2 nodes, NaN where the generic inverse has no position
+    private final AtomicReferenceArray<float[]> blocks;
+
+    NovaSARTiePointGeoCoding(final TiePointGrid latGrid, final TiePointGrid lonGrid, final int sceneWidth,
+                             final int sceneHeight) {
+        super(latGrid, lonGrid);
+        this.latGrid = latGrid;
+        this.lonGrid = lonGrid;
+        this.sceneWidth = sceneWidth;
+        this.sceneHeight = sceneHeight;
+
+        final float[] lats = latGrid.getTiePoints();
+        final float[] lons = lonGrid.getTiePoints();
+        double latMin = Double.POSITIVE_INFINITY, latMax = Double.NEGATIVE_INFINITY;
+        double lonMin = Double.POSITIVE_INFINITY, lonMax = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < lats.length; i++) {
+            latMin = Math.min(latMin, lats[i]);
+            latMax = Math.max(latMax, lats[i]);
+            lonMin = Math.min(lonMin, lons[i]);
+            lonMax = Math.max(lonMax, lons[i]);
+        }
+        shiftLon = lonMax - lonMin > 180;
+        if (shiftLon) {
+            lonMin = Double.POSITIVE_INFINITY;
+            lonMax = Double.NEGATIVE_INFINITY;
+            for (float lon : lons) {
+                lonMin = Math.min(lonMin, shift(lon));
+                lonMax = Math.max(lonMax, shift(lon));
+            }
+        }
+        final int numCells = Math.min(MAX_CELLS, CELLS_PER_TIE_POINT *
+                Math.max(latGrid.getGridWidth(), latGrid.getGridHeight()));
+        minLat = latMin;
+        minLon = lonMin;
+        numCellsLat = numCells;
+        numCellsLon = numCells;
+        deltaLat = Math.max(latMax - latMin, 1e-9) / numCellsLat;
+        deltaLon = Math.max(lonMax - lonMin, 1e-9) / numCellsLon;
+        numBlocksLon = (numCellsLon + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        blocks = new AtomicReferenceArray<>(numBlocksLon * ((numCellsLat + BLOCK_SIZE - 1) / BLOCK_SIZE));
+    }
+
+    @Override
+    public PixelPos getPixelPos(final GeoPos geoPos, PixelPos pixelPos) {
+        if (geoPos == null || !geoPos.isValid()) {
+            return super.getPixelPos(geoPos, pixelPos);
+        }
+        final double lat = geoPos.getLat();
+        final double lon = shiftLon ? shift(geoPos.getLon()) : geoPos.getLon();
+        final double fi = (lat - minLat) / deltaLat;
+        final double fj = (lon - minLon) / deltaLon;
+        if (!(fi >= 0 && fi <= numCellsLat && fj >= 0 && fj <= numCellsLon)) {
+            return super.getPixelPos(geoPos, pixelPos);
+        }
+        final int i = Math.min((int) fi, numCellsLat - 1);
+        final int j = Math.min((int) fj, numCellsLon - 1);
+        final float[] block = getBlock(i / BLOCK_SIZE, j / BLOCK_SIZE);
+        final int n00 = 2 * ((i % BLOCK_SIZE) * (BLOCK_SIZE + 1) + j % BLOCK_SIZE);
+        final int n01 = n00 + 2;
+        final int n10 = n00 + 2 * (BLOCK_SIZE + 1);
+        final int n11 = n10 + 2;
+        final double x00 = block[n00], y00 = block[n00 + 1];
+        final double x01 = block[n01], y01 = block[n01 + 1];
+        final double x10 = block[n10], y10 = block[n10 + 1];
+        final double x11 = block[n11], y11 = block[n11 + 1];
+        if (Double.isNaN(x00 + x01 + x10 + x11 + y00 + y01 + y10 + y11)) {
+            return super.getPixelPos(geoPos, pixelPos);
+        }
+
+        final double u = fi - i;
+        final double v = fj - j;
+        double x = (x00 * (1 - v) + x01 * v) * (1 - u) + (x10 * (1 - v) + x11 * v) * u;
+        double y = (y00 * (1 - v) + y01 * v) * (1 - u) + (y10 * (1 - v) + y11 * v) * u;
+
+        if (x >= 0 && x <= sceneWidth && y >= 0 && y <= sceneHeight) {
+            // one Newton step, with the inverse Jacobian of the cell
+            final double dxdLat = ((x10 - x00) * (1 - v) + (x11 - x01) * v) / deltaLat;
+            final double dydLat = ((y10 - y00) * (1 - v) + (y11 - y01) * v) / deltaLat;
+            final double dxdLon = ((x01 - x00) * (1 - u) + (x11 - x10) * u) / deltaLon;
+            final double dydLon = ((y01 - y00) * (1 - u) + (y11 - y10) * u) / deltaLon;
+            final double dLat = lat - latGrid.getPixelDouble(x, y);
+            final double gLon = lonGrid.getPixelDouble(x, y);
+            final double dLon = lon - (shiftLon ? shift(gLon) : gLon);
+            x += dxdLat * dLat + dxdLon * dLon;
+            y += dydLat * dLat + dydLon * dLon;
+        }
+
+        if (pixelPos == null) {
+            pixelPos = new PixelPos();
+        }
+        pixelPos.setLocation(x, y);
+        return pixelPos;
+    }
+
+    private float[] getBlock(final int bi, final int bj) {
+        final int index = bi * numBlocksLon + bj;
+        float[] block = blocks.get(index);
+        if (block == null) {
+            block = computeBlock(bi, bj);
+            if (!blocks.compareAndSet(index, null, block)) {
+                block = blocks.get(index);
+            }
+        }
+        return block;
+    }
+
+    private float[] computeBlock(final int bi, final int bj) {
+        final float[] block = new float[2 * (BLOCK_SIZE + 1) * (BLOCK_SIZE + 1)];
+        final GeoPos geoPos = new GeoPos();
+        final PixelPos pixelPos = new PixelPos();
+        int k = 0;
+        for (int i = 0; i <= BLOCK_SIZE; i++) {
+            final double lat = minLat + (bi * BLOCK_SIZE + i) * deltaLat;
+            for (int j = 0; j <= BLOCK_SIZE; j++) {
+                double lon = minLon + (bj * BLOCK_SIZE + j) * deltaLon;
+                if (lon >= 180) {
+                    lon -= 360;
+                }
+                geoPos.setLocation(lat, lon);
+                super.getPixelPos(geoPos, pixelPos);
+                final boolean valid = pixelPos.isValid();
+                block[k++] = valid ? (float) pixelPos.x : Float.NaN;
+                block[k++] = valid ? (float) pixelPos.y : Float.NaN;
+            }
+        }
+        return block;
+    }
+
+    private static double shift(final double lon) {
+        return lon < 0 ? lon + 360 : lon;
+    }
+
+    @Override
+    public void dispose() {
+        for (int i = 0; i < blocks.length(); i++) {
+            blocks.set(i, null);
+        }
+        super.dispose();
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import java.awt.Dimension;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * The raster layout of the first image of a (Big)TIFF file: size, sample format and the offsets and byte counts of
+ * its strips or tiles, parsed once from the image file directory.
+ * <p>
+ * A striped image is described as a tiled one whose tiles are as wide as the image and {@code RowsPerStrip} high.
+ */
+class NovaSARTiffLayout {
+
+    static final int COMPRESSION_NONE = 1;
+    static final int PLANAR_CHUNKY = 1;
+
+    static final int SAMPLE_FORMAT_UINT = 1;
+    static final int SAMPLE_FORMAT_INT = 2;
+    static final int SAMPLE_FORMAT_FLOAT = 3;
+
+    private static final int TAG_IMAGE_WIDTH = 256;
+    private static final int TAG_IMAGE_LENGTH = 257;
+    private static final int TAG_BITS_PER_SAMPLE = 258;
+    private static final int TAG_COMPRESSION = 259;
+    private static final int TAG_STRIP_OFFSETS = 273;
+    private static final int TAG_SAMPLES_PER_PIXEL = 277;
+    private static final int TAG_ROWS_PER_STRIP = 278;
+    private static final int TAG_STRIP_BYTE_COUNTS = 279;
+    private static final int TAG_PLANAR_CONFIGURATION = 284;
+    private static final int TAG_TILE_WIDTH = 322;
+    private static final int TAG_TILE_LENGTH = 323;
+    private static final int TAG_TILE_OFFSETS = 324;
+    private static final int TAG_TILE_BYTE_COUNTS = 325;
+    private static final int TAG_SAMPLE_FORMAT = 339;
+
+    // tiles or strips larger than this many times the target tile size are not aligned to
+    private static final int MAX_ALIGNED_FACTOR = 4;
+
+    final ByteOrder byteOrder;
+    final int width;
+    final int height;
+    final int samplesPerPixel;
+    final int bitsPerSample;
+    final int sampleFormat;
+    final int compression;
+    final int planarConfiguration;
+    final boolean tiled;
+    final int tileWidth;
+    final int tileHeight;
+    final int tilesAcross;
+    final long[] offsets;
+    final long[] byteCounts;
+
+    NovaSARTiffLayout(final ByteOrder byteOrder, final int width, final int height,
+                      final int samplesPerPixel, final int bitsPerSample, final int sampleFormat,
+                      final int compression, final int planarConfiguration, final boolean tiled,
+                      final int tileWidth, final int tileHeight, final long[] offsets, final long[] byteCounts) {
+        this.byteOrder = byteOrder;
+        this.width = width;
+        this.height = height;
+        this.samplesPerPixel = samplesPerPixel;
+        this.bitsPerSample = bitsPerSample;
+        this.sampleFormat = sampleFormat;
+        this.compression = compression;
+        this.planarConfiguration = planarConfiguration;
+        this.tiled = tiled;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.tilesAcross = (width + tileWidth - 1) / tileWidth;
+        this.offsets = offsets;
+        this.byteCounts = byteCounts;
+    }
+
+    /**
+     * @return true if the raster can be read directly from the file, without a TIFF decoder
+     */
+    boolean isDirectlyReadable() {
+        return compression == COMPRESSION_NONE && planarConfiguration == PLANAR_CHUNKY &&
+                (bitsPerSample == 8 || bitsPerSample == 16 || bitsPerSample == 32 ||
+                        (bitsPerSample == 64 && sampleFormat == SAMPLE_FORMAT_FLOAT));
+    }
+
+    int getBytesPerPixel() {
+        return samplesPerPixel * (bitsPerSample / 8);
+    }
+
+    /**
+     * @return the number of bytes of one row of a tile or strip
+     */
+    long getTileRowBytes() {
+        return (long) tileWidth * getBytesPerPixel();
+    }
+
+    /**
+     * Computes a size for the tiles the raster is read in, made of whole TIFF tiles or strips and close to a target
+     * size, so that no tile or strip is read for more than one of them. Uncompressed strips are read in part, so
+     * narrower tiles are fine; compressed strips must be decoded whole, so the tiles span the width of the image.
+     * Tiles or strips far larger than the target are not aligned to.
+     *
+     * @param targetSize the width and height aimed for
+     * @return the tile size, at most the image size
+     */
+    Dimension getAlignedTileSize(final int targetSize) {
+        final int alignedWidth;
+        if (tiled) {
+            alignedWidth = align(tileWidth, targetSize, width);
+        } else {
+            alignedWidth = isDirectlyReadable() ? Math.min(width, targetSize) : width;
+        }
+        return new Dimension(alignedWidth, align(tileHeight, targetSize, height));
+    }
+
+    private static int align(final int unit, final int targetSize, final int size) {
+        if (unit > MAX_ALIGNED_FACTOR * targetSize) {
+            return Math.min(size, targetSize);
+        }
+        final int multiple = Math.max(1, Math.round((float) targetSize / unit));
+        return (int) Math.min(size, (long) multiple * unit);
+    }
+
+    int getTileIndex(final int x, final int y) {
+        return (y / tileHeight) * tilesAcross + x / tileWidth;
+    }
+
+    /**
+     * Parses the first image file directory of a classic or BigTIFF file.
+     *
+     * @param channel the channel of the TIFF file
+     * @return the raster layout
+     * @throws IOException if the file is not a TIFF or cannot be read
+     */
+    static NovaSARTiffLayout parse(final FileChannel channel) throws IOException {
+        return parse(channel, 0);
+    }
+
+    /**
+     * Parses the first image file directory of a TIFF file embedded in another file, e.g. stored in a zip file.
+     * The offsets of the layout are relative to the start of the TIFF file.
+     *
+     * @param channel the channel of the enclosing file
+     * @param start   the position of the TIFF file in the enclosing file
+     * @return the raster layout
+     * @throws IOException if the file is not a TIFF or cannot be read
+     */
+    static NovaSARTiffLayout parse(final FileChannel channel, final long start) throws IOException {
+        final ByteBuffer header = read(channel, start, 16, ByteOrder.BIG_ENDIAN);
+        final ByteOrder order;
+        if (header.get(0) == 'I' && header.get(1) == 'I') {
+            order = ByteOrder.LITTLE_ENDIAN;
+        } else if (header.get(0) == 'M' && header.get(1) == 'M') {
+            order = ByteOrder.BIG_ENDIAN;
+        } else {
+            throw new IOException("Not a TIFF file");
+        }
+        header.order(order);
+
+        final int version = header.getShort(2) & 0xFFFF;
+        final boolean bigTiff;
+        final long ifdOffset;
+        if (version == 42) {
+            bigTiff = false;
+            ifdOffset = header.getInt(4) & 0xFFFFFFFFL;
+        } else if (version == 43) {
+            bigTiff = true;
+            ifdOffset = header.getLong(8);
+        } else {
+            throw new IOException("Unsupported TIFF version " + version);
+        }
+
+        final int countSize = bigTiff ? 8 : 2;
+        final int entrySize = bigTiff ? 20 : 12;
+        final ByteBuffer countBuf = read(channel, start + ifdOffset, countSize, order);
+        final long numEntries = bigTiff ? countBuf.getLong(0) : countBuf.getShort(0) & 0xFFFF;
+        final ByteBuffer entries = read(channel, start + ifdOffset + countSize, (int) (numEntries * entrySize), order);
+
+        int width = 0, height = 0, samplesPerPixel = 1, bitsPerSample = 1, sampleFormat = SAMPLE_FORMAT_UINT;
+        int compression = COMPRESSION_NONE, planarConfiguration = PLANAR_CHUNKY;
+        int rowsPerStrip = Integer.MAX_VALUE, tileWidth = 0, tileHeight = 0;
+        long[] stripOffsets = null, stripByteCounts = null, tileOffsets = null, tileByteCounts = null;
+
+        for (int i = 0; i < numEntries; i++) {
+            final int pos = i * entrySize;
+            final int tag = entries.getShort(pos) & 0xFFFF;
+            final int type = entries.getShort(pos + 2) & 0xFFFF;
+            final long count = bigTiff ? entries.getLong(pos + 4) : entries.getInt(pos + 4) & 0xFFFFFFFFL;
+            final int valuePos = pos + (bigTiff ? 12 : 8);
+
+            switch (tag) {
+                case TAG_IMAGE_WIDTH:
+                    width = (int) readValues(channel, start, entries, valuePos, type, 1, bigTiff, order)[0];
+                    break;
+                case TAG_IMAGE_LENGTH:
+                    height = (int) readValues(channel, start, entries, valuePos, type, 1, bigTiff, order)[0];
+                    break;
+                case TAG_BITS_PER_SAMPLE:
+                    bitsPerSample = (int) readValues(channel, start, entries, valuePos, type, count, bigTiff, order)[0];
+                    break;
+                case TAG_COMPRESSION:
+                    compression = (int) readValues(channel, start, entries, valuePos, type, 1, bigTiff, order)[0];
+                    break;
+                case TAG_SAMPLES_PER_PIXEL:
+                    samplesPerPixel = (int) readValues(channel, start, entries, valuePos, type, 1, bigTiff, order)[0];
+                    break;
+                case TAG_ROWS_PER_STRIP:
+                    rowsPerStrip = (int) Math.min(Integer.MAX_VALUE,
+                            readValues(channel, start, entries, valuePos, type, 1, bigTiff, order)[0]);
+                    break;
+                case TAG_PLANAR_CONFIGURATION:
+                    planarConfiguration = (int) readValues(channel, start, entries, valuePos, type, 1, bigTiff, order)[0];
+                    break;
+                case TAG_SAMPLE_FORMAT:
+                    sampleFormat = (int) readValues(channel, start, entries, valuePos, type, count, bigTiff, order)[0];
+                    break;
+                case TAG_TILE_WIDTH:
+                    tileWidth = (int) readValues(channel, start, entries, valuePos, type, 1, bigTiff, order)[0];
+                    break;
+                case TAG_TILE_LENGTH:
+                    tileHeight = (int) readValues(channel, start, entries, valuePos, type, 1, bigTiff, order)[0];
+                    break;
+                case TAG_STRIP_OFFSETS:
+                    stripOffsets = readValues(channel, start, entries, valuePos, type, count, bigTiff, order);
+                    break;
+                case TAG_STRIP_BYTE_COUNTS:
+                    stripByteCounts = readValues(channel, start, entries, valuePos, type, count, bigTiff, order);
+                    break;
+                case TAG_TILE_OFFSETS:
+                    tileOffsets = readValues(channel, start, entries, valuePos, type, count, bigTiff, order);
+                    break;
+                case TAG_TILE_BYTE_COUNTS:
+                    tileByteCounts = readValues(channel, start, entries, valuePos, type, count, bigTiff, order);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        if (width <= 0 || height <= 0) {
+            throw new IOException("TIFF image has no size");
+        }
+        if (tileOffsets != null && tileByteCounts != null && tileWidth > 0 && tileHeight > 0) {
+            return new NovaSARTiffLayout(order, width, height, samplesPerPixel, bitsPerSample, sampleFormat,
+                                         compression, planarConfiguration, true, tileWidth, tileHeight,
+                                         tileOffsets, tileByteCounts);
+        }
+        if (stripOffsets == null || stripByteCounts == null) {
+            throw new IOException("TIFF image has no strip or tile offsets");
+        }
+        return new NovaSARTiffLayout(order, width, height, samplesPerPixel, bitsPerSample, sampleFormat,
+                                     compression, planarConfiguration, false, width, Math.min(rowsPerStrip, height),
+                                     stripOffsets, stripByteCounts);
+    }
+
+    private static long[] readValues(final FileChannel channel, final long start, final ByteBuffer entries,
+                                     final int valuePos, final int type, final long count, final boolean bigTiff,
+                                     final ByteOrder order) throws IOException {
+        final int typeSize = getTypeSize(type);
+        final long size = typeSize * count;
+        final ByteBuffer buf;
+        int pos;
+        if (size <= (bigTiff ? 8 : 4)) {
+            buf = entries;
+            pos = valuePos;
+        } else {
+            final long offset = bigTiff ? entries.getLong(valuePos) : entries.getInt(valuePos) & 0xFFFFFFFFL;
+            buf = read(channel, start + offset, (int) size, order);
+            pos = 0;
+        }
+        final long[] values = new long[(int) count];
+        for (int i = 0; i < count; i++, pos += typeSize) {
+            switch (typeSize) {
+                case 1:
+                    values[i] = buf.get(pos) & 0xFF;
+                    break;
+                case 2:
+                    values[i] = buf.getShort(pos) & 0xFFFF;
+                    break;
+                case 4:
+                    values[i] = buf.getInt(pos) & 0xFFFFFFFFL;
+                    break;
+                default:
+                    values[i] = buf.getLong(pos);
+                    break;
+            }
+        }
+        return values;
+    }
+
+    private static int getTypeSize(final int type) throws IOException {
+        switch (type) {
+            case 1:     // BYTE
+            case 2:     // ASCII
+            case 6:     // SBYTE
+            case 7:     // UNDEFINED
+                return 1;
+            case 3:     // SHORT
+            case 8:     // SSHORT
+                return 2;
+            case 4:     // LONG
+            case 9:     // SLONG
+            case 11:    // FLOAT
+            case 13:    // IFD
+                return 4;
+            case 5:     // RATIONAL
+            case 10:    // SRATIONAL
+            case 12:    // DOUBLE
+            case 16:    // LONG8
+            case 17:    // SLONG8
+            case 18:    // IFD8
+                return 8;
+            default:
+                throw new IOException("Unknown TIFF field type " + type);
+        }
+    }
+
+    static ByteBuffer read(final FileChannel channel, final long position, final int length,
+                           final ByteOrder order) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(length).order(order);
+        readFully(channel, buf, position);
+        buf.flip();
+        return buf;
+    }
+
+    static void readFully(final FileChannel channel, final ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            final int n = channel.read(buf, position);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of TIFF file at " + position);
+            }
+            position += n;
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.util.SystemUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Reads rectangles of an uncompressed TIFF raster straight from the file, using the strip/tile index of a
+ * {@link NovaSARTiffLayout} and positional reads on a file channel of the {@link NovaSARFileHandles} budget.
+ * <p>
+ * Only the bytes of the strips or tiles overlapping a request are read; no TIFF decoder or image pipeline is set up.
+ * The channel is shared: positional reads do not move the channel position, so any number of threads may read
+ * concurrently. It is only open while needed: the budget may close it between reads, and it is reopened on demand.
+ * <p>
+ * In memory-mapped mode the file is mapped in segments on first access and samples are converted from the mapped
+ * pages straight into the destination buffer, without an intermediate copy on the heap. Mapped segments are only
+ * released by the garbage collector, so this mode is restricted to files on local disk. A mapped segment stays valid
+ * when the channel it was mapped from is closed.
+ */
+class NovaSARTiffRasterReader implements NovaSARRasterSource {
+
+    // largest span read in one call when consecutive rows of a strip are coalesced
+    private static final long MAX_COALESCED_READ = 8L * 1024 * 1024;
+
+    // files are mapped in segments of this size, each overlapping the next one by the largest span read at once
+    private static final long SEGMENT_SIZE = 1L << 30;
+    private static final long SEGMENT_OVERLAP = 4 * MAX_COALESCED_READ;
+
+    private static final Set<String> REMOTE_FILE_STORE_TYPES = new HashSet<>(Arrays.asList(
+            "nfs", "nfs4", "cifs", "smb", "smbfs", "smb2", "afs", "9p", "fuse.sshfs", "fuse.s3fs", "webdav", "davfs"));
+
+    private static final int U8 = 0, S8 = 1, U16 = 2, S16 = 3, U32 = 4, S32 = 5, F32 = 6, F64 = 7;
+
+    // a read buffer kept per thread, of at most this size; longer spans get a buffer of their own, so that the
+    // threads of a pool do not each hold on to a coalesced read
+    private static final int MAX_THREAD_BUFFER = 1024 * 1024;
+    private static final ThreadLocal<ByteBuffer> threadBuffer = new ThreadLocal<>();
+
+    private final NovaSARTiffLayout layout;
+    private final NovaSARFileHandles.Handle handle;
+    private final int sampleKind;
+    private final long fileStart;
+    private final long fileSize;
+    private final AtomicReferenceArray<MappedByteBuffer> segments;   // null if not memory mapped
+
+    NovaSARTiffRasterReader(final NovaSARTiffLayout layout, final NovaSARFileHandles.Handle handle,
+                            final boolean memoryMapped) throws IOException {
+        this(layout, handle, 0, handle.size(), memoryMapped);
+    }
+
+    /**
+     * Creates a reader of a TIFF file embedded in another file, e.g. stored in a zip file.
+     *
+     * @param fileStart the position of the TIFF file in the enclosing file
+     * @param fileSize  the size of the TIFF file
+     */
+    NovaSARTiffRasterReader(final NovaSARTiffLayout layout, final NovaSARFileHandles.Handle handle,
+                            final long fileStart, final long fileSize, final boolean memoryMapped) {
+        this.layout = layout;
+        this.handle = handle;
+        this.sampleKind = getSampleKind(layout);
+        this.fileStart = fileStart;
+        this.fileSize = fileSize;
+        this.segments = memoryMapped ? new AtomicReferenceArray<>((int) (fileSize / SEGMENT_SIZE) + 1) : null;
+    }
+
+    boolean isMemoryMapped() {
+        return segments != null;
+    }
+
+    NovaSARTiffLayout getLayout() {
+        return layout;
+    }
+
+    @Override
+    public void readRaster(final int sourceOffsetX, final int sourceOffsetY,
+                           final int sourceStepX, final int sourceStepY,
+                           final int destWidth, final int destHeight,
+                           final int sampleOffset, final ProductData destBuffer) throws IOException {
+        readRasters(sourceOffsetX, sourceOffsetY, sourceStepX, sourceStepY, destWidth, destHeight,
+                    new int[]{sampleOffset}, new ProductData[]{destBuffer});
+    }
+
+    /**
+     * Reads the bytes of the rectangle once and decodes every requested sample from them.
+     */
+    @Override
+    public void readRasters(final int sourceOffsetX, final int sourceOffsetY,
+                            final int sourceStepX, final int sourceStepY,
+                            final int destWidth, final int destHeight,
+                            final int[] sampleOffsets, final ProductData[] destBuffers) throws IOException {
+
+        final int pixelBytes = layout.getBytesPerPixel();
+        final int sampleBytes = layout.bitsPerSample / 8;
+        final long rowBytes = layout.getTileRowBytes();
+        final int lastX = sourceOffsetX + (destWidth - 1) * sourceStepX;
+        final Object[] dests = new Object[destBuffers.length];
+        for (int k = 0; k < destBuffers.length; k++) {
+            dests[k] = destBuffers[k].getElems();
+        }
+
+        int j = 0;
+        while (j < destHeight) {
+            final int srcY = sourceOffsetY + j * sourceStepY;
+            final int tileTop = (srcY / layout.tileHeight) * layout.tileHeight;
+            final int tileBottom = Math.min(tileTop + layout.tileHeight, layout.height);
+            final int jEnd = Math.min(destHeight, ceilDiv(tileBottom - sourceOffsetY, sourceStepY));
+
+            for (int tileCol = sourceOffsetX / layout.tileWidth; tileCol <= lastX / layout.tileWidth; tileCol++) {
+                final int tileLeft = tileCol * layout.tileWidth;
+                final int tileRight = Math.min(tileLeft + layout.tileWidth, layout.width);
+                final int i0 = Math.max(0, ceilDiv(tileLeft - sourceOffsetX, sourceStepX));
+                final int i1 = Math.min(destWidth, ceilDiv(tileRight - sourceOffsetX, sourceStepX));
+                if (i0 >= i1) {
+                    continue;
+                }
+                final int x0 = sourceOffsetX + i0 * sourceStepX - tileLeft;
+                final int x1 = sourceOffsetX + (i1 - 1) * sourceStepX - tileLeft;
+                final int count = i1 - i0;
+                final int stride = sourceStepX * pixelBytes;
+                final int rowLength = (x1 - x0 + 1) * pixelBytes;
+                final long tileStart = layout.offsets[layout.getTileIndex(tileLeft, tileTop)];
+
+                final int r0 = srcY - tileTop;
+                final int r1 = sourceOffsetY + (jEnd - 1) * sourceStepY - tileTop;
+                final long spanStart = r0 * rowBytes + (long) x0 * pixelBytes;
+                final long spanLength = (r1 - r0) * rowBytes + rowLength;
+
+                if (sourceStepY == 1 && spanLength <= MAX_COALESCED_READ) {
+                    final ByteBuffer buf = read(tileStart + spanStart, (int) spanLength);
+                    for (int jj = j; jj < jEnd; jj++) {
+                        final int pos = (int) ((jj - j) * rowBytes);
+                        for (int k = 0; k < dests.length; k++) {
+                            decode(buf, pos + sampleOffsets[k] * sampleBytes, count, stride, dests[k], jj * destWidth + i0);
+                        }
+                    }
+                } else {
+                    for (int jj = j; jj < jEnd; jj++) {
+                        final int r = sourceOffsetY + jj * sourceStepY - tileTop;
+                        final ByteBuffer buf = read(tileStart + r * rowBytes + (long) x0 * pixelBytes, rowLength);
+                        for (int k = 0; k < dests.length; k++) {
+                            decode(buf, sampleOffsets[k] * sampleBytes, count, stride, dests[k], jj * destWidth + i0);
+                        }
+                    }
+                }
+            }
+            j = jEnd;
+        }
+    }
+
+    private ByteBuffer read(final long position, final int length) throws IOException {
+        if (segments != null) {
+            final int index = (int) (position / SEGMENT_SIZE);
+            final long segmentStart = index * SEGMENT_SIZE;
+            if (position + length <= segmentStart + SEGMENT_SIZE + SEGMENT_OVERLAP && position + length <= fileSize) {
+                final ByteBuffer view = getSegment(index).duplicate();
+                final int start = (int) (position - segmentStart);
+                view.limit(start + length);
+                view.position(start);
+                return view.slice().order(layout.byteOrder);
+            }
+        }
+        ByteBuffer buf;
+        if (length > MAX_THREAD_BUFFER) {
+            buf = ByteBuffer.allocate(length);
+        } else {
+            buf = threadBuffer.get();
+            if (buf == null || buf.capacity() < length) {
+                buf = ByteBuffer.allocate(Math.min(MAX_THREAD_BUFFER, Math.max(length, 64 * 1024)));
+                threadBuffer.set(buf);
+            }
+        }
+        buf.clear();
+        buf.limit(length);
+        buf.order(layout.byteOrder);
+        handle.readFully(buf, fileStart + position);
+        buf.flip();
+        return buf;
+    }
+
+    private MappedByteBuffer getSegment(final int index) throws IOException {
+        MappedByteBuffer segment = segments.get(index);
+        if (segment == null) {
+            synchronized (segments) {
+                segment = segments.get(index);
+                if (segment == null) {
+                    final long start = index * SEGMENT_SIZE;
+                    final long size = Math.min(SEGMENT_SIZE + SEGMENT_OVERLAP, fileSize - start);
+                    segment = handle.read(channel ->
+                            channel.map(FileChannel.MapMode.READ_ONLY, fileStart + start, size));
+                    segments.set(index, segment);
+                }
+            }
+        }
+        return segment;
+    }
+
+    private void decode(final ByteBuffer buf, final int pos, final int count, final int stride,
+                        final Object dest, final int destPos) {
+        if (dest instanceof float[]) {
+            decodeToFloat(buf, pos, count, stride, (float[]) dest, destPos);
+        } else {
+            decodeToInt(buf, pos, count, stride, (int[]) dest, destPos);
+        }
+    }
+
+    private void decodeToFloat(final ByteBuffer buf, int pos, final int count, final int stride,
+                               final float[] dest, final int destPos) {
+        final int end = destPos + count;
+        switch (sampleKind) {
+            case U8:
+                for (int i = destPos; i < end; i++, pos += stride) dest[i] = buf.get(pos) & 0xFF;
+                break;
+            case S8:
+                for (int i = destPos; i < end; i++, pos += stride) dest[i] = buf.get(pos);
+                break;
+            case U16:
+                for (int i = destPos; i < end; i++, pos += stride) dest[i] = buf.getShort(pos) & 0xFFFF;
+                break;
+            case S16:
+                for (int i = destPos; i < end; i++, pos += stride) dest[i] = buf.getShort(pos);
+                break;
+            case U32:
+                for (int i = destPos; i < end; i++, pos += stride) dest[i] = buf.getInt(pos) & 0xFFFFFFFFL;
+                break;
+            case S32:
+                for (int i = destPos; i < end; i++, pos += stride) dest[i] = buf.getInt(pos);
+                break;
+            case F32:
+                for (int i = destPos; i < end; i++, pos += stride) dest[i] = buf.getFloat(pos);
+                break;
+            default:
+                for (int i = destPos; i < end; i++, pos += stride) dest[i] = (float) buf.getDouble(pos);
+                break;
+        }
+    }
+
+    private void decodeToInt(final ByteBuffer buf, int pos, final int count, final int stride,
+                             final int[] dest, final int destPos) {
+        final int end = destPos + count;
+        switch (sampleKind) {
+            case U8:
+                for (int i = destPos; i < end; i++, pos += stride) dest[i] = buf.get(pos) & 0xFF;
+                break;
+            case S8:
+                for (int i = destPos; i < end; i++, pos += stride) dest[i] = buf.get(pos);
+                break;
+            case U16:
+                for (int i = destPos; i < end; i++, pos += stride) dest[i] = buf.getShort(pos) & 0xFFFF;
+                break;
+            case S16:
+                for (int i = destPos; i < end; i++, pos += stride) dest[i] = buf.getShort(pos);
+                break;
+            case U32:
+            case S32:
+                for (int i = destPos; i < end; i++, pos += stride) dest[i] = buf.getInt(pos);
+                break;
+            case F32:
+                for (int i = destPos; i < end; i++, pos += stride) dest[i] = (int) buf.getFloat(pos);
+                break;
+            default:
+                for (int i = destPos; i < end; i++, pos += stride) dest[i] = (int) buf.getDouble(pos);
+                break;
+        }
+    }
+
+    void close() {
+        handle.close();
+    }
+
+    /**
+     * Checks whether a file can safely be memory mapped: it must be on a local file system, as mapped pages of a
+     * network share may fault with an error instead of an exception when the share goes away.
+     *
+     * @param path the file
+     * @return true if the file is on a local file system
+     */
+    static boolean isLocalFile(final Path path) {
+        try {
+            final String type = Files.getFileStore(path).type().toLowerCase(Locale.ENGLISH);
+            return !REMOTE_FILE_STORE_TYPES.contains(type);
+        } catch (IOException e) {
+            SystemUtils.LOG.fine("Unable to determine the file store of " + path + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static int ceilDiv(final int a, final int b) {
+        return a <= 0 ? 0 : (a + b - 1) / b;
+    }
+
+    private static int getSampleKind(final NovaSARTiffLayout layout) {
+        final boolean signed = layout.sampleFormat == NovaSARTiffLayout.SAMPLE_FORMAT_INT;
+        final boolean floating = layout.sampleFormat == NovaSARTiffLayout.SAMPLE_FORMAT_FLOAT;
+        switch (layout.bitsPerSample) {
+            case 8:
+                return signed ? S8 : U8;
+            case 16:
+                return signed ? S16 : U16;
+            case 32:
+                return floating ? F32 : signed ? S32 : U32;
+            default:
+                return F64;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import java.awt.Dimension;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes a single-image, uncompressed, striped or tiled (Big)TIFF file row by row, in a layout that
+ * {@link NovaSARTiffLayout} and {@link NovaSARTiffRasterReader} read directly.
+ * <p>
+ * The pixel data is streamed to the file as it comes, a row of tiles at a time when tiled; the image file directory
+ * is appended when the writer is closed. BigTIFF is used when the pixel data does not fit into a classic TIFF, or
+ * when asked for.
+ */
+class NovaSARTiffWriter implements Closeable {
+
+    private static final long DATA_START = 16;
+    private static final long CLASSIC_TIFF_LIMIT = 0xFFFFFFFFL - (1L << 20);
+
+    private final FileChannel channel;
+    private final ByteOrder order;
+    private final int width;
+    private final int height;
+    private final int samplesPerPixel;
+    private final int bitsPerSample;
+    private final int sampleFormat;
+    private final int rowsPerStrip;
+    private final long rowBytes;
+    private final boolean bigTiff;
+    // the tile size, or null if striped
+    private final Dimension tileSize;
+    // the rows of the current row of tiles, and one tile of it, if tiled
+    private final ByteBuffer tileRows;
+    private final ByteBuffer tile;
+    private long position = DATA_START;
+    private int rowsWritten = 0;
+
+    NovaSARTiffWriter(final File file, final int width, final int height, final int samplesPerPixel,
+                      final int bitsPerSample, final int sampleFormat, final int rowsPerStrip,
+                      final ByteOrder order) throws IOException {
+        this(file, width, height, samplesPerPixel, bitsPerSample, sampleFormat, rowsPerStrip, null, false, order);
+    }
+
+    /**
+     * @param tileSize the size of the tiles, or null to write strips of {@code rowsPerStrip} rows
+     * @param bigTiff  true to write a BigTIFF even if the pixel data fits into a classic TIFF
+     */
+    NovaSARTiffWriter(final File file, final int width, final int height, final int samplesPerPixel,
+                      final int bitsPerSample, final int sampleFormat, final int rowsPerStrip,
+                      final Dimension tileSize, final boolean bigTiff, final ByteOrder order) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.samplesPerPixel = samplesPerPixel;
+        this.bitsPerSample = bitsPerSample;
+        this.sampleFormat = sampleFormat;
+        this.rowsPerStrip = Math.max(1, Math.min(rowsPerStrip, height));
+        this.order = order;
+        this.rowBytes = (long) width * samplesPerPixel * (bitsPerSample / 8);
+        this.tileSize = tileSize != null ? new Dimension(tileSize) : null;
+        final long dataBytes;
+        if (tileSize != null) {
+            final long tileBytes = (long) tileSize.width * tileSize.height * samplesPerPixel * (bitsPerSample / 8);
+            dataBytes = getNumTiles() * tileBytes;
+            this.tileRows = ByteBuffer.allocate((int) (tileSize.height * rowBytes));
+            this.tile = ByteBuffer.allocate((int) tileBytes);
+        } else {
+            dataBytes = rowBytes * height;
+            this.tileRows = null;
+            this.tile = null;
+        }
+        this.bigTiff = bigTiff || DATA_START + dataBytes > CLASSIC_TIFF_LIMIT;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                        StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    long getRowBytes() {
+        return rowBytes;
+    }
+
+    /**
+     * Appends complete rows of pixel data, samples interleaved per pixel, in the byte order of this writer.
+     *
+     * @param rows the rows, from the buffer's position to its limit
+     * @throws IOException if the data cannot be written
+     */
+    void writeRows(final ByteBuffer rows) throws IOException {
+        final int numRows = (int) (rows.remaining() / rowBytes);
+        if (numRows * rowBytes != rows.remaining() || rowsWritten + numRows > height) {
+            throw new IOException("Row data does not match the image size");
+        }
+        if (tileSize == null) {
+            while (rows.hasRemaining()) {
+                position += channel.write(rows, position);
+            }
+        } else {
+            while (rows.hasRemaining()) {
+                final ByteBuffer part = rows.duplicate();
+                part.limit(part.position() + Math.min(part.remaining(), tileRows.remaining()));
+                tileRows.put(part);
+                rows.position(part.position());
+                if (!tileRows.hasRemaining()) {
+                    writeTileRow();
+                }
+            }
+        }
+        rowsWritten += numRows;
+        if (rowsWritten == height && tileRows != null && tileRows.position() > 0) {
+            writeTileRow();
+        }
+    }
+
+    /**
+     * Cuts the buffered rows into tiles and appends them, padding the tiles beyond the image with zeros.
+     */
+    private void writeTileRow() throws IOException {
+        final int numRows = (int) (tileRows.position() / rowBytes);
+        final int pixelBytes = samplesPerPixel * (bitsPerSample / 8);
+        final int tileRowBytes = tileSize.width * pixelBytes;
+        for (int x = 0; x < width; x += tileSize.width) {
+            final int length = Math.min(tileSize.width, width - x) * pixelBytes;
+            Arrays.fill(tile.array(), (byte) 0);
+            for (int r = 0; r < numRows; r++) {
+                System.arraycopy(tileRows.array(), (int) (r * rowBytes) + x * pixelBytes,
+                                 tile.array(), r * tileRowBytes, length);
+            }
+            tile.clear();
+            while (tile.hasRemaining()) {
+                position += channel.write(tile, position);
+            }
+        }
+        tileRows.clear();
+    }
+
+    private long getNumTiles() {
+        final long tilesAcross = (width + tileSize.width - 1) / tileSize.width;
+        final long tilesDown = (height + tileSize.height - 1) / tileSize.height;
+        return tilesAcross * tilesDown;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (rowsWritten == height) {
+                writeDirectory();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeDirectory() throws IOException {
+        final int numChunks = tileSize != null ? (int) getNumTiles() : (height + rowsPerStrip - 1) / rowsPerStrip;
+        final long[] offsets = new long[numChunks];
+        final long[] byteCounts = new long[numChunks];
+        for (int i = 0; i < numChunks; i++) {
+            if (tileSize != null) {
+                offsets[i] = DATA_START + (long) i * tile.capacity();
+                byteCounts[i] = tile.capacity();
+            } else {
+                final int rows = Math.min(rowsPerStrip, height - i * rowsPerStrip);
+                offsets[i] = DATA_START + (long) i * rowsPerStrip * rowBytes;
+                byteCounts[i] = rows * rowBytes;
+            }
+        }
+        final long[] bits = new long[samplesPerPixel];
+        final long[] formats = new long[samplesPerPixel];
+        Arrays.fill(bits, bitsPerSample);
+        Arrays.fill(formats, sampleFormat);
+
+        final List<Entry> entries = new ArrayList<>();
+        entries.add(new Entry(256, width));                         // ImageWidth
+        entries.add(new Entry(257, height));                        // ImageLength
+        entries.add(new Entry(258, 3, bits));                       // BitsPerSample
+        entries.add(new Entry(259, NovaSARTiffLayout.COMPRESSION_NONE));
+        entries.add(new Entry(262, 1));                             // PhotometricInterpretation: BlackIsZero
+        if (tileSize == null) {
+            entries.add(new Entry(273, bigTiff ? 16 : 4, offsets));          // StripOffsets
+        }
+        entries.add(new Entry(277, samplesPerPixel));
+        if (tileSize == null) {
+            entries.add(new Entry(278, rowsPerStrip));
+            entries.add(new Entry(279, bigTiff ? 16 : 4, byteCounts));       // StripByteCounts
+        }
+        entries.add(new Entry(284, NovaSARTiffLayout.PLANAR_CHUNKY));
+        if (tileSize != null) {
+            entries.add(new Entry(322, tileSize.width));
+            entries.add(new Entry(323, tileSize.height));
+            entries.add(new Entry(324, bigTiff ? 16 : 4, offsets));          // TileOffsets
+            entries.add(new Entry(325, bigTiff ? 16 : 4, byteCounts));       // TileByteCounts
+        }
+        if (samplesPerPixel > 1) {
+            entries.add(new Entry(338, 3, new long[samplesPerPixel - 1]));  // ExtraSamples: unspecified
+        }
+        entries.add(new Entry(339, 3, formats));                    // SampleFormat
+
+        final int countSize = bigTiff ? 8 : 2;
+        final int entrySize = bigTiff ? 20 : 12;
+        final int inlineSize = bigTiff ? 8 : 4;
+        final long ifdOffset = position + (position & 1);
+        long extraOffset = ifdOffset + countSize + (long) entries.size() * entrySize + inlineSize;
+
+        final ByteBuffer ifd = ByteBuffer.allocate((int) (extraOffset - ifdOffset)).order(order);
+        final List<ByteBuffer> extras = new ArrayList<>();
+        if (bigTiff) {
+            ifd.putLong(entries.size());
+        } else {
+            ifd.putShort((short) entries.size());
+        }
+        for (Entry entry : entries) {
+            final int size = entry.typeSize() * entry.values.length;
+            ifd.putShort((short) entry.tag);
+            ifd.putShort((short) entry.type);
+            if (bigTiff) {
+                ifd.putLong(entry.values.length);
+            } else {
+                ifd.putInt(entry.values.length);
+            }
+            final ByteBuffer value = ByteBuffer.allocate(Math.max(size, inlineSize)).order(order);
+            for (long v : entry.values) {
+                entry.put(value, v);
+            }
+            value.flip();
+            if (size <= inlineSize) {
+                value.limit(inlineSize);
+                ifd.put(value);
+            } else {
+                if (bigTiff) {
+                    ifd.putLong(extraOffset);
+                } else {
+                    ifd.putInt((int) extraOffset);
+                }
+                extras.add(value);
+                extraOffset += size;
+            }
+        }
+        if (bigTiff) {
+            ifd.putLong(0);
+        } else {
+            ifd.putInt(0);
+        }
+        ifd.flip();
+
+        long pos = ifdOffset;
+        while (ifd.hasRemaining()) {
+            pos += channel.write(ifd, pos);
+        }
+        for (ByteBuffer extra : extras) {
+            while (extra.hasRemaining()) {
+                pos += channel.write(extra, pos);
+            }
+        }
+
+        final ByteBuffer header = ByteBuffer.allocate((int) DATA_START).order(order);
+        header.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        header.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        if (bigTiff) {
+            header.putShort((short) 43).putShort((short) 8).putShort((short) 0).putLong(ifdOffset);
+        } else {
+            header.putShort((short) 42).putInt((int) ifdOffset);
+        }
+        header.clear();
+        pos = 0;
+        while (header.hasRemaining()) {
+            pos += channel.write(header, pos);
+        }
+    }
+
+    private static final class Entry {
+
+        final int tag;
+        final int type;
+        final long[] values;
+
+        Entry(final int tag, final long value) {
+            this(tag, value > 0xFFFF ? 4 : 3, new long[]{value});
+        }
+
+        Entry(final int tag, final int type, final long[] values) {
+            this.tag = tag;
+            this.type = type;
+            this.values = values;
+        }
+
+        int typeSize() {
+            return type == 3 ? 2 : type == 4 ? 4 : 8;
+        }
+
+        void put(final ByteBuffer buf, final long value) {
+            switch (typeSize()) {
+                case 2:
+                    buf.putShort((short) value);
+                    break;
+                case 4:
+                    buf.putInt((int) value);
+                    break;
+                default:
+                    buf.putLong(value);
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.util.SystemUtils;
+
+import java.awt.Dimension;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A process-wide, byte-budgeted cache of decoded NovaSAR raster tiles, shared by all open products.
+ * <p>
+ * Tiles are evicted in least-recently-used order once the decoded samples held exceed the budget, which is set in
+ * megabytes with the system property {@code snap.novasar.reader.cache.size}; a size of 0 disables the cache.
+ * The hit and miss counters can be used to size the budget for a workload.
+ */
+public final class NovaSARTileCache {
+
+    private static final long DEFAULT_SIZE_MB = Math.min(256, Runtime.getRuntime().maxMemory() / (8 * 1024 * 1024));
+
+    // per-entry overhead of the key, the entry and the array header, roughly
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private static final NovaSARTileCache instance = new NovaSARTileCache(Long.getLong(
+            SystemUtils.getApplicationContextId() + ".novasar.reader.cache.size", DEFAULT_SIZE_MB) * 1024 * 1024);
+
+    private final long maxBytes;
+    private final long maxTileBytes;
+    private final LinkedHashMap<Key, ProductData> tiles = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes = 0;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    NovaSARTileCache(final long maxBytes) {
+        this(maxBytes, maxBytes / 4);
+    }
+
+    private NovaSARTileCache(final long maxBytes, final long maxTileBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+        this.maxTileBytes = maxTileBytes;
+    }
+
+    /**
+     * Creates a cache holding the samples of a single decoded tile, so that the Q component of complex data decoded
+     * along with the I component is still at hand for the next request when the shared cache is disabled.
+     *
+     * @param tileSize   the size of the tiles
+     * @param numSamples the number of samples per pixel
+     * @return the cache, outside the budget of the shared one
+     */
+    static NovaSARTileCache createTileBuffer(final Dimension tileSize, final int numSamples) {
+        // the samples of NovaSAR images are decoded to 32-bit types
+        final long tileBytes = (long) tileSize.width * tileSize.height * Float.BYTES + ENTRY_OVERHEAD;
+        return new NovaSARTileCache(tileBytes * Math.max(1, numSamples), tileBytes);
+    }
+
+    /**
+     * @return the cache shared by all NovaSAR products
+     */
+    public static NovaSARTileCache getInstance() {
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int getTileCount() {
+        return tiles.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters, e.g. before measuring a workload.
+     */
+    public void resetStatistics() {
+        hitCount.set(0);
+        missCount.set(0);
+        evictionCount.set(0);
+    }
+
+    @Override
+    public String toString() {
+        final long hits = getHitCount();
+        final long total = hits + getMissCount();
+        return String.format("NovaSARTileCache[%d tiles, %d of %d MB, %d hits, %d misses (%.1f%% hit rate), %d evictions]",
+                             getTileCount(), getBytes() >> 20, maxBytes >> 20, hits, total - hits,
+                             total == 0 ? 0.0 : 100.0 * hits / total, getEvictionCount());
+    }
+
+    ProductData get(final Key key) {
+        final ProductData tile;
+        synchronized (this) {
+            tile = tiles.get(key);
+        }
+        (tile != null ? hitCount : missCount).incrementAndGet();
+        return tile;
+    }
+
+    /**
+     * @return true if a tile is cached, without counting a hit or miss
+     */
+    synchronized boolean contains(final Key key) {
+        return tiles.containsKey(key);
+    }
+
+    synchronized void put(final Key key, final ProductData tile) {
+        final long size = sizeOf(tile);
+        if (size > maxTileBytes) {
+            return;
+        }
+        final ProductData previous = tiles.put(key, tile);
+        bytes += size - (previous != null ? sizeOf(previous) : 0);
+        final Iterator<ProductData> eldest = tiles.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= sizeOf(eldest.next());
+            eldest.remove();
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drops all tiles of a raster source, when its product is closed.
+     */
+    synchronized void invalidate(final Object owner) {
+        final Iterator<Map.Entry<Key, ProductData>> it = tiles.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<Key, ProductData> entry = it.next();
+            if (entry.getKey().owner == owner) {
+                bytes -= sizeOf(entry.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    private static long sizeOf(final ProductData tile) {
+        return (long) tile.getNumElems() * tile.getElemSize() + ENTRY_OVERHEAD;
+    }
+
+    /**
+     * Identifies a tile: its raster source, the subsampling steps and phase of the tile grid, the tile position in
+     * that grid, the sample and the data type it was decoded to.
+     */
+    static final class Key {
+
+        final Object owner;
+        private final int stepX, stepY, phaseX, phaseY, tileX, tileY, sampleOffset, dataType;
+        private final int hash;
+
+        Key(final Object owner, final int stepX, final int stepY, final int phaseX, final int phaseY,
+            final int tileX, final int tileY, final int sampleOffset, final int dataType) {
+            this.owner = owner;
+            this.stepX = stepX;
+            this.stepY = stepY;
+            this.phaseX = phaseX;
+            this.phaseY = phaseY;
+            this.tileX = tileX;
+            this.tileY = tileY;
+            this.sampleOffset = sampleOffset;
+            this.dataType = dataType;
+            this.hash = Objects.hash(System.identityHashCode(owner), stepX, stepY, phaseX, phaseY,
+                                     tileX, tileY, sampleOffset, dataType);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return owner == key.owner && stepX == key.stepX && stepY == key.stepY &&
+                    phaseX == key.phaseX && phaseY == key.phaseY && tileX == key.tileX && tileY == key.tileY &&
+                    sampleOffset == key.sampleOffset && dataType == key.dataType;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
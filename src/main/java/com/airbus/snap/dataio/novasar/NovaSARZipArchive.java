@@ -0,0 +1,527 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.esa.snap.core.util.SystemUtils;
+
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Random access to the entries of a {@code NOVS*.zip} product, from its central directory.
+ * <p>
+ * A stored entry is a contiguous byte range of the zip file, so it is read in place with positional reads on the
+ * channel of the zip file, exactly like an unpacked file. A deflated entry is inflated once, sequentially, into the
+ * SNAP cache directory ({@code novasar-zip-cache}), keyed by the path, size and modification time of the zip file, and
+ * read from there by this and later sessions. Resuming {@link Inflater} mid-stream instead would need an index of
+ * block boundaries and their preceding 32 KB windows, and would inflate every span again on each read of it. The
+ * entry is only inflated on its first read, not when it is opened, and the least recently used entries are deleted
+ * once the cache exceeds the size set with the system property {@code snap.novasar.reader.zipCache.size} (in MB).
+ */
+class NovaSARZipArchive implements Closeable {
+
+    private static final boolean inflateToCache = Boolean.parseBoolean(System.getProperty(
+            SystemUtils.getApplicationContextId() + ".novasar.reader.zipCache", "true"));
+
+    private static final NovaSARDiskCache inflatedCache = new NovaSARDiskCache("novasar-zip-cache", Long.getLong(
+            SystemUtils.getApplicationContextId() + ".novasar.reader.zipCache.size", 10 * 1024L) * 1024 * 1024);
+
+    static final int METHOD_STORED = 0;
+    static final int METHOD_DEFLATED = 8;
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_EOCD_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int CEN_SIGNATURE = 0x02014b50;
+    private static final int LOC_SIGNATURE = 0x04034b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int MAX_COMMENT = 0xFFFF;
+    private static final int INFLATE_CHUNK = 1024 * 1024;
+
+    /**
+     * The largest offset of the image file directory of a deflated TIFF up to which its header is inflated into
+     * memory rather than into the cache.
+     */
+    static final long MAX_INFLATED_HEADER = 1024 * 1024;
+
+    private final File file;
+    private final NovaSARFileHandles.Handle handle;
+    private final Map<String, Entry> entries;
+    private final List<NovaSARFileHandles.Handle> rangeHandles = new ArrayList<>();
+    private final List<File> cacheDirs = new ArrayList<>();
+
+    private NovaSARZipArchive(final File file, final NovaSARFileHandles.Handle handle,
+                              final Map<String, Entry> entries) {
+        this.file = file;
+        this.handle = handle;
+        this.entries = entries;
+    }
+
+    /**
+     * Opens a zip file and reads its central directory. Nothing but the end of the file is read. The file is read
+     * through the {@link NovaSARFileHandles} budget, so an archive that is not being read holds no open file.
+     *
+     * @param file the zip file
+     * @return the archive, to be closed by the caller
+     * @throws IOException if the file cannot be read or is not a zip file
+     */
+    static NovaSARZipArchive open(final File file) throws IOException {
+        final NovaSARFileHandles.Handle handle = NovaSARFileHandles.getInstance().open(file.toPath());
+        try {
+            final Map<String, Entry> entries = handle.read(NovaSARZipArchive::readCentralDirectory);
+            return new NovaSARZipArchive(file, handle, entries);
+        } catch (IOException | RuntimeException e) {
+            handle.close();
+            throw e;
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the entries, in the order of the central directory
+     */
+    Iterable<Entry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * Finds an entry by its path in the archive or, failing that, by the file name the path ends with.
+     *
+     * @param path the path of the entry, e.g. {@code NOVS_.../image_HH.tif}
+     * @return the entry, or null if the archive has none of this name
+     */
+    Entry find(final String path) {
+        final String name = path.replace('\\', '/');
+        final Entry entry = entries.get(name);
+        if (entry != null) {
+            return entry;
+        }
+        final String fileName = name.substring(name.lastIndexOf('/') + 1);
+        for (Entry candidate : entries.values()) {
+            if (candidate.getFileName().equals(fileName)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Opens an entry for positional reads. Each range has a handle of its own, so that its reader can close it
+     * independently; all of them are closed with the archive. A deflated entry is inflated into the cache by the
+     * first read of its range, which may take long; see {@link Range#inflated}.
+     *
+     * @param entry an entry of this archive
+     * @return the bytes of the entry, or null if the entry is compressed in a way that needs sequential reading
+     * @throws IOException if the entry cannot be read
+     */
+    synchronized Range openRange(final Entry entry) throws IOException {
+        final String id = getEntryId(entry);
+        if (entry.method == METHOD_STORED) {
+            return new Range(file, openHandle(file, null), getDataOffset(entry), entry.size, id, false);
+        }
+        if (entry.method != METHOD_DEFLATED || !inflateToCache) {
+            return null;
+        }
+        final File dir = inflatedCache.pin(NovaSAROverviewPyramid.getCacheKey(id));
+        cacheDirs.add(dir);
+        final File cacheFile = new File(dir, entry.getFileName());
+        return new Range(cacheFile, openHandle(cacheFile, () -> inflate(entry, cacheFile)), 0, entry.size, id, true);
+    }
+
+    private NovaSARFileHandles.Handle openHandle(final File rangeFile,
+                                                 final NovaSARFileHandles.Preparation preparation) {
+        final NovaSARFileHandles.Handle rangeHandle = preparation != null ?
+                NovaSARFileHandles.getInstance().open(rangeFile.toPath(), preparation) :
+                NovaSARFileHandles.getInstance().open(rangeFile.toPath());
+        rangeHandles.add(rangeHandle);
+        return rangeHandle;
+    }
+
+    /**
+     * Closes the channel of the zip file if it is idle, e.g. once the entries of a product have been located. Ranges
+     * and streams reopen it on demand.
+     */
+    void suspend() {
+        handle.suspend();
+    }
+
+    /**
+     * Opens a stream on the content of an entry, inflating it if deflated. The stream reads through the handle of
+     * the archive and must be closed before the archive.
+     *
+     * @param entry an entry of this archive
+     * @return the stream
+     * @throws IOException if the entry cannot be read or uses an unsupported compression method
+     */
+    InputStream openInputStream(final Entry entry) throws IOException {
+        final InputStream in = new RangeInputStream(handle, getDataOffset(entry), entry.compressedSize);
+        if (entry.method == METHOD_STORED) {
+            return in;
+        }
+        if (entry.method != METHOD_DEFLATED) {
+            throw new IOException("Unsupported compression method " + entry.method + " of " + entry.name);
+        }
+        final Inflater inflater = new Inflater(true);
+        return new InflaterInputStream(in, inflater) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inflater.end();
+            }
+        };
+    }
+
+    /**
+     * Opens a seekable stream on an entry for a TIFF decoder. A deflated entry is inflated only as far as the furthest
+     * position read, into memory, so this is meant for reading the header of a TIFF whose image file directory is
+     * near its start; see {@link #readTiffDirectoryOffset(Entry)}. The stream must be closed before the archive.
+     *
+     * @param entry an entry of this archive
+     * @return the stream
+     * @throws IOException if the entry cannot be read or uses an unsupported compression method
+     */
+    ImageInputStream openImageInputStream(final Entry entry) throws IOException {
+        final InputStream in = openInputStream(entry);
+        return new MemoryCacheImageInputStream(in) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    in.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Reads the offset of the first image file directory of a TIFF entry from the first bytes of the entry,
+     * inflating no more of it. Reading the header of a deflated TIFF inflates the entry up to this offset.
+     *
+     * @param entry an entry of this archive
+     * @return the offset, from the start of the entry
+     * @throws IOException if the entry is not a classic or BigTIFF file or cannot be read
+     */
+    long readTiffDirectoryOffset(final Entry entry) throws IOException {
+        final byte[] bytes = new byte[16];
+        final int n;
+        try (InputStream in = openInputStream(entry)) {
+            n = in.readNBytes(bytes, 0, bytes.length);
+        }
+        final ByteBuffer header = ByteBuffer.wrap(bytes, 0, n);
+        if (n >= 8 && bytes[0] == 'I' && bytes[1] == 'I') {
+            header.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (n >= 8 && bytes[0] == 'M' && bytes[1] == 'M') {
+            header.order(ByteOrder.BIG_ENDIAN);
+        } else {
+            throw new IOException(entry.name + " in " + file + " is not a TIFF file");
+        }
+        final int version = header.getShort(2);
+        if (version == 42) {
+            return header.getInt(4) & 0xFFFFFFFFL;
+        }
+        if (version == 43 && n == 16) {
+            return header.getLong(8);
+        }
+        throw new IOException(entry.name + " in " + file + " is not a TIFF file");
+    }
+
+    /**
+     * @return an identifier of the content of an entry, changing when the zip file changes
+     */
+    private String getEntryId(final Entry entry) {
+        return file.getAbsolutePath() + '|' + file.length() + '|' + file.lastModified() + '|' + entry.name;
+    }
+
+    private long getDataOffset(final Entry entry) throws IOException {
+        final ByteBuffer loc = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN);
+        handle.readFully(loc, entry.localHeaderOffset);
+        if (loc.getInt(0) != LOC_SIGNATURE) {
+            throw new IOException("Invalid local header of " + entry.name + " in " + file);
+        }
+        return entry.localHeaderOffset + 30 + (loc.getShort(26) & 0xFFFF) + (loc.getShort(28) & 0xFFFF);
+    }
+
+    /**
+     * Inflates an entry into its cache file, unless a previous read or session has done so already.
+     */
+    private void inflate(final Entry entry, final File cacheFile) throws IOException {
+        if (cacheFile.length() == entry.size) {
+            return;
+        }
+        SystemUtils.LOG.info("Inflating " + entry.name + " of " + file.getName() + " for random access");
+        final File dir = cacheFile.getParentFile();
+        Files.createDirectories(dir.toPath());
+        final File tmpFile = Files.createTempFile(dir.toPath(), cacheFile.getName(), ".part").toFile();
+        final Inflater inflater = new Inflater(true);
+        try {
+            try (OutputStream os = Files.newOutputStream(tmpFile.toPath())) {
+                final ByteBuffer in = ByteBuffer.allocate(INFLATE_CHUNK);
+                final byte[] out = new byte[INFLATE_CHUNK];
+                long position = getDataOffset(entry);
+                final long end = position + entry.compressedSize;
+                while (!inflater.finished()) {
+                    if (inflater.needsInput()) {
+                        if (position >= end) {
+                            throw new IOException("Unexpected end of " + entry.name + " in " + file);
+                        }
+                        in.clear();
+                        in.limit((int) Math.min(in.capacity(), end - position));
+                        handle.readFully(in, position);
+                        position += in.limit();
+                        inflater.setInput(in.array(), 0, in.limit());
+                    }
+                    final int n = inflater.inflate(out);
+                    os.write(out, 0, n);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Unable to inflate " + entry.name + " in " + file + ": " + e.getMessage(), e);
+            }
+            if (tmpFile.length() != entry.size) {
+                throw new IOException("Inflated size of " + entry.name + " in " + file + " does not match");
+            }
+            Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            inflater.end();
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+        inflatedCache.trim();
+    }
+
+    @Override
+    public synchronized void close() {
+        for (NovaSARFileHandles.Handle rangeHandle : rangeHandles) {
+            rangeHandle.close();
+        }
+        rangeHandles.clear();
+        for (File dir : cacheDirs) {
+            inflatedCache.unpin(dir);
+        }
+        cacheDirs.clear();
+        handle.close();
+    }
+
+    /**
+     * Reads the central directory of a zip file, from the end of central directory record, or the zip64 one for
+     * archives above 4 GB or 65535 entries.
+     *
+     * @param channel the channel of the zip file
+     * @return the entries by path, in the order of the central directory
+     * @throws IOException if the file is not a zip file
+     */
+    static Map<String, Entry> readCentralDirectory(final FileChannel channel) throws IOException {
+        final long fileSize = channel.size();
+        if (fileSize < EOCD_SIZE) {
+            throw new IOException("Not a zip file");
+        }
+        final int tailSize = (int) Math.min(fileSize, EOCD_SIZE + MAX_COMMENT);
+        final ByteBuffer tail = NovaSARTiffLayout.read(channel, fileSize - tailSize, tailSize, ByteOrder.LITTLE_ENDIAN);
+        int eocd = -1;
+        for (int pos = tailSize - EOCD_SIZE; pos >= 0; pos--) {
+            if (tail.getInt(pos) == EOCD_SIGNATURE) {
+                eocd = pos;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw new IOException("Not a zip file");
+        }
+        long numEntries = tail.getShort(eocd + 10) & 0xFFFF;
+        long cenSize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+        long cenOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+
+        final long eocdPosition = fileSize - tailSize + eocd;
+        if (eocdPosition >= 20 && (numEntries == 0xFFFF || cenSize == 0xFFFFFFFFL || cenOffset == 0xFFFFFFFFL)) {
+            final ByteBuffer locator = NovaSARTiffLayout.read(channel, eocdPosition - 20, 20, ByteOrder.LITTLE_ENDIAN);
+            if (locator.getInt(0) == ZIP64_EOCD_LOCATOR_SIGNATURE) {
+                final ByteBuffer eocd64 = NovaSARTiffLayout.read(channel, locator.getLong(8), 56, ByteOrder.LITTLE_ENDIAN);
+                if (eocd64.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+                    throw new IOException("Invalid zip64 end of central directory");
+                }
+                numEntries = eocd64.getLong(32);
+                cenSize = eocd64.getLong(40);
+                cenOffset = eocd64.getLong(48);
+            }
+        }
+        if (cenSize > Integer.MAX_VALUE || cenOffset + cenSize > fileSize) {
+            throw new IOException("Invalid zip central directory");
+        }
+
+        final ByteBuffer cen = NovaSARTiffLayout.read(channel, cenOffset, (int) cenSize, ByteOrder.LITTLE_ENDIAN);
+        final Map<String, Entry> entries = new LinkedHashMap<>((int) Math.min(numEntries * 2, 1024));
+        int pos = 0;
+        for (long i = 0; i < numEntries; i++) {
+            if (pos + 46 > cen.limit() || cen.getInt(pos) != CEN_SIGNATURE) {
+                throw new IOException("Invalid zip central directory");
+            }
+            final int method = cen.getShort(pos + 10) & 0xFFFF;
+            long compressedSize = cen.getInt(pos + 20) & 0xFFFFFFFFL;
+            long size = cen.getInt(pos + 24) & 0xFFFFFFFFL;
+            final int nameLength = cen.getShort(pos + 28) & 0xFFFF;
+            final int extraLength = cen.getShort(pos + 30) & 0xFFFF;
+            final int commentLength = cen.getShort(pos + 32) & 0xFFFF;
+            long localHeaderOffset = cen.getInt(pos + 42) & 0xFFFFFFFFL;
+
+            final byte[] nameBytes = new byte[nameLength];
+            for (int k = 0; k < nameLength; k++) {
+                nameBytes[k] = cen.get(pos + 46 + k);
+            }
+            final String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+            // zip64 extended information: only the fields saturated in the record above are present, in this order
+            int extra = pos + 46 + nameLength;
+            final int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                final int id = cen.getShort(extra) & 0xFFFF;
+                final int length = cen.getShort(extra + 2) & 0xFFFF;
+                if (id == 0x0001) {
+                    int field = extra + 4;
+                    if (size == 0xFFFFFFFFL) {
+                        size = cen.getLong(field);
+                        field += 8;
+                    }
+                    if (compressedSize == 0xFFFFFFFFL) {
+                        compressedSize = cen.getLong(field);
+                        field += 8;
+                    }
+                    if (localHeaderOffset == 0xFFFFFFFFL) {
+                        localHeaderOffset = cen.getLong(field);
+                    }
+                }
+                extra += 4 + length;
+            }
+
+            if (!name.endsWith("/")) {
+                entries.put(name, new Entry(name, method, compressedSize, size, localHeaderOffset));
+            }
+            pos += 46 + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    /**
+     * A file in the archive, as listed in the central directory.
+     */
+    static final class Entry {
+
+        final String name;
+        final int method;
+        final long compressedSize;
+        final long size;
+        final long localHeaderOffset;
+
+        Entry(final String name, final int method, final long compressedSize, final long size,
+              final long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        String getFileName() {
+            return name.substring(name.lastIndexOf('/') + 1);
+        }
+    }
+
+    /**
+     * Reads a byte range of a file with positional reads.
+     */
+    private static final class RangeInputStream extends InputStream {
+
+        private final NovaSARFileHandles.Handle handle;
+        private long position;
+        private final long end;
+
+        RangeInputStream(final NovaSARFileHandles.Handle handle, final long start, final long length) {
+            this.handle = handle;
+            this.position = start;
+            this.end = start + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            final ByteBuffer buf = ByteBuffer.wrap(b, off, (int) Math.min(len, end - position));
+            final int n = handle.read(channel -> {
+                buf.position(off);
+                return channel.read(buf, position);
+            });
+            if (n < 0) {
+                throw new EOFException("Unexpected end of zip file");
+            }
+            position += n;
+            return n;
+        }
+    }
+
+    /**
+     * The bytes of an entry: a range of the zip file or of its inflated copy, read through a handle owned by the
+     * archive.
+     */
+    static final class Range {
+
+        final File file;
+        final NovaSARFileHandles.Handle handle;
+        final long offset;
+        final long size;
+        final String id;
+        // whether the range is read from an inflated copy, made by the first read through the handle
+        final boolean inflated;
+
+        Range(final File file, final NovaSARFileHandles.Handle handle, final long offset, final long size,
+              final String id, final boolean inflated) {
+            this.file = file;
+            this.handle = handle;
+            this.offset = offset;
+            this.size = size;
+            this.id = id;
+            this.inflated = inflated;
+        }
+    }
+}
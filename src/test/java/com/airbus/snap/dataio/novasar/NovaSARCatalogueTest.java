@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the JSON lines of {@link NovaSARCatalogue.Record}.
+ */
+public class NovaSARCatalogueTest {
+
+    @Test
+    public void testJsonRoundTrip() throws IOException {
+        final NovaSARCatalogue.Record record = createRecord("/data/a \"b\"\\c\td/NOVS_1.zip", new double[]{
+                51.25, -1.5, 51.5, -0.25, 50.125, -1.75, 50.375, -0.5});
+        final String json = record.toJson();
+        assertFalse(json.contains("\n"));
+        assertRecordEquals(record, NovaSARCatalogue.Record.fromJson(json));
+    }
+
+    @Test
+    public void testNonFiniteCorners() throws IOException {
+        final NovaSARCatalogue.Record record = createRecord("/data/NOVS_2.zip", new double[]{
+                Double.NaN, 10, 20, Double.POSITIVE_INFINITY, 30, Double.NEGATIVE_INFINITY, 40, 50});
+        final String json = record.toJson();
+        assertTrue(json, json.contains("\"firstNearLat\":null"));
+        assertTrue(json, json.contains("\"firstFarLon\":null"));
+        assertTrue(json, json.contains("\"lastNearLon\":null"));
+        assertFalse(json, json.contains("NaN") || json.contains("Infinity"));
+
+        final NovaSARCatalogue.Record read = NovaSARCatalogue.Record.fromJson(json);
+        assertArrayEquals(new double[]{Double.NaN, 10, 20, Double.NaN, 30, Double.NaN, 40, 50}, read.getCorners(),
+                          0.0);
+    }
+
+    @Test
+    public void testNotARecord() {
+        final String json = createRecord("/data/NOVS_3.zip", new double[8]).toJson();
+        assertNotARecord("");
+        assertNotARecord("[]");
+        assertNotARecord(json.substring(0, json.length() - 1));
+        assertNotARecord(json.replace("\"lastFarLon\":0.0", "\"lastFarLon\":nul"));
+        // a missing corner is not read as NaN
+        assertNotARecord(json.replace(",\"lastFarLon\":0.0", ""));
+    }
+
+    private static void assertNotARecord(final String json) {
+        try {
+            NovaSARCatalogue.Record.fromJson(json);
+            fail("read a record from " + json);
+        } catch (IOException expected) {
+        }
+    }
+
+    private static NovaSARCatalogue.Record createRecord(final String path, final double[] corners) {
+        return new NovaSARCatalogue.Record(path, 123456789L, 1500000000000L, "NovaSAR_01_1234_slc_11_190101_000000",
+                                           "SLC", "Stripmap", "DESCENDING", new String[]{"HH", "VV"},
+                                           "2019-01-01T00:00:00.123456Z", "2019-01-01T00:00:30.654321Z", corners);
+    }
+
+    private static void assertRecordEquals(final NovaSARCatalogue.Record expected,
+                                           final NovaSARCatalogue.Record actual) {
+        assertEquals(expected.path, actual.path);
+        assertEquals(expected.size, actual.size);
+        assertEquals(expected.lastModified, actual.lastModified);
+        assertEquals(expected.product, actual.product);
+        assertEquals(expected.productType, actual.productType);
+        assertEquals(expected.acquisitionMode, actual.acquisitionMode);
+        assertEquals(expected.pass, actual.pass);
+        assertArrayEquals(expected.polarisations, actual.polarisations);
+        assertEquals(expected.firstLineTime, actual.firstLineTime);
+        assertEquals(expected.lastLineTime, actual.lastLineTime);
+        assertArrayEquals(expected.getCorners(), actual.getCorners(), 0.0);
+    }
+}
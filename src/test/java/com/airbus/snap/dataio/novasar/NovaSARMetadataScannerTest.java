@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.esa.snap.core.datamodel.MetadataAttribute;
+import org.esa.snap.core.datamodel.MetadataElement;
+import org.esa.snap.core.dataop.downloadable.XMLSupport;
+import org.esa.snap.engine_utilities.datamodel.metadata.AbstractMetadataIO;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Checks the tree read by {@link NovaSARMetadataScanner} against the one SNAP builds with
+ * {@link AbstractMetadataIO#AddXMLMetadata} from the same {@code metadata.xml}, with the tie point elements left out
+ * of both, and the tie point coordinates against those elements.
+ */
+public class NovaSARMetadataScannerTest {
+
+    private static final int RANGE_TIE_POINTS = 7;
+    private static final int AZIMUTH_TIE_POINTS = 5;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testSameTreeAsSnap() throws IOException {
+        for (String productType : new String[]{"GRD", "SLC"}) {
+            // padded with processing steps, which have XML attributes
+            final File metadataFile = new NovaSARProductGenerator()
+                    .productType(productType).polarisations("HH", "VV").size(64, 48)
+                    .tiePoints(RANGE_TIE_POINTS, AZIMUTH_TIE_POINTS).metadataSize(64 * 1024)
+                    .writeProduct(tmp.newFolder());
+
+            final Document xmlDoc;
+            try (InputStream is = new FileInputStream(metadataFile)) {
+                xmlDoc = XMLSupport.LoadXML(is);
+            }
+            final Element geographicInformation = xmlDoc.getRootElement().getChild("geographicInformation");
+            final List<Element> tiePoints = geographicInformation.getChildren("TiePoint");
+            assertEquals(RANGE_TIE_POINTS * AZIMUTH_TIE_POINTS, tiePoints.size());
+
+            final NovaSARMetadataScanner scan = NovaSARMetadataScanner.scan(new FileInputStream(metadataFile));
+            assertEquals(tiePoints.size(), scan.getNumTiePoints());
+            final float[] latitudes = scan.getTiePointLatitudes();
+            final float[] longitudes = scan.getTiePointLongitudes();
+            for (int i = 0; i < tiePoints.size(); i++) {
+                assertEquals((float) Double.parseDouble(tiePoints.get(i).getChildText("latitude")), latitudes[i],
+                             0.0f);
+                assertEquals((float) Double.parseDouble(tiePoints.get(i).getChildText("longitude")), longitudes[i],
+                             0.0f);
+            }
+
+            geographicInformation.removeChildren("TiePoint");
+            final MetadataElement expected = new MetadataElement("expected");
+            AbstractMetadataIO.AddXMLMetadata(xmlDoc.getRootElement(), expected);
+            assertNotNull(expected.getElement("metadata"));
+            assertSameElement("", expected.getElement("metadata"), scan.getMetadata());
+        }
+    }
+
+    private static void assertSameElement(final String parentPath, final MetadataElement expected,
+                                          final MetadataElement actual) {
+        final String path = parentPath + "/" + expected.getName();
+        assertEquals(path, expected.getName(), actual.getName());
+
+        assertEquals(path + " attributes", expected.getNumAttributes(), actual.getNumAttributes());
+        for (int i = 0; i < expected.getNumAttributes(); i++) {
+            final MetadataAttribute expectedAttribute = expected.getAttributeAt(i);
+            final MetadataAttribute actualAttribute = actual.getAttributeAt(i);
+            final String attributePath = path + "@" + expectedAttribute.getName();
+            assertEquals(attributePath, expectedAttribute.getName(), actualAttribute.getName());
+            assertEquals(attributePath, expectedAttribute.getDataType(), actualAttribute.getDataType());
+            assertEquals(attributePath, expectedAttribute.getData().getElemString(),
+                         actualAttribute.getData().getElemString());
+        }
+
+        assertEquals(path + " elements", expected.getNumElements(), actual.getNumElements());
+        for (int i = 0; i < expected.getNumElements(); i++) {
+            assertSameElement(path, expected.getElementAt(i), actual.getElementAt(i));
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.engine_utilities.datamodel.OrbitStateVector;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks {@link NovaSAROrbit} on state vectors of a circular orbit climbing along z.
+ */
+public class NovaSAROrbitTest {
+
+    private static final double SECONDS_PER_DAY = 86400.0;
+    private static final double MJD0 = 7000.25;
+    private static final double RADIUS = 7.0e6;
+    private static final double OMEGA = 2 * Math.PI / 5800;
+    private static final double CLIMB_RATE = 1000;
+    private static final int NUM_VECTORS = 12;
+    private static final double INTERVAL = 10;
+
+    @Test
+    public void testNodes() {
+        final OrbitStateVector[] stateVectors = createStateVectors();
+        final NovaSAROrbit orbit = NovaSAROrbit.create(stateVectors);
+        assertNotNull(orbit);
+        assertEquals(stateVectors[0].time_mjd, orbit.getStartTime(), 0.0);
+        assertEquals(stateVectors[NUM_VECTORS - 1].time_mjd, orbit.getEndTime(), 1e-12);
+
+        final double[] position = new double[3];
+        final double[] velocity = new double[3];
+        for (OrbitStateVector v : stateVectors) {
+            orbit.getPositionVelocity(v.time_mjd, position, velocity);
+            assertArrayEquals(new double[]{v.x_pos, v.y_pos, v.z_pos}, position, 1e-6);
+            assertArrayEquals(new double[]{v.x_vel, v.y_vel, v.z_vel}, velocity, 1e-6);
+        }
+    }
+
+    @Test
+    public void testBetweenNodes() {
+        final NovaSAROrbit orbit = NovaSAROrbit.create(createStateVectors());
+        assertNotNull(orbit);
+        final double[] position = new double[3];
+        final double[] velocity = new double[3];
+        final double[] expectedPosition = new double[3];
+        final double[] expectedVelocity = new double[3];
+        for (double t = 0; t <= (NUM_VECTORS - 1) * INTERVAL; t += 0.37) {
+            orbit.getPositionVelocity(MJD0 + t / SECONDS_PER_DAY, position, velocity);
+            getState(t, expectedPosition, expectedVelocity);
+            assertArrayEquals("at " + t + " s", expectedPosition, position, 0.01);
+            assertArrayEquals("at " + t + " s", expectedVelocity, velocity, 0.001);
+        }
+    }
+
+    @Test
+    public void testVelocityIsDerivativeOfPosition() {
+        final NovaSAROrbit orbit = NovaSAROrbit.create(createStateVectors());
+        assertNotNull(orbit);
+        final double dt = 0.1;
+        final double[] before = new double[3];
+        final double[] after = new double[3];
+        final double[] velocity = new double[3];
+        final double[] derivative = new double[3];
+        final Random random = new Random(1);
+        for (int k = 0; k < 1000; k++) {
+            // across the state vectors and extrapolated a few intervals beyond them
+            final double t = (random.nextDouble() * (NUM_VECTORS + 5) - 2.5) * INTERVAL;
+            orbit.getPosition(MJD0 + (t - dt) / SECONDS_PER_DAY, before);
+            orbit.getPosition(MJD0 + (t + dt) / SECONDS_PER_DAY, after);
+            orbit.getVelocity(MJD0 + t / SECONDS_PER_DAY, velocity);
+            for (int axis = 0; axis < 3; axis++) {
+                derivative[axis] = (after[axis] - before[axis]) / (2 * dt);
+            }
+            assertArrayEquals("at " + t + " s", derivative, velocity, 0.05);
+        }
+    }
+
+    @Test
+    public void testUnsortedAndDuplicateStateVectors() {
+        final OrbitStateVector[] stateVectors = createStateVectors();
+        final NovaSAROrbit expected = NovaSAROrbit.create(stateVectors);
+
+        final List<OrbitStateVector> shuffled = new ArrayList<>();
+        Collections.addAll(shuffled, stateVectors);
+        Collections.shuffle(shuffled, new Random(2));
+        // repeated vectors, and vectors at the time of an earlier one, which are ignored
+        shuffled.add(stateVectors[3]);
+        shuffled.add(createStateVector(0, 1000));
+        shuffled.add(createStateVector(5 * INTERVAL, -1000));
+        final NovaSAROrbit orbit = NovaSAROrbit.create(shuffled.toArray(new OrbitStateVector[0]));
+        assertNotNull(orbit);
+        assertEquals(expected.getStartTime(), orbit.getStartTime(), 0.0);
+        assertEquals(expected.getEndTime(), orbit.getEndTime(), 0.0);
+
+        final double[] expectedPosition = new double[3];
+        final double[] expectedVelocity = new double[3];
+        final double[] position = new double[3];
+        final double[] velocity = new double[3];
+        for (double t = -INTERVAL; t <= NUM_VECTORS * INTERVAL; t += 0.73) {
+            final double mjd = MJD0 + t / SECONDS_PER_DAY;
+            expected.getPositionVelocity(mjd, expectedPosition, expectedVelocity);
+            orbit.getPositionVelocity(mjd, position, velocity);
+            assertArrayEquals(expectedPosition, position, 0.0);
+            assertArrayEquals(expectedVelocity, velocity, 0.0);
+        }
+    }
+
+    @Test
+    public void testTooFewStateVectors() {
+        assertNull(NovaSAROrbit.create((OrbitStateVector[]) null));
+        assertNull(NovaSAROrbit.create(new OrbitStateVector[0]));
+        assertNull(NovaSAROrbit.create(new OrbitStateVector[]{createStateVector(0, 0)}));
+        assertNull(NovaSAROrbit.create(new OrbitStateVector[]{createStateVector(0, 0), createStateVector(0, 100)}));
+        assertNotNull(NovaSAROrbit.create(new OrbitStateVector[]{createStateVector(INTERVAL, 0),
+                createStateVector(0, 0)}));
+    }
+
+    private static OrbitStateVector[] createStateVectors() {
+        final OrbitStateVector[] stateVectors = new OrbitStateVector[NUM_VECTORS];
+        for (int i = 0; i < NUM_VECTORS; i++) {
+            stateVectors[i] = createStateVector(i * INTERVAL, 0);
+        }
+        return stateVectors;
+    }
+
+    /**
+     * @param t      seconds since the first state vector
+     * @param offset an offset added to the position, in m
+     */
+    private static OrbitStateVector createStateVector(final double t, final double offset) {
+        final double[] position = new double[3];
+        final double[] velocity = new double[3];
+        getState(t, position, velocity);
+        return new OrbitStateVector(new ProductData.UTC(MJD0 + t / SECONDS_PER_DAY),
+                                    position[0] + offset, position[1] + offset, position[2] + offset,
+                                    velocity[0], velocity[1], velocity[2]);
+    }
+
+    private static void getState(final double t, final double[] position, final double[] velocity) {
+        position[0] = RADIUS * Math.cos(OMEGA * t);
+        position[1] = RADIUS * Math.sin(OMEGA * t);
+        position[2] = CLIMB_RATE * t;
+        velocity[0] = -RADIUS * OMEGA * Math.sin(OMEGA * t);
+        velocity[1] = RADIUS * OMEGA * Math.cos(OMEGA * t);
+        velocity[2] = CLIMB_RATE;
+    }
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.esa.snap.core.util.io.FileUtils;
+
+import java.awt.Dimension;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes synthetic NovaSAR products, laid out the way {@link NovaSARProductDirectory} expects them, for tests,
+ * benchmarks and scale tests.
+ * <p>
+ * A product consists of a {@code metadata.xml} with a tie point grid and orbit state vectors, one GeoTIFF per
+ * polarisation, a {@code QL_image_<pol>.tif} quicklook per polarisation and the {@code lutSigma/lutGamma/lutBeta}
+ * calibration tables. Detected products have UINT16 amplitude rasters, SLC products INT16 I/Q rasters and compact-pol
+ * products ({@code RH}, {@code RV}) FLOAT32 rasters. The pixel values are a deterministic pattern, so that reads can be
+ * checked. Rasters are striped or tiled, and are streamed to disk and written as BigTIFF when larger than 4 GB, so
+ * scenes of any size can be generated with a small heap.
+ * <p>
+ * Products are written as a folder or as a {@code NOVS*.zip} holding the product folder, with stored or deflated
+ * entries.
+ */
+final class NovaSARProductGenerator {
+
+    private static final long FIRST_LINE_TIME = 1551694830000L;   // 2019-03-04 10:20:30 UTC
+    private static final double LINE_TIME_INTERVAL = 0.0005;
+    private static final int CHUNK_BYTES = 8 * 1024 * 1024;
+    private static final int QUICKLOOK_SIZE = 1024;
+
+    private String productType = "GRD";
+    private String[] polarisations = {"HH"};
+    private int width = 1024;
+    private int height = 1024;
+    private int rangeTiePoints = 11;
+    private int azimuthTiePoints = 11;
+    private int numStateVectors = 5;
+    private int rowsPerStrip = 16;
+    private Dimension tileSize = null;
+    private boolean bigTiff = false;
+    private long metadataSize = 0;
+
+    /**
+     * @param productType {@code GRD}, {@code SCD} or {@code SLC}
+     */
+    NovaSARProductGenerator productType(final String productType) {
+        this.productType = productType.toUpperCase(Locale.ENGLISH);
+        return this;
+    }
+
+    /**
+     * @param polarisations any of {@code HH}, {@code HV}, {@code VH}, {@code VV}, or {@code RH} and {@code RV} for
+     *                      compact-pol products
+     */
+    NovaSARProductGenerator polarisations(final String... polarisations) {
+        this.polarisations = polarisations.clone();
+        return this;
+    }
+
+    NovaSARProductGenerator size(final int width, final int height) {
+        this.width = width;
+        this.height = height;
+        return this;
+    }
+
+    NovaSARProductGenerator tiePoints(final int rangeTiePoints, final int azimuthTiePoints) {
+        this.rangeTiePoints = Math.max(2, rangeTiePoints);
+        this.azimuthTiePoints = Math.max(2, azimuthTiePoints);
+        return this;
+    }
+
+    NovaSARProductGenerator stateVectors(final int numStateVectors) {
+        this.numStateVectors = Math.max(2, numStateVectors);
+        return this;
+    }
+
+    NovaSARProductGenerator rowsPerStrip(final int rowsPerStrip) {
+        this.rowsPerStrip = rowsPerStrip;
+        this.tileSize = null;
+        return this;
+    }
+
+    /**
+     * Writes tiled instead of striped rasters.
+     */
+    NovaSARProductGenerator tileSize(final int tileWidth, final int tileHeight) {
+        this.tileSize = new Dimension(tileWidth, tileHeight);
+        return this;
+    }
+
+    /**
+     * @param bigTiff true to write the rasters as BigTIFF whatever their size
+     */
+    NovaSARProductGenerator bigTiff(final boolean bigTiff) {
+        this.bigTiff = bigTiff;
+        return this;
+    }
+
+    /**
+     * Pads {@code metadata.xml} with processing history entries up to a minimum size, to test metadata parsing
+     * independently of the tie point grid.
+     *
+     * @param metadataSize the minimum size of the metadata file in bytes, 0 for no padding
+     */
+    NovaSARProductGenerator metadataSize(final long metadataSize) {
+        this.metadataSize = metadataSize;
+        return this;
+    }
+
+    boolean isComplex() {
+        return productType.contains("SLC");
+    }
+
+    /**
+     * Writes the product into a new folder.
+     *
+     * @param productDir the product folder, created if missing
+     * @return the {@code metadata.xml} of the product, to open it with
+     * @throws IOException if the product cannot be written
+     */
+    File writeProduct(final File productDir) throws IOException {
+        Files.createDirectories(productDir.toPath());
+        for (String pol : polarisations) {
+            writeImage(new File(productDir, getImageFileName(pol)), pol);
+            writeQuicklook(new File(productDir, getQuicklookFileName(pol)));
+        }
+        writeLUT(new File(productDir, "lutSigma.xml"), 1.0e6);
+        writeLUT(new File(productDir, "lutGamma.xml"), 0.8e6);
+        writeLUT(new File(productDir, "lutBeta.xml"), 1.2e6);
+        // written last, so that an existing metadata file marks a complete product
+        final File metadataFile = new File(productDir, NovaSARConstants.PRODUCT_HEADER_NAME);
+        try (Writer writer = Files.newBufferedWriter(metadataFile.toPath(), StandardCharsets.UTF_8)) {
+            writeMetadata(writer, metadataFile);
+        }
+        return metadataFile;
+    }
+
+    /**
+     * Writes the product into a new zip file, as a product folder named like the zip file. The product is written to
+     * a temporary folder next to the zip file first, which is deleted afterwards.
+     *
+     * @param zipFile  the zip file, whose name must start with {@code NOVS} to be recognised by the reader
+     * @param deflated true to compress the entries, false to store them
+     * @return the zip file
+     * @throws IOException if the product cannot be written
+     */
+    File writeZip(final File zipFile, final boolean deflated) throws IOException {
+        final String productName = FileUtils.getFilenameWithoutExtension(zipFile);
+        final File parentDir = zipFile.getAbsoluteFile().getParentFile();
+        Files.createDirectories(parentDir.toPath());
+        final File tmpDir = Files.createTempDirectory(parentDir.toPath(), productName).toFile();
+        final File partFile = new File(zipFile.getPath() + ".part");
+        try {
+            final File metadataFile = writeProduct(tmpDir);
+            final List<File> files = new ArrayList<>();
+            for (File file : tmpDir.listFiles()) {
+                if (!file.equals(metadataFile)) {
+                    files.add(file);
+                }
+            }
+            files.add(metadataFile);
+            try (ZipOutputStream zip = new ZipOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(partFile.toPath())))) {
+                zip.setMethod(deflated ? ZipOutputStream.DEFLATED : ZipOutputStream.STORED);
+                for (File file : files) {
+                    final ZipEntry entry = new ZipEntry(productName + '/' + file.getName());
+                    if (!deflated) {
+                        entry.setSize(file.length());
+                        entry.setCompressedSize(file.length());
+                        entry.setCrc(crc32(file));
+                    }
+                    zip.putNextEntry(entry);
+                    Files.copy(file.toPath(), zip);
+                    zip.closeEntry();
+                }
+            }
+            Files.move(partFile.toPath(), zipFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(partFile.toPath());
+            FileUtils.deleteTree(tmpDir);
+        }
+        return zipFile;
+    }
+
+    private static long crc32(final File file) throws IOException {
+        final CRC32 crc = new CRC32();
+        final byte[] buf = new byte[CHUNK_BYTES];
+        try (InputStream is = Files.newInputStream(file.toPath())) {
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                crc.update(buf, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * @return the value of sample {@code s} of pixel {@code (x, y)} in the rasters written
+     */
+    static int getSample(final int x, final int y, final int s) {
+        return ((x * 31 + y * 17 + s * 1013) & 0x3FFF) + 1;
+    }
+
+    static String getImageFileName(final String pol) {
+        if (isCompactPol(pol)) {
+            return pol.toLowerCase(Locale.ENGLISH) + ".tif";
+        }
+        return "image_" + pol.toUpperCase(Locale.ENGLISH) + ".tif";
+    }
+
+    static String getQuicklookFileName(final String pol) {
+        return "QL_image_" + pol.toUpperCase(Locale.ENGLISH) + ".tif";
+    }
+
+    private static boolean isCompactPol(final String pol) {
+        return pol.equalsIgnoreCase("RH") || pol.equalsIgnoreCase("RV");
+    }
+
+    /**
+     * Writes the raster of one polarisation as a GeoTIFF of its own.
+     *
+     * @param file the image file
+     * @param pol  the polarisation
+     * @throws IOException if the file cannot be written
+     */
+    void writeImage(final File file, final String pol) throws IOException {
+        final boolean compactPol = isCompactPol(pol);
+        final int spp = isComplex() ? 2 : 1;
+        final int bits = compactPol ? 32 : 16;
+        final int sampleFormat = compactPol ? NovaSARTiffLayout.SAMPLE_FORMAT_FLOAT :
+                isComplex() ? NovaSARTiffLayout.SAMPLE_FORMAT_INT : NovaSARTiffLayout.SAMPLE_FORMAT_UINT;
+
+        try (NovaSARTiffWriter writer = new NovaSARTiffWriter(file, width, height, spp, bits, sampleFormat,
+                                                              rowsPerStrip, tileSize, bigTiff,
+                                                              ByteOrder.LITTLE_ENDIAN)) {
+            final int chunkRows = (int) Math.max(1, Math.min(height, CHUNK_BYTES / writer.getRowBytes()));
+            final ByteBuffer rows = ByteBuffer.allocate((int) (chunkRows * writer.getRowBytes()))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            for (int y0 = 0; y0 < height; y0 += chunkRows) {
+                rows.clear();
+                for (int y = y0; y < Math.min(height, y0 + chunkRows); y++) {
+                    for (int x = 0; x < width; x++) {
+                        for (int s = 0; s < spp; s++) {
+                            if (compactPol) {
+                                rows.putFloat(getSample(x, y, s));
+                            } else {
+                                rows.putShort((short) getSample(x, y, s));
+                            }
+                        }
+                    }
+                }
+                rows.flip();
+                writer.writeRows(rows);
+            }
+        }
+    }
+
+    /**
+     * Writes an 8-bit quicklook of at most {@value #QUICKLOOK_SIZE} pixels on the longer side.
+     */
+    private void writeQuicklook(final File file) throws IOException {
+        final int scale = (Math.max(width, height) + QUICKLOOK_SIZE - 1) / QUICKLOOK_SIZE;
+        final int qlWidth = (width + scale - 1) / scale;
+        final int qlHeight = (height + scale - 1) / scale;
+        try (NovaSARTiffWriter writer = new NovaSARTiffWriter(file, qlWidth, qlHeight, 1, 8,
+                                                              NovaSARTiffLayout.SAMPLE_FORMAT_UINT, qlHeight,
+                                                              ByteOrder.LITTLE_ENDIAN)) {
+            final ByteBuffer rows = ByteBuffer.allocate(qlWidth * qlHeight);
+            for (int y = 0; y < qlHeight; y++) {
+                for (int x = 0; x < qlWidth; x++) {
+                    rows.put((byte) (getSample(x * scale, y * scale, 0) >> 6));
+                }
+            }
+            rows.flip();
+            writer.writeRows(rows);
+        }
+    }
+
+    private void writeLUT(final File file, final double gain) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<lut>\n  <offset>0.0</offset>\n  <gains>");
+            for (int x = 0; x < width; x++) {
+                writer.write(Double.toString(gain * (1.0 + 0.2 * x / width)));
+                writer.write(' ');
+            }
+            writer.write("</gains>\n</lut>\n");
+        }
+    }
+
+    private void writeMetadata(final Writer w, final File file) throws IOException {
+        final String startTime = formatTime(FIRST_LINE_TIME);
+        final String stopTime = formatTime(FIRST_LINE_TIME + (long) (height * LINE_TIME_INTERVAL * 1000));
+        final boolean groundRange = !isComplex();
+
+        w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<metadata>\n");
+        w.write("  <Product>\n");
+        element(w, 4, "ProductName", "NovaSAR_synthetic_" + productType);
+        w.write("  </Product>\n");
+
+        w.write("  <Source_Attributes>\n");
+        element(w, 4, "InputDataSetID", "NOVASAR_SYNTHETIC_" + productType);
+        element(w, 4, "Satellite", "NovaSAR-1");
+        element(w, 4, "AcquisitionID", "4711");
+        element(w, 4, "AntennaPointing", "Right");
+        element(w, 4, "OperationalModeName", "Stripmap_S4");
+        element(w, 4, "RadarCentreFrequency", "Hz", "3.2E9");
+        element(w, 4, "EchoSamplingRate", "Hz", "1.2E8");
+        element(w, 4, "PulseRepetitionFrequency", "Hz", "2000.0");
+        w.write("  </Source_Attributes>\n");
+
+        w.write("  <OrbitData>\n");
+        for (int i = 0; i < numStateVectors; i++) {
+            writeStateVector(w, i);
+        }
+        element(w, 4, "NumberOfStateVectorSets", Integer.toString(numStateVectors));
+        element(w, 4, "Pass_Direction", "Ascending");
+        element(w, 4, "OrbitDataSource", "Downlinked");
+        element(w, 4, "OrbitDataFile", "NovaSAR_synthetic_orbit_1.xml");
+        w.write("  </OrbitData>\n");
+
+        w.write("  <Image_Generation_Parameters>\n");
+        element(w, 4, "ProductType", productType);
+        element(w, 4, "AlgorithmUsed", "RDA");
+        element(w, 4, "RadiometricScaling", "Beta0");
+        element(w, 4, "ProcessingFacility", "Synthetic");
+        element(w, 4, "SoftwareVersion", "1.0");
+        element(w, 4, "ProcessingTime", startTime);
+        element(w, 4, "ZeroDopplerTimeFirstLine", startTime);
+        element(w, 4, "ZeroDopplerTimeLastLine", stopTime);
+        element(w, 4, "NumberOfRangeLooks", groundRange ? "3" : "1");
+        element(w, 4, "NumberOfAzimuthLooks", groundRange ? "3" : "1");
+        element(w, 4, "SlantRangeNearEdge", "m", "800000.0");
+        element(w, 4, "TotalProcessedRangeBandwidth", "Hz", "1.0E8");
+        element(w, 4, "TotalProcessedAzimuthBandwidth", "Hz", "1500.0");
+        element(w, 4, "DopplerCentroid", "Hz", "0.0");
+        element(w, 4, "IncAngleCoeffs", "20.0 0.001 0.0 0.0 0.0");
+        if (groundRange) {
+            element(w, 4, "GroundToSlantRangeCoefficients", "800000.0 5.5 1.0E-5 0.0 0.0 0.0");
+        }
+        w.write("  </Image_Generation_Parameters>\n");
+
+        w.write("  <Image_Attributes>\n");
+        element(w, 4, "CalibrationStatus", "Calibrated");
+        element(w, 4, "CalibrationConstant", "1.0");
+        element(w, 4, "DataType", isComplex() ? "COMPLEX" : "MAGNITUDE_DETECTED");
+        element(w, 4, "ProductFormat", "GeoTIFF");
+        element(w, 4, "NumberOfLinesInImage", Integer.toString(height));
+        element(w, 4, "NumberOfSamplesPerLine", Integer.toString(width));
+        element(w, 4, "SampledPixelSpacing", "m", groundRange ? "6.0" : "4.0");
+        element(w, 4, "SampledLineSpacing", "m", "6.0");
+        for (String pol : polarisations) {
+            w.write("    <fullResolutionImageData Pol=\"" + pol.toUpperCase(Locale.ENGLISH) + "\">" +
+                            getImageFileName(pol) + "</fullResolutionImageData>\n");
+        }
+        w.write("  </Image_Attributes>\n");
+
+        w.write("  <geographicInformation>\n");
+        element(w, 4, "EllipsoidName", "WGS84");
+        element(w, 4, "MeanTerrainHeight", "m", "50.0");
+        element(w, 4, "NumberOfRangeTiepoints", Integer.toString(rangeTiePoints));
+        element(w, 4, "NumberOfAzimuthTiepoints", Integer.toString(azimuthTiePoints));
+        for (int j = 0; j < azimuthTiePoints; j++) {
+            for (int i = 0; i < rangeTiePoints; i++) {
+                final double u = i / (double) (rangeTiePoints - 1);
+                final double v = j / (double) (azimuthTiePoints - 1);
+                w.write("    <TiePoint>\n");
+                element(w, 6, "Pixel", Double.toString(u * (width - 1)));
+                element(w, 6, "Line", Double.toString(v * (height - 1)));
+                element(w, 6, "latitude", "deg", Double.toString(50.5 + 0.4 * v + 0.05 * u));
+                element(w, 6, "longitude", "deg", Double.toString(-1.5 + 0.6 * u - 0.08 * v));
+                w.write("    </TiePoint>\n");
+            }
+        }
+        w.write("  </geographicInformation>\n");
+        writePadding(w, file);
+        w.write("</metadata>\n");
+    }
+
+    private void writePadding(final Writer w, final File file) throws IOException {
+        w.flush();
+        long remaining = metadataSize - file.length();
+        if (remaining <= 0) {
+            return;
+        }
+        w.write("  <Processing_History>\n");
+        for (int i = 1; remaining > 0; i++) {
+            final String step = "    <ProcessingStep id=\"" + i + "\">Synthetic processing step " + i + "</ProcessingStep>\n";
+            w.write(step);
+            remaining -= step.length();
+        }
+        w.write("  </Processing_History>\n");
+    }
+
+    private void writeStateVector(final Writer w, final int i) throws IOException {
+        // a circular polar orbit, 700 km above the equator, sampled every 10 s
+        final double r = 7078137.0;
+        final double omega = 2 * Math.PI / 5925.0;
+        final double t = (i - numStateVectors / 2) * 10.0;
+        final double phase = 0.9 + omega * t;
+        w.write("    <StateVector>\n");
+        element(w, 6, "Time", formatTime(FIRST_LINE_TIME + (long) (t * 1000)));
+        element(w, 6, "xPosition", "m", Double.toString(r * Math.cos(phase)));
+        element(w, 6, "yPosition", "m", "0.0");
+        element(w, 6, "zPosition", "m", Double.toString(r * Math.sin(phase)));
+        element(w, 6, "xVelocity", "m/s", Double.toString(-r * omega * Math.sin(phase)));
+        element(w, 6, "yVelocity", "m/s", "0.0");
+        element(w, 6, "zVelocity", "m/s", Double.toString(r * omega * Math.cos(phase)));
+        w.write("    </StateVector>\n");
+    }
+
+    private static void element(final Writer w, final int indent, final String name, final String value)
+            throws IOException {
+        indent(w, indent);
+        w.write("<" + name + ">" + value + "</" + name + ">\n");
+    }
+
+    private static void element(final Writer w, final int indent, final String name, final String units,
+                                final String value) throws IOException {
+        indent(w, indent);
+        w.write("<" + name + " units=\"" + units + "\">" + value + "</" + name + ">\n");
+    }
+
+    private static void indent(final Writer w, final int indent) throws IOException {
+        for (int i = 0; i < indent; i++) {
+            w.write(' ');
+        }
+    }
+
+    private static String formatTime(final long millis) {
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS'000'", Locale.ENGLISH);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(millis));
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the queries of {@link NovaSARProductIndex} against a scan of all records, and the index file format.
+ */
+public class NovaSARProductIndexTest {
+
+    private static final Instant EPOCH = Instant.parse("2019-01-01T00:00:00Z");
+    private static final int TIME_RANGE = 30 * 86400;
+
+    @Test
+    public void testQueryMatchesScan() {
+        final Random random = new Random(42);
+        final List<NovaSARCatalogue.Record> records = createRecords(random, 3000);
+        final NovaSARProductIndex index = NovaSARProductIndex.create(records);
+        assertEquals(records.size(), index.size());
+
+        for (int q = 0; q < 500; q++) {
+            final double[] aoi = createArea(random);
+            final Instant start = EPOCH.plusSeconds(random.nextInt(TIME_RANGE));
+            final Instant end = start.plusSeconds(random.nextInt(TIME_RANGE / 4));
+            assertQuery(index, records, aoi, start, end);
+        }
+    }
+
+    @Test
+    public void testQueryAcrossAntimeridian() {
+        final Random random = new Random(7);
+        final List<NovaSARCatalogue.Record> records = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            records.add(createRecord(random, i, random.nextDouble() * 120 - 60, 178 + random.nextDouble() * 4));
+        }
+        final NovaSARProductIndex index = NovaSARProductIndex.create(records);
+        final Instant start = Instant.MIN;
+        final Instant end = Instant.MAX;
+
+        // areas east of, west of and across the antimeridian, and wider than half the globe
+        final double[][] areas = {
+                {-60, 60, 170, 180}, {-60, 60, -180, -170}, {-60, 60, 179, -179}, {-10, 10, 175, -175},
+                {-60, 60, -179.5, -179.6}, {-60, 60, -10, -179.9}, {-60, 60, 0.5, 0.1}, {-60, 60, -180, 180}};
+        for (double[] aoi : areas) {
+            assertQuery(index, records, aoi, start, end);
+        }
+        assertEquals(records.size(), index.query(-90, 90, -180, 180, start, end).size());
+        for (int q = 0; q < 200; q++) {
+            final double minLon = 170 + random.nextDouble() * 20;
+            final double maxLon = minLon + random.nextDouble() * 10;
+            final double minLat = random.nextDouble() * 120 - 60;
+            assertQuery(index, records, new double[]{minLat, minLat + random.nextDouble() * 10,
+                    wrap(minLon), wrap(maxLon)}, start, end);
+        }
+    }
+
+    @Test
+    public void testQueryOverHalfTheGlobeAcrossAntimeridian() {
+        // a footprint across the antimeridian that enters the latitudes of the area only east of -179.1
+        final double[] corners = {60.5, 179.8, 60.9, 179.95, 59.2, -177.3, 59.6, -177.6};
+        final NovaSARCatalogue.Record record = new NovaSARCatalogue.Record(
+                "/data/NOVS_X", 1, 1, "NOVS_X", "GRD", "ScanSAR", "ASCENDING", new String[]{"HH"},
+                EPOCH.toString(), EPOCH.plusSeconds(30).toString(), corners);
+        final List<NovaSARCatalogue.Record> records = new ArrayList<>();
+        records.add(record);
+        final NovaSARProductIndex index = NovaSARProductIndex.create(records);
+        // everything but the sliver from -179.5 to -178.5, where the footprint enters the latitudes of the area
+        final double[] aoi = {0, 60, -178.5, -179.5};
+        assertTrue(intersects(record, aoi[0], aoi[1], aoi[2], aoi[3]));
+        assertQuery(index, records, aoi, Instant.MIN, Instant.MAX);
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        final Random random = new Random(3);
+        final NovaSARProductIndex index = NovaSARProductIndex.create(createRecords(random, 1000));
+        final Path file = Files.createTempFile("novasar-index", ".bin");
+        try {
+            index.write(file);
+            final NovaSARProductIndex read = NovaSARProductIndex.read(file);
+            assertEquals(index.size(), read.size());
+
+            final List<NovaSARCatalogue.Record> expected = index.query(-90, 90, -180, 180, Instant.MIN, Instant.MAX);
+            final List<NovaSARCatalogue.Record> actual = read.query(-90, 90, -180, 180, Instant.MIN, Instant.MAX);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertRecordEquals(expected.get(i), actual.get(i));
+            }
+            for (int q = 0; q < 100; q++) {
+                final double[] aoi = createArea(random);
+                final Instant start = EPOCH.plusSeconds(random.nextInt(TIME_RANGE));
+                final Instant end = start.plusSeconds(random.nextInt(TIME_RANGE / 4));
+                assertEquals(getPaths(index.query(aoi[0], aoi[1], aoi[2], aoi[3], start, end)),
+                             getPaths(read.query(aoi[0], aoi[1], aoi[2], aoi[3], start, end)));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testRecordsWithoutFootprint() {
+        final Random random = new Random(11);
+        final List<NovaSARCatalogue.Record> records = createRecords(random, 500);
+        for (int i = 0; i < records.size(); i += 7) {
+            final NovaSARCatalogue.Record record = records.get(i);
+            final double[] corners = record.getCorners();
+            corners[i % 8] = i % 2 == 0 ? Double.NaN : Double.POSITIVE_INFINITY;
+            records.set(i, new NovaSARCatalogue.Record(record.path, record.size, record.lastModified, record.product,
+                                                       record.productType, record.acquisitionMode, record.pass,
+                                                       record.polarisations, record.firstLineTime,
+                                                       record.lastLineTime, corners));
+        }
+        final NovaSARProductIndex index = NovaSARProductIndex.create(records);
+        assertEquals(records.size(), index.size());
+        assertEquals(records.size() - (records.size() + 6) / 7,
+                     index.query(-90, 90, -180, 180, Instant.MIN, Instant.MAX).size());
+        for (int q = 0; q < 200; q++) {
+            final double[] aoi = createArea(random);
+            final Instant start = EPOCH.plusSeconds(random.nextInt(TIME_RANGE));
+            final Instant end = start.plusSeconds(random.nextInt(TIME_RANGE / 4));
+            assertQuery(index, records, aoi, start, end);
+        }
+    }
+
+    @Test
+    public void testEmptyIndex() {
+        final NovaSARProductIndex index = NovaSARProductIndex.create(new ArrayList<>());
+        assertEquals(0, index.size());
+        assertTrue(index.query(-90, 90, -180, 180, Instant.MIN, Instant.MAX).isEmpty());
+    }
+
+    private static void assertQuery(final NovaSARProductIndex index, final List<NovaSARCatalogue.Record> records,
+                                    final double[] aoi, final Instant start, final Instant end) {
+        final List<NovaSARCatalogue.Record> hits = index.query(aoi[0], aoi[1], aoi[2], aoi[3], start, end);
+        final Set<String> expected = new HashSet<>();
+        for (NovaSARCatalogue.Record record : records) {
+            if (!Instant.parse(record.lastLineTime).isBefore(start) &&
+                    !Instant.parse(record.firstLineTime).isAfter(end) &&
+                    intersects(record, aoi[0], aoi[1], aoi[2], aoi[3])) {
+                expected.add(record.path);
+            }
+        }
+        final Set<String> actual = getPaths(hits);
+        assertEquals("duplicate hits", hits.size(), actual.size());
+        assertEquals("area " + aoi[0] + ".." + aoi[1] + ", " + aoi[2] + ".." + aoi[3], expected, actual);
+    }
+
+    /**
+     * Tests the footprint quadrilateral against the area by vertex containment and edge crossings, with the
+     * footprint unwrapped around its first corner and the area shifted by a full turn either way.
+     */
+    private static boolean intersects(final NovaSARCatalogue.Record record, final double minLat,
+                                      final double maxLat, final double minLon, final double maxLon) {
+        final double[] c = record.getCorners();
+        for (double value : c) {
+            if (!Double.isFinite(value)) {
+                return false;
+            }
+        }
+        final double[] lat = {c[0], c[2], c[6], c[4]};
+        final double[] lon = {c[1], c[3], c[7], c[5]};
+        for (int k = 1; k < 4; k++) {
+            lon[k] = lon[0] + wrap(lon[k] - lon[0]);
+        }
+        final double east = maxLon < minLon ? maxLon + 360 : maxLon;
+        for (int turn = -1; turn <= 1; turn++) {
+            final double x0 = minLon + 360 * turn;
+            final double x1 = east + 360 * turn;
+            final double[] rectX = {x0, x1, x1, x0};
+            final double[] rectY = {minLat, minLat, maxLat, maxLat};
+            for (int k = 0; k < 4; k++) {
+                if (lon[k] >= x0 && lon[k] <= x1 && lat[k] >= minLat && lat[k] <= maxLat) {
+                    return true;
+                }
+                if (contains(lon, lat, rectX[k], rectY[k])) {
+                    return true;
+                }
+                for (int e = 0; e < 4; e++) {
+                    if (crosses(lon[k], lat[k], lon[(k + 1) % 4], lat[(k + 1) % 4],
+                                rectX[e], rectY[e], rectX[(e + 1) % 4], rectY[(e + 1) % 4])) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(final double[] xs, final double[] ys, final double x, final double y) {
+        boolean inside = false;
+        for (int k = 0, j = 3; k < 4; j = k++) {
+            if ((ys[k] > y) != (ys[j] > y) && x < (xs[j] - xs[k]) * (y - ys[k]) / (ys[j] - ys[k]) + xs[k]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    private static boolean crosses(final double ax, final double ay, final double bx, final double by,
+                                   final double cx, final double cy, final double dx, final double dy) {
+        final double d1 = cross(cx, cy, dx, dy, ax, ay);
+        final double d2 = cross(cx, cy, dx, dy, bx, by);
+        final double d3 = cross(ax, ay, bx, by, cx, cy);
+        final double d4 = cross(ax, ay, bx, by, dx, dy);
+        return d1 * d2 <= 0 && d3 * d4 <= 0 &&
+                Math.max(ax, bx) >= Math.min(cx, dx) && Math.max(cx, dx) >= Math.min(ax, bx) &&
+                Math.max(ay, by) >= Math.min(cy, dy) && Math.max(cy, dy) >= Math.min(ay, by);
+    }
+
+    private static double cross(final double ax, final double ay, final double bx, final double by,
+                                final double px, final double py) {
+        return (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+    }
+
+    private static List<NovaSARCatalogue.Record> createRecords(final Random random, final int count) {
+        final List<NovaSARCatalogue.Record> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            // one in ten near the antimeridian
+            final double lon = i % 10 == 0 ? 177 + random.nextDouble() * 6 : random.nextDouble() * 360 - 180;
+            records.add(createRecord(random, i, random.nextDouble() * 150 - 75, lon));
+        }
+        return records;
+    }
+
+    /**
+     * Creates a record with a skewed footprint of 0.2 to 3 degrees around a centre.
+     */
+    private static NovaSARCatalogue.Record createRecord(final Random random, final int i, final double lat,
+                                                        final double lon) {
+        final double along = 0.2 + random.nextDouble() * 2.8;
+        final double across = 0.2 + random.nextDouble() * 2.8;
+        final double heading = random.nextDouble() * 2 * Math.PI;
+        final double skew = random.nextDouble() * 0.4 - 0.2;
+        final double[][] offsets = {{-0.5, -0.5}, {-0.5, 0.5}, {0.5, -0.5}, {0.5, 0.5}};   // first/last, near/far
+        final double[] corners = new double[8];
+        for (int k = 0; k < 4; k++) {
+            final double a = offsets[k][0] * along;
+            final double b = offsets[k][1] * across + skew * a;
+            corners[2 * k] = lat + a * Math.cos(heading) - b * Math.sin(heading);
+            corners[2 * k + 1] = wrap(lon + a * Math.sin(heading) + b * Math.cos(heading));
+        }
+        final Instant first = EPOCH.plusSeconds(random.nextInt(TIME_RANGE)).plusNanos(random.nextInt(1000000) * 1000L);
+        final Instant last = first.plusSeconds(10 + random.nextInt(60));
+        return new NovaSARCatalogue.Record("/data/NOVS_" + i, 1000L + i, 1500000000000L + i, "NOVS_" + i, "GRD",
+                                           "ScanSAR", i % 2 == 0 ? "ASCENDING" : "DESCENDING",
+                                           new String[]{"HH", "VV"}, first.toString(), last.toString(), corners);
+    }
+
+    /**
+     * @return latitude and longitude bounds of an area, crossing the antimeridian one time in five
+     */
+    private static double[] createArea(final Random random) {
+        final double minLat = random.nextDouble() * 160 - 80;
+        final double maxLat = Math.min(90, minLat + random.nextDouble() * 30);
+        final double width = random.nextInt(20) == 0 ? 180 + random.nextDouble() * 170 : random.nextDouble() * 40;
+        final double minLon = random.nextInt(5) == 0 ? 180 - random.nextDouble() * width :
+                              random.nextDouble() * (360 - width) - 180;
+        return new double[]{minLat, maxLat, minLon, wrap(minLon + width)};
+    }
+
+    private static double wrap(final double lon) {
+        final double wrapped = ((lon + 180) % 360 + 360) % 360 - 180;
+        return wrapped == -180 && lon > 0 ? 180 : wrapped;
+    }
+
+    private static Set<String> getPaths(final List<NovaSARCatalogue.Record> records) {
+        final Set<String> paths = new HashSet<>();
+        for (NovaSARCatalogue.Record record : records) {
+            paths.add(record.path);
+        }
+        return paths;
+    }
+
+    private static void assertRecordEquals(final NovaSARCatalogue.Record expected,
+                                           final NovaSARCatalogue.Record actual) {
+        assertEquals(expected.path, actual.path);
+        assertEquals(expected.size, actual.size);
+        assertEquals(expected.lastModified, actual.lastModified);
+        assertEquals(expected.product, actual.product);
+        assertEquals(expected.productType, actual.productType);
+        assertEquals(expected.acquisitionMode, actual.acquisitionMode);
+        assertEquals(expected.pass, actual.pass);
+        assertArrayEquals(expected.polarisations, actual.polarisations);
+        assertEquals(Instant.parse(expected.firstLineTime), Instant.parse(actual.firstLineTime));
+        assertEquals(Instant.parse(expected.lastLineTime), Instant.parse(actual.lastLineTime));
+        assertArrayEquals(expected.getCorners(), actual.getCorners(), 0.0);
+    }
+}
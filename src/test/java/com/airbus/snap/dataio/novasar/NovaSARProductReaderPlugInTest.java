@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.esa.snap.core.dataio.DecodeQualification;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link NovaSARProductReaderPlugIn#getDecodeQualification} on metadata files and {@code NOVS*.zip} files,
+ * and which of its results are remembered.
+ */
+public class NovaSARProductReaderPlugInTest {
+
+    // a fixed modification time, so that a rewritten file has the same size and time as before
+    private static final long LAST_MODIFIED = 1500000000000L;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final NovaSARProductReaderPlugIn plugIn = new NovaSARProductReaderPlugIn();
+    private byte[] metadata;
+
+    @Before
+    public void setUp() throws IOException {
+        final File metadataFile = new NovaSARProductGenerator().productType("GRD").polarisations("HH").size(64, 48)
+                .writeProduct(tmp.newFolder());
+        metadata = Files.readAllBytes(metadataFile.toPath());
+    }
+
+    @Test
+    public void testMetadataFile() throws IOException {
+        assertQualification(DecodeQualification.INTENDED, writeFile("metadata.xml", metadata));
+        assertQualification(DecodeQualification.INTENDED, writeFile("METADATA.XML", metadata));
+        assertQualification(DecodeQualification.UNABLE, writeFile("metadata_copy.xml", metadata));
+        assertQualification(DecodeQualification.UNABLE, new File(tmp.getRoot(), "missing/metadata.xml"));
+    }
+
+    @Test
+    public void testOtherMission() throws IOException {
+        // a metadata.xml with another root element, or with the root of NovaSAR but not its first elements
+        assertQualification(DecodeQualification.UNABLE, writeFile("metadata.xml", bytes(
+                "<?xml version=\"1.0\"?>\n<product><adsHeader><missionId>S1A</missionId></adsHeader></product>\n")));
+        assertQualification(DecodeQualification.UNABLE, writeFile("metadata.xml", bytes(
+                "<?xml version=\"1.0\"?>\n<metadata><Mission>RCM</Mission><Product/></metadata>\n")));
+        assertQualification(DecodeQualification.UNABLE, writeFile("metadata.xml", bytes("not XML")));
+    }
+
+    @Test
+    public void testZipFileNames() throws IOException {
+        assertQualification(DecodeQualification.INTENDED, writeZip("NOVS_TEST.zip", "NOVS_TEST/metadata.xml"));
+        assertQualification(DecodeQualification.INTENDED, writeZip("NOVS_TEST.ZIP", "NOVS_TEST/metadata.xml"));
+        assertQualification(DecodeQualification.INTENDED, writeZip("novs_test.Zip", "NOVS_TEST/metadata.xml"));
+        assertQualification(DecodeQualification.UNABLE, writeZip("S1A_TEST.zip", "NOVS_TEST/metadata.xml"));
+        assertQualification(DecodeQualification.UNABLE, writeZip("NOVS_TEST.jar", "NOVS_TEST/metadata.xml"));
+    }
+
+    @Test
+    public void testZipDepth() throws IOException {
+        // at the top of the zip or in the product folder, but not deeper
+        assertQualification(DecodeQualification.INTENDED, writeZip("NOVS_TOP.zip", "metadata.xml"));
+        assertQualification(DecodeQualification.INTENDED, writeZip("NOVS_FOLDER.zip", "NOVS_FOLDER/metadata.xml"));
+        assertQualification(DecodeQualification.UNABLE, writeZip("NOVS_DEEP.zip", "NOVS_DEEP/aux/metadata.xml"));
+        assertQualification(DecodeQualification.UNABLE, writeZip("NOVS_OTHER.zip", "NOVS_OTHER/metadata_aux.xml"));
+    }
+
+    @Test
+    public void testUnreadableFileIsNotRemembered() throws IOException {
+        final File zipFile = writeZip("NOVS_LATER.zip", "NOVS_LATER/metadata.xml");
+        final byte[] zip = Files.readAllBytes(zipFile.toPath());
+
+        // not a zip file yet: the IOException makes it UNABLE, but only until the file has been written
+        writeFile(zipFile, new byte[zip.length]);
+        assertQualification(DecodeQualification.UNABLE, zipFile);
+        writeFile(zipFile, zip);
+        assertQualification(DecodeQualification.INTENDED, zipFile);
+    }
+
+    @Test
+    public void testReadableFileIsRemembered() throws IOException {
+        final byte[] other = metadata.clone();
+        final byte[] root = bytes("<metadata>");
+        final byte[] renamed = bytes("<metadatX>");
+        final int offset = indexOf(other, root);
+        assertTrue(offset >= 0);
+        System.arraycopy(renamed, 0, other, offset, renamed.length);
+
+        // a file of the same path, size and modification time is not read again
+        final File file = writeFile("metadata.xml", other);
+        assertQualification(DecodeQualification.UNABLE, file);
+        writeFile(file, metadata);
+        assertQualification(DecodeQualification.UNABLE, file);
+        assertTrue(file.setLastModified(LAST_MODIFIED + 1000));
+        assertQualification(DecodeQualification.INTENDED, file);
+    }
+
+    private void assertQualification(final DecodeQualification expected, final File file) {
+        assertEquals(file.getName(), expected, plugIn.getDecodeQualification(file));
+        // the same from the cache
+        assertEquals(file.getName(), expected, plugIn.getDecodeQualification(file));
+    }
+
+    private File writeFile(final String name, final byte[] content) throws IOException {
+        return writeFile(new File(tmp.newFolder(), name), content);
+    }
+
+    private static File writeFile(final File file, final byte[] content) throws IOException {
+        Files.write(file.toPath(), content);
+        assertTrue(file.setLastModified(LAST_MODIFIED));
+        return file;
+    }
+
+    private File writeZip(final String name, final String metadataPath) throws IOException {
+        final File file = new File(tmp.newFolder(), name);
+        try (OutputStream os = Files.newOutputStream(file.toPath());
+             ZipOutputStream zip = new ZipOutputStream(os)) {
+            zip.putNextEntry(new ZipEntry(metadataPath));
+            zip.write(metadata);
+            zip.closeEntry();
+        }
+        assertTrue(file.setLastModified(LAST_MODIFIED));
+        return file;
+    }
+
+    private static byte[] bytes(final String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int indexOf(final byte[] array, final byte[] target) {
+        for (int i = 0; i + target.length <= array.length; i++) {
+            int j = 0;
+            while (j < target.length && array[i + j] == target[j]) {
+                j++;
+            }
+            if (j == target.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
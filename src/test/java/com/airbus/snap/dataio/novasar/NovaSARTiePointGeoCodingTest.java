@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.esa.snap.core.datamodel.GeoPos;
+import org.esa.snap.core.datamodel.PixelPos;
+import org.esa.snap.core.datamodel.TiePointGeoCoding;
+import org.esa.snap.core.datamodel.TiePointGrid;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the inverse of {@link NovaSARTiePointGeoCoding} against the generic inverse of {@link TiePointGeoCoding}
+ * on a synthetic, skewed tie point grid.
+ */
+public class NovaSARTiePointGeoCodingTest {
+
+    private static final int GRID_WIDTH = 11;
+    private static final int GRID_HEIGHT = 11;
+    private static final int SCENE_WIDTH = 5000;
+    private static final int SCENE_HEIGHT = 4000;
+
+    // distance to the generic inverse, which approximates to half a pixel
+    private static final double GENERIC_TOLERANCE = 1.0;
+    // distance to the pixel the geo position was taken from, where the inverse grid is refined
+    private static final double TOLERANCE = 0.1;
+    // distance to the edge of the scene beyond which the cells of the inverse grid lie within the footprint
+    private static final double INTERIOR_MARGIN = 250;
+
+    @Test
+    public void testMatchesGenericInverse() {
+        assertInverse(10.2, new Random(1), 0);
+    }
+
+    @Test
+    public void testAcrossAntimeridian() {
+        assertInverse(179.2, new Random(2), 0);
+    }
+
+    @Test
+    public void testFootprintEdge() {
+        // pixels within two pixels of the edge of the scene, in cells of the inverse grid crossing the footprint
+        // edge, which may be left to the generic inverse
+        assertInverse(10.2, new Random(3), 2);
+        assertInverse(179.2, new Random(4), 2);
+    }
+
+    @Test
+    public void testOffFootprint() {
+        assertOffFootprint(10.2, new Random(5));
+        assertOffFootprint(179.2, new Random(6));
+    }
+
+    private static void assertInverse(final double lon0, final Random random, final double edge) {
+        final TiePointGrid latGrid = createLatGrid();
+        final TiePointGrid lonGrid = createLonGrid(lon0);
+        final NovaSARTiePointGeoCoding geoCoding =
+                new NovaSARTiePointGeoCoding(latGrid, lonGrid, SCENE_WIDTH, SCENE_HEIGHT);
+        final TiePointGeoCoding generic = new TiePointGeoCoding(latGrid, lonGrid);
+        final PixelPos pixelPos = new PixelPos();
+        for (int k = 0; k < 2000; k++) {
+            double x = INTERIOR_MARGIN + random.nextDouble() * (SCENE_WIDTH - 2 * INTERIOR_MARGIN);
+            double y = INTERIOR_MARGIN + random.nextDouble() * (SCENE_HEIGHT - 2 * INTERIOR_MARGIN);
+            if (edge > 0) {
+                switch (k % 4) {
+                    case 0: x = 0.5 + random.nextDouble() * edge; break;
+                    case 1: x = SCENE_WIDTH - 0.5 - random.nextDouble() * edge; break;
+                    case 2: y = 0.5 + random.nextDouble() * edge; break;
+                    default: y = SCENE_HEIGHT - 0.5 - random.nextDouble() * edge; break;
+                }
+            }
+            final GeoPos geoPos = new GeoPos(latGrid.getPixelDouble(x, y), lonGrid.getPixelDouble(x, y));
+            assertSame(pixelPos, geoCoding.getPixelPos(geoPos, pixelPos));
+            final PixelPos expected = generic.getPixelPos(geoPos, null);
+            final String message = "pixel " + x + ", " + y + " at " + geoPos.getLat() + ", " + geoPos.getLon();
+            assertTrue(message, expected.isValid());
+            assertEquals(message, expected.x, pixelPos.x, GENERIC_TOLERANCE);
+            assertEquals(message, expected.y, pixelPos.y, GENERIC_TOLERANCE);
+            final double tolerance = edge > 0 ? GENERIC_TOLERANCE : TOLERANCE;
+            assertEquals(message, x, pixelPos.x, tolerance);
+            assertEquals(message, y, pixelPos.y, tolerance);
+        }
+    }
+
+    private static void assertOffFootprint(final double lon0, final Random random) {
+        final TiePointGrid latGrid = createLatGrid();
+        final TiePointGrid lonGrid = createLonGrid(lon0);
+        final NovaSARTiePointGeoCoding geoCoding =
+                new NovaSARTiePointGeoCoding(latGrid, lonGrid, SCENE_WIDTH, SCENE_HEIGHT);
+        final TiePointGeoCoding generic = new TiePointGeoCoding(latGrid, lonGrid);
+
+        // the bounding box of the footprint, which is skewed, so that its corners lie off the footprint
+        final float[] lats = latGrid.getTiePoints();
+        final float[] lons = lonGrid.getTiePoints();
+        double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < lats.length; i++) {
+            final double lon = lons[i] < lon0 - 180 ? lons[i] + 360 : lons[i];
+            minLat = Math.min(minLat, lats[i]);
+            maxLat = Math.max(maxLat, lats[i]);
+            minLon = Math.min(minLon, lon);
+            maxLon = Math.max(maxLon, lon);
+        }
+
+        int offFootprint = 0;
+        for (int k = 0; k < 2000; k++) {
+            final double lat = minLat + random.nextDouble() * (maxLat - minLat);
+            final double lon = minLon + random.nextDouble() * (maxLon - minLon);
+            final GeoPos geoPos = new GeoPos(lat, wrap(lon));
+            final PixelPos pixelPos = geoCoding.getPixelPos(geoPos, null);
+            final PixelPos expected = generic.getPixelPos(geoPos, null);
+            final String message = "at " + geoPos.getLat() + ", " + geoPos.getLon();
+            if (isInScene(expected, -1)) {
+                assertEquals(message, expected.x, pixelPos.x, GENERIC_TOLERANCE);
+                assertEquals(message, expected.y, pixelPos.y, GENERIC_TOLERANCE);
+            } else if (!isInScene(expected, 1)) {
+                // the fallback to the generic inverse, or an interpolation of positions off the scene
+                assertFalse(message + " maps into the scene at " + pixelPos.x + ", " + pixelPos.y,
+                            isInScene(pixelPos, -1));
+                offFootprint++;
+            }
+        }
+        assertTrue(offFootprint > 100);
+
+        // outside the bounding box, the generic inverse is used as is
+        for (int k = 0; k < 500; k++) {
+            final double lat = k % 2 == 0 ? minLat - random.nextDouble() * 2 : maxLat + random.nextDouble() * 2;
+            final double lon = minLon - 2 + random.nextDouble() * (maxLon - minLon + 4);
+            final GeoPos geoPos = new GeoPos(lat, wrap(lon));
+            final PixelPos pixelPos = geoCoding.getPixelPos(geoPos, null);
+            final PixelPos expected = generic.getPixelPos(geoPos, null);
+            assertEquals(expected.x, pixelPos.x, 0.0);
+            assertEquals(expected.y, pixelPos.y, 0.0);
+        }
+    }
+
+    /**
+     * @param margin the distance by which the scene is grown, or shrunk if negative
+     */
+    private static boolean isInScene(final PixelPos pixelPos, final double margin) {
+        return pixelPos.isValid() && pixelPos.x >= -margin && pixelPos.x <= SCENE_WIDTH + margin &&
+                pixelPos.y >= -margin && pixelPos.y <= SCENE_HEIGHT + margin;
+    }
+
+    /**
+     * Creates a latitude grid of a descending pass, skewed and curved across track.
+     */
+    private static TiePointGrid createLatGrid() {
+        final float[] lats = new float[GRID_WIDTH * GRID_HEIGHT];
+        for (int j = 0; j < GRID_HEIGHT; j++) {
+            for (int i = 0; i < GRID_WIDTH; i++) {
+                final double u = i / (GRID_WIDTH - 1.0);
+                final double v = j / (GRID_HEIGHT - 1.0);
+                lats[j * GRID_WIDTH + i] = (float) (50 - 1.5 * v + 0.2 * u + 0.05 * u * u);
+            }
+        }
+        return new TiePointGrid("latitude", GRID_WIDTH, GRID_HEIGHT, 0.5, 0.5, getSubSamplingX(), getSubSamplingY(),
+                                lats);
+    }
+
+    /**
+     * Creates a longitude grid starting at a longitude, which crosses the antimeridian if it is close to it.
+     */
+    private static TiePointGrid createLonGrid(final double lon0) {
+        final float[] lons = new float[GRID_WIDTH * GRID_HEIGHT];
+        for (int j = 0; j < GRID_HEIGHT; j++) {
+            for (int i = 0; i < GRID_WIDTH; i++) {
+                final double u = i / (GRID_WIDTH - 1.0);
+                final double v = j / (GRID_HEIGHT - 1.0);
+                lons[j * GRID_WIDTH + i] = (float) wrap(lon0 + 1.6 * u + 0.3 * v + 0.04 * v * v);
+            }
+        }
+        return new TiePointGrid("longitude", GRID_WIDTH, GRID_HEIGHT, 0.5, 0.5, getSubSamplingX(), getSubSamplingY(),
+                                lons, TiePointGrid.DISCONT_AT_180);
+    }
+
+    private static double getSubSamplingX() {
+        return (SCENE_WIDTH - 1.0) / (GRID_WIDTH - 1);
+    }
+
+    private static double getSubSamplingY() {
+        return (SCENE_HEIGHT - 1.0) / (GRID_HEIGHT - 1);
+    }
+
+    private static double wrap(final double lon) {
+        return lon >= 180 ? lon - 360 : lon;
+    }
+}
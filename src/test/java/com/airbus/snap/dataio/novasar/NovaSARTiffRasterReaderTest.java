@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.esa.snap.core.datamodel.ProductData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the direct reader, the cached source and the overviews of uncompressed GeoTIFFs written by
+ * {@link NovaSARProductGenerator} against the samples decoded by ImageIO through {@link NovaSARImageReaderPool}.
+ */
+public class NovaSARTiffRasterReaderTest {
+
+    // not a multiple of the strips, tiles or cached tiles, so that all of them are cut at the edges
+    private static final int WIDTH = 333;
+    private static final int HEIGHT = 217;
+    private static final int ROWS_PER_STRIP = 7;
+    private static final int TILE_WIDTH = 64;
+    private static final int TILE_HEIGHT = 48;
+
+    // UINT16 amplitude, INT16 I/Q and FLOAT32 compact-pol rasters
+    private static final String[][] RASTERS = {{"GRD", "HH"}, {"SLC", "VV"}, {"GRD", "RH"}};
+
+    private static final long OVERVIEW_TIMEOUT = 60000;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testStriped() throws IOException {
+        for (String[] raster : RASTERS) {
+            assertDirectReads(createGenerator(raster).rowsPerStrip(ROWS_PER_STRIP), raster[1]);
+        }
+    }
+
+    @Test
+    public void testTiled() throws IOException {
+        for (String[] raster : RASTERS) {
+            assertDirectReads(createGenerator(raster).tileSize(TILE_WIDTH, TILE_HEIGHT), raster[1]);
+        }
+    }
+
+    @Test
+    public void testBigTiff() throws IOException {
+        for (String[] raster : RASTERS) {
+            assertDirectReads(createGenerator(raster).rowsPerStrip(ROWS_PER_STRIP).bigTiff(true), raster[1]);
+            assertDirectReads(createGenerator(raster).tileSize(TILE_WIDTH, TILE_HEIGHT).bigTiff(true), raster[1]);
+        }
+    }
+
+    @Test
+    public void testCachedSource() throws IOException {
+        for (String[] raster : RASTERS) {
+            final NovaSARProductGenerator generator = createGenerator(raster).tileSize(TILE_WIDTH, TILE_HEIGHT);
+            final File file = writeImage(generator, raster[1]);
+            final NovaSARTiffRasterReader reader = openDirectReader(file);
+            final NovaSARImageReaderPool pool = openPool(file);
+            final NovaSARTileCache cache = new NovaSARTileCache(64L * 1024 * 1024);
+            final NovaSARCachedRasterSource source = new NovaSARCachedRasterSource(
+                    reader, WIDTH, HEIGHT, reader.getLayout().samplesPerPixel, new Dimension(100, 60), cache, 0);
+            try {
+                final List<int[]> requests = createRequests(WIDTH, HEIGHT, 1, 4);
+                // a request of exactly one cached tile
+                requests.add(new int[]{100, 60, 1, 1, 100, 60});
+                // twice, the second time from the cache
+                for (int pass = 0; pass < 2; pass++) {
+                    for (int[] request : requests) {
+                        assertSameSamples(file.getName(), request, pool, source, reader.getLayout());
+                    }
+                }
+                assertTrue(cache.getHitCount() > 0);
+
+                // a sample the image does not have
+                assertSampleOffsetRejected(source, -1);
+                assertSampleOffsetRejected(source, reader.getLayout().samplesPerPixel);
+            } finally {
+                source.close();
+                pool.close();
+                reader.close();
+            }
+        }
+    }
+
+    @Test
+    public void testOverviews() throws IOException, InterruptedException {
+        // large enough for two levels
+        final int width = 1100;
+        final int height = 1030;
+        for (String[] raster : RASTERS) {
+            final NovaSARProductGenerator generator = new NovaSARProductGenerator()
+                    .productType(raster[0]).polarisations(raster[1]).size(width, height).rowsPerStrip(ROWS_PER_STRIP);
+            final File file = writeImage(generator, raster[1]);
+            final NovaSARTiffRasterReader reader = openDirectReader(file);
+            final NovaSARImageReaderPool pool = openPool(file);
+            final NovaSARTiffLayout layout = reader.getLayout();
+            final NovaSAROverviewPyramid pyramid = NovaSAROverviewPyramid.create(file, layout, reader);
+            assertNotNull(pyramid);
+            try {
+                final int[] sampleOffsets = getSampleOffsets(layout);
+                final ProductData[] dest = createBuffers(layout, 10 * 10);
+                final long timeout = System.currentTimeMillis() + OVERVIEW_TIMEOUT;
+                // the first request schedules the build, the coarsest level is built last
+                while (!pyramid.readRasters(0, 0, 4, 4, 10, 10, sampleOffsets, dest)) {
+                    assertTrue("overviews not built", System.currentTimeMillis() < timeout);
+                    Thread.sleep(50);
+                }
+
+                for (int[] request : createRequests(width, height, 2, 8)) {
+                    final int level = Math.min(Integer.numberOfTrailingZeros(request[2] | request[3] | 1 << 30),
+                                               Integer.numberOfTrailingZeros(request[0] | request[1] | 1 << 30));
+                    final ProductData[] actual = createBuffers(layout, request[4] * request[5]);
+                    final boolean served = pyramid.readRasters(request[0], request[1], request[2], request[3],
+                                                               request[4], request[5], sampleOffsets, actual);
+                    // served from a level unless an offset or step is odd
+                    assertEquals(toString(request), level > 0, served);
+                    if (served) {
+                        assertSameSamples(file.getName(), request, pool, actual, layout);
+                    }
+                }
+            } finally {
+                pyramid.close();
+                pool.close();
+                reader.close();
+            }
+        }
+    }
+
+    private static void assertSampleOffsetRejected(final NovaSARRasterSource source, final int sampleOffset)
+            throws IOException {
+        try {
+            source.readRaster(0, 0, 1, 1, 10, 10, sampleOffset,
+                              ProductData.createInstance(ProductData.TYPE_INT32, 10 * 10));
+            fail("read sample " + sampleOffset);
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private NovaSARProductGenerator createGenerator(final String[] raster) {
+        return new NovaSARProductGenerator().productType(raster[0]).polarisations(raster[1]).size(WIDTH, HEIGHT);
+    }
+
+    private File writeImage(final NovaSARProductGenerator generator, final String pol) throws IOException {
+        final File file = new File(tmp.newFolder(), NovaSARProductGenerator.getImageFileName(pol));
+        generator.writeImage(file, pol);
+        return file;
+    }
+
+    /**
+     * Checks the direct reader against ImageIO and against the pattern written, for steps of 1 to 4 and offsets
+     * falling inside and on the edges of strips and tiles.
+     */
+    private void assertDirectReads(final NovaSARProductGenerator generator, final String pol) throws IOException {
+        final File file = writeImage(generator, pol);
+        final NovaSARTiffRasterReader reader = openDirectReader(file);
+        final NovaSARImageReaderPool pool = openPool(file);
+        try {
+            for (int[] request : createRequests(WIDTH, HEIGHT, 1, 4)) {
+                assertSameSamples(file.getName(), request, pool, reader, reader.getLayout());
+            }
+        } finally {
+            pool.close();
+            reader.close();
+        }
+    }
+
+    static NovaSARTiffRasterReader openDirectReader(final File file) throws IOException {
+        final NovaSARFileHandles.Handle handle = NovaSARFileHandles.getInstance().open(file.toPath());
+        final NovaSARTiffLayout layout = handle.read(NovaSARTiffLayout::parse);
+        assertTrue(layout.isDirectlyReadable());
+        return new NovaSARTiffRasterReader(layout, handle, false);
+    }
+
+    static NovaSARImageReaderPool openPool(final File file) {
+        return new NovaSARImageReaderPool(file.getName(), () -> ImageIO.createImageInputStream(file), 2);
+    }
+
+    /**
+     * Creates requests {@code {offsetX, offsetY, stepX, stepY, width, height}} with every step in a range, at odd and
+     * even offsets, cut to the image.
+     */
+    static List<int[]> createRequests(final int width, final int height, final int minStep, final int maxStep) {
+        final int[][] offsets = {{0, 0}, {1, 3}, {37, 29}, {63, 47}, {64, 48}, {101, 50}, {width - 5, height - 9}};
+        final List<int[]> requests = new ArrayList<>();
+        for (int stepY = minStep; stepY <= maxStep; stepY++) {
+            for (int stepX = minStep; stepX <= maxStep; stepX++) {
+                for (int[] offset : offsets) {
+                    final int gridWidth = (width - offset[0] % stepX + stepX - 1) / stepX;
+                    final int gridHeight = (height - offset[1] % stepY + stepY - 1) / stepY;
+                    final int destWidth = Math.min(90, gridWidth - offset[0] / stepX);
+                    final int destHeight = Math.min(70, gridHeight - offset[1] / stepY);
+                    requests.add(new int[]{offset[0], offset[1], stepX, stepY, destWidth, destHeight});
+                }
+            }
+        }
+        return requests;
+    }
+
+    private static void assertSameSamples(final String name, final int[] request, final NovaSARImageReaderPool pool,
+                                          final NovaSARRasterSource source, final NovaSARTiffLayout layout)
+            throws IOException {
+        final ProductData[] actual = createBuffers(layout, request[4] * request[5]);
+        source.readRasters(request[0], request[1], request[2], request[3], request[4], request[5],
+                           getSampleOffsets(layout), actual);
+        assertSameSamples(name, request, pool, actual, layout);
+    }
+
+    private static void assertSameSamples(final String name, final int[] request, final NovaSARImageReaderPool pool,
+                                          final ProductData[] actual, final NovaSARTiffLayout layout)
+            throws IOException {
+        final ProductData[] expected = createBuffers(layout, request[4] * request[5]);
+        pool.readRasters(request[0], request[1], request[2], request[3], request[4], request[5],
+                         getSampleOffsets(layout), expected);
+        for (int s = 0; s < actual.length; s++) {
+            final String message = name + ", sample " + s + ", request " + toString(request);
+            assertSameElems(message, expected[s], actual[s]);
+            // and the pattern written, so that a reference decoding like the reader would not go unnoticed
+            for (int j = 0; j < request[5]; j++) {
+                for (int i = 0; i < request[4]; i++) {
+                    final int x = request[0] + i * request[2];
+                    final int y = request[1] + j * request[3];
+                    assertEquals(message + " at " + x + ", " + y, NovaSARProductGenerator.getSample(x, y, s),
+                                 actual[s].getElemDoubleAt(j * request[4] + i), 0.0);
+                }
+            }
+        }
+    }
+
+    static void assertSameElems(final String message, final ProductData expected, final ProductData actual) {
+        if (expected.getElems() instanceof float[]) {
+            assertArrayEquals(message, (float[]) expected.getElems(), (float[]) actual.getElems(), 0.0f);
+        } else {
+            assertArrayEquals(message, (int[]) expected.getElems(), (int[]) actual.getElems());
+        }
+    }
+
+    static int[] getSampleOffsets(final NovaSARTiffLayout layout) {
+        final int[] sampleOffsets = new int[layout.samplesPerPixel];
+        for (int s = 0; s < sampleOffsets.length; s++) {
+            sampleOffsets[s] = s;
+        }
+        return sampleOffsets;
+    }
+
+    /**
+     * Creates buffers of the types the reader decodes the samples of a raster to.
+     */
+    static ProductData[] createBuffers(final NovaSARTiffLayout layout, final int numElems) {
+        final int type = layout.sampleFormat == NovaSARTiffLayout.SAMPLE_FORMAT_FLOAT ?
+                ProductData.TYPE_FLOAT32 : ProductData.TYPE_INT32;
+        final ProductData[] buffers = new ProductData[layout.samplesPerPixel];
+        for (int s = 0; s < buffers.length; s++) {
+            buffers[s] = ProductData.createInstance(type, numElems);
+        }
+        return buffers;
+    }
+
+    private static String toString(final int[] request) {
+        return String.format("%d, %d step %d, %d size %d x %d", request[0], request[1], request[2], request[3],
+                             request[4], request[5]);
+    }
+}
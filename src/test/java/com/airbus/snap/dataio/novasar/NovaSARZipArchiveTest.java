@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2018 by Airbus UK (ENS Portsmouth), Brockmann Consult GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package com.airbus.snap.dataio.novasar;
+
+import org.esa.snap.core.datamodel.ProductData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link NovaSARZipArchive} on products written by {@link NovaSARProductGenerator} with stored and deflated
+ * entries, against {@link ZipFile} and against the samples decoded by ImageIO from the unpacked image.
+ */
+public class NovaSARZipArchiveTest {
+
+    private static final String PRODUCT_NAME = "NOVS_TEST";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testStoredEntries() throws IOException {
+        assertArchive(false);
+    }
+
+    @Test
+    public void testDeflatedEntries() throws IOException {
+        assertArchive(true);
+    }
+
+    private void assertArchive(final boolean deflated) throws IOException {
+        final NovaSARProductGenerator generator = new NovaSARProductGenerator()
+                .productType("SLC").polarisations("HH", "VV").size(301, 203).tileSize(64, 32);
+        final File zipFile = generator.writeZip(new File(tmp.newFolder(), PRODUCT_NAME + ".zip"), deflated);
+
+        try (NovaSARZipArchive archive = NovaSARZipArchive.open(zipFile);
+             ZipFile expected = new ZipFile(zipFile)) {
+            int numEntries = 0;
+            for (NovaSARZipArchive.Entry entry : archive.getEntries()) {
+                final ZipEntry expectedEntry = expected.getEntry(entry.name);
+                assertNotNull(entry.name, expectedEntry);
+                assertEquals(entry.name, expectedEntry.getSize(), entry.size);
+                assertEquals(entry.name, expectedEntry.getCompressedSize(), entry.compressedSize);
+                assertEquals(entry.name, deflated ? NovaSARZipArchive.METHOD_DEFLATED : NovaSARZipArchive.METHOD_STORED,
+                             entry.method);
+                try (InputStream in = archive.openInputStream(entry);
+                     InputStream expectedIn = expected.getInputStream(expectedEntry)) {
+                    assertArrayEquals(entry.name, expectedIn.readAllBytes(), in.readAllBytes());
+                }
+                numEntries++;
+            }
+            assertEquals(expected.size(), numEntries);
+
+            // by path, or by the file name alone
+            final NovaSARZipArchive.Entry entry = archive.find(PRODUCT_NAME + "/image_VV.tif");
+            assertNotNull(entry);
+            assertSame(entry, archive.find("elsewhere/image_VV.tif"));
+            assertSame(entry, archive.find(PRODUCT_NAME + "\\image_VV.tif"));
+            assertNull(archive.find("image_VH.tif"));
+
+            // the image, read in place if stored, from its inflated copy if deflated
+            final NovaSARZipArchive.Range range = archive.openRange(entry);
+            assertNotNull(range);
+            assertEquals(deflated, range.inflated);
+            assertEquals(entry.size, range.size);
+            final NovaSARTiffLayout layout = range.handle.read(channel -> NovaSARTiffLayout.parse(channel,
+                                                                                                  range.offset));
+            assertTrue(layout.tiled);
+            final NovaSARTiffRasterReader reader = new NovaSARTiffRasterReader(layout, range.handle, range.offset,
+                                                                               range.size, false);
+            if (deflated) {
+                assertEquals(entry.size, range.file.length());
+            }
+
+            final File imageFile = new File(tmp.newFolder(), "image_VV.tif");
+            generator.writeImage(imageFile, "VV");
+
+            // the header, from the start of the entry
+            final ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(imageFile.toPath()), 0, 8)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(header.getInt(4), archive.readTiffDirectoryOffset(entry));
+            try (ImageInputStream stream = archive.openImageInputStream(entry)) {
+                final ImageReader imageReader = NovaSARProductDirectory.getTiffIIOReader(stream);
+                assertEquals(layout.width, imageReader.getWidth(0));
+                assertEquals(layout.height, imageReader.getHeight(0));
+                imageReader.dispose();
+            }
+            final NovaSARImageReaderPool pool = NovaSARTiffRasterReaderTest.openPool(imageFile);
+            try {
+                final int[] sampleOffsets = NovaSARTiffRasterReaderTest.getSampleOffsets(layout);
+                for (int[] request : NovaSARTiffRasterReaderTest.createRequests(layout.width, layout.height, 1, 3)) {
+                    final int numElems = request[4] * request[5];
+                    final ProductData[] expectedSamples = NovaSARTiffRasterReaderTest.createBuffers(layout, numElems);
+                    final ProductData[] actualSamples = NovaSARTiffRasterReaderTest.createBuffers(layout, numElems);
+                    pool.readRasters(request[0], request[1], request[2], request[3], request[4], request[5],
+                                     sampleOffsets, expectedSamples);
+                    reader.readRasters(request[0], request[1], request[2], request[3], request[4], request[5],
+                                       sampleOffsets, actualSamples);
+                    for (int s = 0; s < sampleOffsets.length; s++) {
+                        NovaSARTiffRasterReaderTest.assertSameElems("sample " + s, expectedSamples[s],
+                                                                    actualSamples[s]);
+                    }
+                }
+            } finally {
+                pool.close();
+            }
+        }
+    }
+}